@@ -0,0 +1,367 @@
+#ifndef JACE_ARRAY_ELEMENTS_H
+#define JACE_ARRAY_ELEMENTS_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+#include "jace/proxy/types/JBoolean.h"
+#include "jace/proxy/types/JByte.h"
+#include "jace/proxy/types/JChar.h"
+#include "jace/proxy/types/JDouble.h"
+#include "jace/proxy/types/JFloat.h"
+#include "jace/proxy/types/JInt.h"
+#include "jace/proxy/types/JLong.h"
+#include "jace/proxy/types/JShort.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/type_traits/integral_constant.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <vector>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * Maps an array element type to the JNI functions that operate on arrays of that type.
+ *
+ * Only primitive types are specialized. ArrayElements<ElementType> derives from boost::true_type
+ * if ElementType is primitive, and boost::false_type otherwise.
+ *
+ * This class is internal to the JACE library.
+ */
+template <class ElementType> struct ArrayElements: public boost::false_type
+{
+};
+
+
+/**
+ * The functionality shared by all primitive ArrayElements specializations.
+ *
+ * This class is internal to the JACE library.
+ */
+template <class ElementType, class NativeType> struct PrimitiveArrayElements: public boost::true_type
+{
+	typedef NativeType Type;
+
+	/**
+	 * Converts elements to Type and copies them into an array, using a single JNI call.
+	 *
+	 * PRECONDITION: The caller validated the range, and count is positive.
+	 *
+	 * @param source an iterator over the elements
+	 */
+	template <class Iterator>
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, Iterator source)
+	{
+		std::vector<Type> buffer;
+		buffer.reserve(count);
+		for (jsize i = 0; i < count; ++i, ++source)
+			buffer.push_back(static_cast<Type>(*source));
+		ArrayElements<ElementType>::setRegion(env, array, start, count, static_cast<const Type*>(&buffer[0]));
+	}
+
+	/**
+	 * Copies elements out of an array, using a single JNI call, and converts them to the target type.
+	 *
+	 * PRECONDITION: The caller validated the range, and count is positive.
+	 *
+	 * @param target an iterator over the destination
+	 */
+	template <class Iterator>
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Iterator target)
+	{
+		std::vector<Type> buffer(count);
+		ArrayElements<ElementType>::getRegion(env, array, start, count, &buffer[0]);
+		for (jsize i = 0; i < count; ++i, ++target)
+			*target = buffer[i];
+	}
+};
+
+
+template <> struct ArrayElements< ::jace::proxy::types::JBoolean >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JBoolean, jboolean >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JBoolean, jboolean >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JBoolean, jboolean >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewBooleanArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetBooleanArrayRegion(static_cast<jbooleanArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetBooleanArrayRegion(static_cast<jbooleanArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetBooleanArrayElements(static_cast<jbooleanArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseBooleanArrayElements(static_cast<jbooleanArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JByte >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JByte, jbyte >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JByte, jbyte >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JByte, jbyte >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewByteArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetByteArrayRegion(static_cast<jbyteArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetByteArrayRegion(static_cast<jbyteArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetByteArrayElements(static_cast<jbyteArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseByteArrayElements(static_cast<jbyteArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JChar >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JChar, jchar >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JChar, jchar >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JChar, jchar >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewCharArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetCharArrayRegion(static_cast<jcharArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetCharArrayRegion(static_cast<jcharArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetCharArrayElements(static_cast<jcharArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseCharArrayElements(static_cast<jcharArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JShort >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JShort, jshort >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JShort, jshort >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JShort, jshort >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewShortArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetShortArrayRegion(static_cast<jshortArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetShortArrayRegion(static_cast<jshortArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetShortArrayElements(static_cast<jshortArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseShortArrayElements(static_cast<jshortArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JInt >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JInt, jint >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JInt, jint >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JInt, jint >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewIntArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetIntArrayRegion(static_cast<jintArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetIntArrayRegion(static_cast<jintArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetIntArrayElements(static_cast<jintArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseIntArrayElements(static_cast<jintArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JLong >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JLong, jlong >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JLong, jlong >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JLong, jlong >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewLongArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetLongArrayRegion(static_cast<jlongArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetLongArrayRegion(static_cast<jlongArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetLongArrayElements(static_cast<jlongArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseLongArrayElements(static_cast<jlongArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JFloat >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JFloat, jfloat >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JFloat, jfloat >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JFloat, jfloat >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewFloatArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetFloatArrayRegion(static_cast<jfloatArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetFloatArrayRegion(static_cast<jfloatArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetFloatArrayElements(static_cast<jfloatArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseFloatArrayElements(static_cast<jfloatArray>(array), elements, mode);
+	}
+};
+
+template <> struct ArrayElements< ::jace::proxy::types::JDouble >:
+	public PrimitiveArrayElements< ::jace::proxy::types::JDouble, jdouble >
+{
+	using PrimitiveArrayElements< ::jace::proxy::types::JDouble, jdouble >::setRegion;
+	using PrimitiveArrayElements< ::jace::proxy::types::JDouble, jdouble >::getRegion;
+
+	/**
+	 * Returns a new local reference to an array.
+	 */
+	static jarray newArray(JNIEnv* env, jsize length)
+	{
+		return env->NewDoubleArray(length);
+	}
+
+	static void setRegion(JNIEnv* env, jarray array, jsize start, jsize count, const Type* source)
+	{
+		env->SetDoubleArrayRegion(static_cast<jdoubleArray>(array), start, count, source);
+	}
+
+	static void getRegion(JNIEnv* env, jarray array, jsize start, jsize count, Type* target)
+	{
+		env->GetDoubleArrayRegion(static_cast<jdoubleArray>(array), start, count, target);
+	}
+
+	static Type* get(JNIEnv* env, jarray array, jboolean* isCopy)
+	{
+		return env->GetDoubleArrayElements(static_cast<jdoubleArray>(array), isCopy);
+	}
+
+	static void release(JNIEnv* env, jarray array, Type* elements, jint mode)
+	{
+		env->ReleaseDoubleArrayElements(static_cast<jdoubleArray>(array), elements, mode);
+	}
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
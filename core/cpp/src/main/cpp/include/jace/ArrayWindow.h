@@ -0,0 +1,168 @@
+#ifndef JACE_ARRAY_WINDOW_H
+#define JACE_ARRAY_WINDOW_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/thread/mutex.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <vector>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A native copy of a contiguous range of a primitive array.
+ *
+ * The range is read using a single Get<Type>ArrayRegion() call. Modifications are applied to the
+ * native copy and written back using a single Set<Type>ArrayRegion() call when the window is
+ * flushed or moved.
+ *
+ * Instances are thread-safe, so ElementProxies may write to a window that another thread is reading
+ * from.
+ *
+ * @author Gili Tzabari
+ */
+class ArrayWindow
+{
+public:
+	/**
+	 * The operations on arrays of a primitive type. Internal to ArrayWindow.
+	 */
+	struct Operations;
+
+	/**
+	 * Creates a new, empty window.
+	 *
+	 * @param array the array
+	 * @param elementType the JNI signature of the array's element type, for example 'D' for double
+	 * @throws JNIException if elementType does not denote a primitive type
+	 */
+	JACE_API ArrayWindow(jarray array, char elementType);
+
+	/**
+	 * Writes back any modifications and releases the array.
+	 */
+	JACE_API ~ArrayWindow() throw ();
+
+	/**
+	 * Indicates if windows are supported for arrays of the specified element type.
+	 *
+	 * @param elementType the JNI signature of the array's element type
+	 */
+	JACE_API static bool isSupported(char elementType);
+
+	/**
+	 * Returns true if the window contains the specified index.
+	 */
+	JACE_API bool contains(int index) const;
+
+	/**
+	 * Returns the index of the first element in the window.
+	 */
+	JACE_API int getStart() const;
+
+	/**
+	 * Returns the number of elements in the window.
+	 */
+	JACE_API int getLength() const;
+
+	/**
+	 * Returns the element at the specified index.
+	 *
+	 * @param index an index contained by the window
+	 */
+	JACE_API jvalue get(int index) const;
+
+	/**
+	 * Returns the element at the specified index, if the window contains it.
+	 *
+	 * @param index the index of the element
+	 * @param value receives the element
+	 * @return false if the window does not contain the index
+	 */
+	JACE_API bool tryGet(int index, jvalue& value) const;
+
+	/**
+	 * Sets the element at the specified index. If the window does not contain the index, the value is
+	 * written directly to the array.
+	 *
+	 * @throws ArrayIndexOutOfBoundsException if the index is outside of the array
+	 */
+	JACE_API void set(int index, jvalue value);
+
+	/**
+	 * Moves the window, writing back any modifications first.
+	 *
+	 * @param start the index of the first element to read
+	 * @param length the number of elements to read
+	 */
+	JACE_API void load(int start, int length);
+
+	/**
+	 * Writes back any modifications.
+	 *
+	 * @throws JNIException if the modifications could not be written back
+	 */
+	JACE_API void flush();
+
+	/**
+	 * Writes back any modifications and empties the window.
+	 *
+	 * @throws JNIException if the modifications could not be written back
+	 */
+	JACE_API void invalidate();
+
+	/**
+	 * Returns the number of elements that iterators read at a time, unless overridden by
+	 * JArray::setWindowSize(). The default value is 16384.
+	 */
+	JACE_API static int getDefaultSize();
+
+	/**
+	 * Sets the number of elements that iterators read at a time. Values less than or equal to zero
+	 * disable windows.
+	 */
+	JACE_API static void setDefaultSize(int size);
+
+private:
+	/**
+	 * Prevent copying.
+	 */
+	ArrayWindow(const ArrayWindow&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	ArrayWindow& operator=(const ArrayWindow&);
+
+	/**
+	 * Writes back any modifications.
+	 *
+	 * PRECONDITION: The caller holds the mutex.
+	 */
+	void flushLocked();
+
+	/**
+	 * A global reference to the array.
+	 */
+	jarray array;
+	const Operations* operations;
+	int start;
+	int length;
+	bool dirty;
+	std::vector<char> buffer;
+	/**
+	 * Guards the window.
+	 */
+	mutable boost::mutex mutex;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
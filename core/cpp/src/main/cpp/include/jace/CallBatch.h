@@ -0,0 +1,223 @@
+#ifndef JACE_CALL_BATCH_H
+#define JACE_CALL_BATCH_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+#include "jace/JArguments.h"
+#include "jace/JClass.h"
+#include "jace/proxy/JObject.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/unordered_map.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <cstddef>
+#include <string>
+#include <vector>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * Queues independent Java method invocations and executes them using a single JNI transition.
+ *
+ * Every proxy invocation crosses from C++ into Java and back. When a request makes thousands of
+ * small calls, the transitions dominate. A CallBatch encodes the calls into native memory instead,
+ * and submit() hands them to org.jace.util.BatchDispatcher, which invokes them in Java and writes
+ * all the results back in bulk:
+ *
+ *   CallBatch batch(256);
+ *   for (...)
+ *     batch.add(map, "get", "(Ljava/lang/Object;)Ljava/lang/Object;", JArguments() << key);
+ *   batch.submit();
+ *   JNIEnv* env = attach();
+ *   for (size_t i = 0; i < batch.size(); ++i)
+ *   {
+ *     jobject result = batch.getResult(i).l;
+ *     Object value(result);
+ *     deleteLocalRef(env, result);
+ *     ...
+ *   }
+ *
+ * The calls are executed in order. A call that throws does not prevent the remaining calls from
+ * being executed; its exception is rethrown by getResult(). Calls are invoked using reflection, so
+ * batching pays off only for calls whose cost is dominated by the transition. Reflection enforces
+ * Java's access checks: a call to a method that org.jace.util.BatchDispatcher may not access, such
+ * as a private method, fails with java.lang.IllegalAccessException.
+ *
+ * A CallBatch holds references to the targets and arguments of its calls until it is cleared. It
+ * is not thread-safe, and must be destroyed before the virtual machine is shut down.
+ *
+ * @author Gili Tzabari
+ */
+class CallBatch
+{
+public:
+	/**
+	 * Creates a new batch.
+	 *
+	 * @param maxCalls the maximum number of calls that may be queued before the batch is submitted
+	 * @throws JNIException if maxCalls is zero
+	 */
+	JACE_API explicit CallBatch(std::size_t maxCalls = 1024) throw (JNIException);
+
+	/**
+	 * Releases the references held by the batch.
+	 */
+	JACE_API ~CallBatch() throw ();
+
+	/**
+	 * Queues an instance method invocation.
+	 *
+	 * @param target the object to invoke the method on
+	 * @param name the name of the method
+	 * @param signature the JNI signature of the method
+	 * @param arguments the arguments of the method, which are read immediately
+	 * @return the index of the call
+	 * @throws JNIException if the batch is full or has been submitted, if target is null, or if the
+	 *   method does not exist
+	 */
+	JACE_API std::size_t add(const ::jace::proxy::JObject& target, const std::string& name,
+		const std::string& signature, const JArguments& arguments = JArguments()) throw (JNIException);
+
+	/**
+	 * Queues a static method invocation.
+	 *
+	 * @param jClass the class that declares the method
+	 * @param name the name of the method
+	 * @param signature the JNI signature of the method
+	 * @param arguments the arguments of the method, which are read immediately
+	 * @return the index of the call
+	 * @throws JNIException if the batch is full or has been submitted, or if the method does not
+	 *   exist
+	 */
+	JACE_API std::size_t addStatic(const JClass& jClass, const std::string& name,
+		const std::string& signature, const JArguments& arguments = JArguments()) throw (JNIException);
+
+	/**
+	 * Executes the queued calls.
+	 *
+	 * @return the number of calls that threw an exception
+	 * @throws JNIException if the batch has already been submitted or if the dispatcher fails
+	 */
+	JACE_API std::size_t submit() throw (JNIException);
+
+	/**
+	 * Indicates if a call threw an exception.
+	 *
+	 * @param index the index of the call
+	 * @throws JNIException if the batch has not been submitted or if index is out of bounds
+	 */
+	JACE_API bool failed(std::size_t index) const throw (JNIException);
+
+	/**
+	 * Returns the result of a call.
+	 *
+	 * @param index the index of the call
+	 * @return the value returned by the method. If the method returns a reference, the value holds a
+	 *   new local reference that the caller must release.
+	 * @throws JNIException if the batch has not been submitted or if index is out of bounds
+	 * @throws Throwable the C++ proxy of the exception thrown by the call
+	 */
+	JACE_API jvalue getResult(std::size_t index);
+
+	/**
+	 * Returns the number of queued calls.
+	 */
+	JACE_API std::size_t size() const;
+
+	/**
+	 * Returns the maximum number of calls that may be queued.
+	 */
+	JACE_API std::size_t getMaxCalls() const;
+
+	/**
+	 * Returns true if no more calls may be queued.
+	 */
+	JACE_API bool isFull() const;
+
+	/**
+	 * Discards the queued calls and their results, so the batch may be reused.
+	 */
+	JACE_API void clear();
+
+private:
+	/**
+	 * Prevent copying.
+	 */
+	CallBatch(const CallBatch&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	CallBatch& operator=(const CallBatch&);
+
+	/**
+	 * Queues a call.
+	 *
+	 * @param target the object to invoke the method on, or null for static methods
+	 */
+	std::size_t addCall(JNIEnv* env, jclass jClass, jobject target, const std::string& name,
+		const std::string& signature, const JArguments& arguments, bool isStatic);
+
+	/**
+	 * Returns the index of a method in the methods array, adding it if necessary.
+	 */
+	jint getMethodIndex(JNIEnv* env, jclass jClass, jmethodID method, bool isStatic);
+
+	/**
+	 * Adds a reference to the references array.
+	 *
+	 * @return the index of the reference, or -1 if it is null
+	 */
+	jint addReference(JNIEnv* env, jobject reference);
+
+	/**
+	 * Returns an array that is large enough to hold a new element, growing it if necessary.
+	 *
+	 * @param array a global reference to the array, or null if it does not exist
+	 * @param elementClass the class of the array elements
+	 * @param length the number of elements used in the array
+	 */
+	static jobjectArray ensureCapacity(JNIEnv* env, jobjectArray array, jclass elementClass,
+		std::size_t length);
+
+	/**
+	 * Throws JNIException if the batch has not been submitted or if index is out of bounds.
+	 */
+	void checkResultIndex(std::size_t index, const char* function) const;
+
+	const std::size_t maxCalls;
+	/**
+	 * The encoded calls, as documented by org.jace.util.BatchDispatcher.
+	 */
+	std::vector<jlong> calls;
+	/**
+	 * Indicates if each call returns a reference.
+	 */
+	std::vector<bool> returnsReference;
+	/**
+	 * The java.lang.reflect.Method invoked by the calls.
+	 */
+	jobjectArray methods;
+	std::size_t methodCount;
+	boost::unordered_map<jmethodID, jint> methodIndexes;
+	/**
+	 * The targets and reference arguments of the calls.
+	 */
+	jobjectArray references;
+	std::size_t referenceCount;
+	std::vector<jvalue> primitiveResults;
+	jobjectArray objectResults;
+	jobjectArray errors;
+	std::vector<bool> failures;
+	bool submitted;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
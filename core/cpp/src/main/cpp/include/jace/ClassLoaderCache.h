@@ -0,0 +1,131 @@
+#ifndef JACE_CLASS_LOADER_CACHE_H
+#define JACE_CLASS_LOADER_CACHE_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/shared_ptr.hpp>
+#include <boost/thread/shared_mutex.hpp>
+#include <boost/unordered_map.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <string>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * The classes that were loaded by a ClassLoader, keyed by internal name.
+ *
+ * Threads that use the same ClassLoader (see setClassLoader()) share the same cache, so each
+ * ClassLoader resolves a class only once. Classes resolved by one ClassLoader are never returned to
+ * threads that use a different ClassLoader. Threads that do not use a ClassLoader share the system
+ * cache, which loads classes using FindClass().
+ *
+ * The caches are kept in a registry, keyed by a weak global reference to their ClassLoader, so
+ * threads that stop and resume using a ClassLoader do not resolve its classes again. Because every
+ * class strongly refers to its ClassLoader, the cache refers to its classes using weak global
+ * references as well. The classes remain valid while any thread uses the ClassLoader, which keeps
+ * it reachable. Once the ClassLoader is garbage-collected, the next call to get() destroys its
+ * cache, and discards the members of its classes from MemberRegistry.
+ *
+ * This class is internal to the JACE library.
+ *
+ * @author Gili Tzabari
+ */
+class ClassLoaderCache
+{
+public:
+	/**
+	 * Returns the cache of a ClassLoader, creating it if necessary. Destroys the caches of
+	 * ClassLoaders that were garbage-collected.
+	 *
+	 * @param env the JNIEnv of the current thread
+	 * @param classLoader the ClassLoader
+	 * @throws JNIException if the cache could not be created
+	 */
+	JACE_API static boost::shared_ptr<ClassLoaderCache> get(JNIEnv* env, jobject classLoader);
+
+	/**
+	 * Returns the cache of classes loaded using FindClass(). Its classes remain valid until the
+	 * process exits.
+	 */
+	JACE_API static ClassLoaderCache& getSystem();
+
+	/**
+	 * Releases the cached classes.
+	 */
+	JACE_API ~ClassLoaderCache() throw ();
+
+	/**
+	 * Returns the ID of the cache. IDs are never reused, even after the cache is destroyed. The system
+	 * cache has an ID of 0.
+	 */
+	JACE_API unsigned int getId() const;
+
+	/**
+	 * Returns a class, loading it if necessary.
+	 *
+	 * @param env the JNIEnv of the current thread
+	 * @param classLoader a strong reference to the ClassLoader, or null for the system cache
+	 * @param internalName the internal name of the class, for example "java/lang/String"
+	 * @return a global reference to the class, for the system cache, or a weak global reference that
+	 *   remains valid while the caller holds a strong reference to the ClassLoader
+	 * @throws JNIException if the class could not be loaded
+	 */
+	JACE_API jclass getClass(JNIEnv* env, jobject classLoader, const std::string& internalName);
+
+private:
+	/**
+	 * Creates the system cache.
+	 */
+	ClassLoaderCache();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param env the JNIEnv of the current thread
+	 * @param classLoader the ClassLoader
+	 * @param id the ID of the cache
+	 * @throws JNIException if the cache could not be created
+	 */
+	ClassLoaderCache(JNIEnv* env, jobject classLoader, unsigned int id);
+
+	/**
+	 * Prevent copying.
+	 */
+	ClassLoaderCache(const ClassLoaderCache&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	ClassLoaderCache& operator=(const ClassLoaderCache&);
+
+	typedef boost::unordered_map<std::string, jclass> ClassMap;
+
+	/**
+	 * The cache of classes loaded using FindClass().
+	 */
+	static ClassLoaderCache system;
+
+	/**
+	 * A weak global reference to the ClassLoader, or null for the system cache.
+	 */
+	jweak classLoader;
+	/**
+	 * ClassLoader.loadClass(String).
+	 */
+	jmethodID loadClass;
+	unsigned int id;
+	boost::shared_mutex mutex;
+	ClassMap classes;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
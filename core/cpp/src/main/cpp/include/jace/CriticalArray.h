@@ -0,0 +1,255 @@
+#ifndef JACE_CRITICAL_ARRAY_H
+#define JACE_CRITICAL_ARRAY_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/Jace.h"
+#include "jace/JArray.h"
+#include "jace/ArrayElements.h"
+#include "jace/JNIException.h"
+#include "jace/proxy/types/JBoolean.h"
+#include "jace/proxy/types/JByte.h"
+#include "jace/proxy/types/JChar.h"
+#include "jace/proxy/types/JDouble.h"
+#include "jace/proxy/types/JFloat.h"
+#include "jace/proxy/types/JInt.h"
+#include "jace/proxy/types/JLong.h"
+#include "jace/proxy/types/JShort.h"
+
+#include <jni.h>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A scoped view of the elements of a primitive array as a contiguous range of native memory.
+ *
+ * The elements are acquired using GetPrimitiveArrayCritical(), which usually avoids copying them.
+ * If the virtual machine refuses, the view falls back to Get<Type>ArrayElements(). The elements
+ * are released when the view goes out of scope. For example:
+ *
+ *   JArray<JDouble> samples = ...;
+ *   {
+ *     CriticalArray<JDouble> view(samples);
+ *     std::sort(view.begin(), view.end());
+ *   }
+ *
+ * While a critical region is held the current thread may not invoke any JNI functions, including
+ * ones invoked indirectly through Jace proxies, nor block waiting on other Java threads. Define
+ * JACE_CHECK_CRITICAL (for your entire project, including Jace) to have attach() throw JNIException
+ * when this rule is violated.
+ *
+ * A view may only be used by the thread that created it, and must not outlive its array.
+ *
+ * @author Gili Tzabari
+ */
+template <class ElementType> class CriticalArray
+{
+public:
+	typedef typename ArrayElements<ElementType>::Type Type;
+	typedef Type* iterator;
+	typedef const Type* const_iterator;
+
+	/**
+	 * Indicates what happens to modifications when the view is released.
+	 */
+	enum ReleaseMode
+	{
+		/**
+		 * Modifications are copied back to the array.
+		 */
+		COMMIT = 0,
+		/**
+		 * Modifications are discarded, if the elements were copied. Use this mode for read-only access
+		 * to avoid copying the elements back.
+		 */
+		ABORT = JNI_ABORT
+	};
+
+	/**
+	 * Acquires the elements of an array.
+	 *
+	 * @param array the array
+	 * @param mode the release mode
+	 * @throws JNIException if the array is null or its elements could not be acquired
+	 */
+	explicit CriticalArray(JArray<ElementType>& array, ReleaseMode mode = COMMIT):
+		env(attach()), jArray(array.getJavaJniArray()), elements(0), elementCount(0), releaseMode(mode),
+		critical(true), copy(false)
+	{
+		if (jArray == 0)
+			throw JNIException("[CriticalArray::CriticalArray] Can not acquire the elements of a null array.");
+		elementCount = array.length();
+
+		// Make modifications made through the array's iterators visible to this view. The view may
+		// modify the array directly, so the window is emptied as well; otherwise operator[] and the
+		// iterators would keep returning, and eventually write back, the values it held beforehand.
+		array.invalidateWindow();
+
+		jboolean isCopy = JNI_FALSE;
+		elements = static_cast<Type*>(env->GetPrimitiveArrayCritical(jArray, &isCopy));
+		if (elements == 0)
+		{
+			critical = false;
+			catchAndThrow();
+			elements = ArrayElements<ElementType>::get(env, jArray, &isCopy);
+			if (elements == 0)
+			{
+				catchAndThrow();
+				throw JNIException("[CriticalArray::CriticalArray] Unable to acquire the array elements. The "
+					"virtual machine's memory could be exhausted.");
+			}
+		}
+		copy = isCopy == JNI_TRUE;
+
+		#ifdef JACE_CHECK_CRITICAL
+			if (critical)
+				enterCriticalRegion();
+		#endif
+	}
+
+	/**
+	 * Releases the elements, if they have not already been released.
+	 */
+	~CriticalArray() throw ()
+	{
+		release();
+	}
+
+	/**
+	 * Releases the elements. The view may not be accessed afterwards.
+	 */
+	void release() throw ()
+	{
+		if (elements == 0)
+			return;
+		if (critical)
+		{
+			#ifdef JACE_CHECK_CRITICAL
+				exitCriticalRegion();
+			#endif
+			env->ReleasePrimitiveArrayCritical(jArray, elements, releaseMode);
+		}
+		else
+			ArrayElements<ElementType>::release(env, jArray, elements, releaseMode);
+		elements = 0;
+	}
+
+	/**
+	 * Returns the release mode.
+	 */
+	ReleaseMode getReleaseMode() const
+	{
+		return releaseMode;
+	}
+
+	/**
+	 * Sets the release mode.
+	 */
+	void setReleaseMode(ReleaseMode mode)
+	{
+		releaseMode = mode;
+	}
+
+	/**
+	 * Returns true if the elements were acquired using GetPrimitiveArrayCritical().
+	 */
+	bool isCritical() const
+	{
+		return critical;
+	}
+
+	/**
+	 * Returns true if the view points to a copy of the elements, as opposed to the array itself.
+	 */
+	bool isCopy() const
+	{
+		return copy;
+	}
+
+	/**
+	 * Returns the number of elements.
+	 */
+	size_t size() const
+	{
+		return elementCount;
+	}
+
+	/**
+	 * Returns the elements.
+	 */
+	Type* data()
+	{
+		return elements;
+	}
+
+	/**
+	 * Returns the elements.
+	 */
+	const Type* data() const
+	{
+		return elements;
+	}
+
+	iterator begin()
+	{
+		return elements;
+	}
+
+	const_iterator begin() const
+	{
+		return elements;
+	}
+
+	iterator end()
+	{
+		return elements + elementCount;
+	}
+
+	const_iterator end() const
+	{
+		return elements + elementCount;
+	}
+
+	Type& operator[](size_t index)
+	{
+		#ifdef JACE_CHECK_ARRAYS
+			if (index >= elementCount)
+				throw ::jace::JNIException("[CriticalArray::operator[]] invalid array index.");
+		#endif
+		return elements[index];
+	}
+
+	const Type& operator[](size_t index) const
+	{
+		#ifdef JACE_CHECK_ARRAYS
+			if (index >= elementCount)
+				throw ::jace::JNIException("[CriticalArray::operator[]] invalid array index.");
+		#endif
+		return elements[index];
+	}
+
+private:
+	/**
+	 * Prevent copying.
+	 */
+	CriticalArray(const CriticalArray&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	CriticalArray& operator=(const CriticalArray&);
+
+	JNIEnv* env;
+	jarray jArray;
+	Type* elements;
+	size_t elementCount;
+	ReleaseMode releaseMode;
+	bool critical;
+	bool copy;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
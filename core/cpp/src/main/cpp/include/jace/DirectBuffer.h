@@ -0,0 +1,205 @@
+#ifndef JACE_DIRECT_BUFFER_H
+#define JACE_DIRECT_BUFFER_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+#include "jace/proxy/JObject.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/shared_ptr.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <cstddef>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A java.nio.Buffer whose contents reside in native memory.
+ *
+ * DirectBuffer shares memory between C++ and Java without copying it. It can either wrap
+ * C++-owned memory in a new java.nio.ByteBuffer, or expose the memory of a direct buffer (including
+ * a MappedByteBuffer) received from Java. For example:
+ *
+ *   boost::shared_ptr<Frame> frame = ...;
+ *   DirectBuffer buffer = DirectBuffer::wrap(frame->pixels, frame->size, frame);
+ *   channel.write(buffer.toProxy<ByteBuffer>());
+ *
+ *   DirectBufferView<jfloat> samples(DirectBuffer(channel.map(...)));
+ *   std::accumulate(samples.begin(), samples.end(), 0.0f);
+ *
+ * Copies of a DirectBuffer share the same Java object. Copying does not invoke any JNI functions.
+ *
+ * The ByteBuffer created by wrap() keeps the owner of its memory alive, so Java code may retain it
+ * after the last copy of the DirectBuffer is destroyed. The owner is released by a PeerCleaner
+ * thread once the ByteBuffer becomes phantom reachable.
+ *
+ * @author Gili Tzabari
+ */
+class DirectBuffer
+{
+public:
+	/**
+	 * Wraps native memory in a new java.nio.ByteBuffer.
+	 *
+	 * The owner is kept alive until the ByteBuffer, and any buffers derived from it such as
+	 * duplicate() or slice(), become phantom reachable; the owner's destructor then runs on a
+	 * PeerCleaner thread. If the virtual machine shuts down first, the owner is never released.
+	 * Requires jace-runtime.jar on the class path, unless owner is null.
+	 *
+	 * @param address the address of the memory
+	 * @param capacity the size of the memory, in bytes
+	 * @param owner the object that owns the memory, or null if the memory is never freed
+	 * @throws JNIException if the virtual machine does not support direct buffers, or the owner could
+	 * not be registered with PeerCleaner
+	 */
+	JACE_API static DirectBuffer wrap(void* address, jlong capacity, const boost::shared_ptr<void>& owner);
+
+	/**
+	 * Wraps a direct buffer received from Java.
+	 *
+	 * @param buffer a direct java.nio.Buffer
+	 * @throws JNIException if buffer is null or is not a direct buffer
+	 */
+	JACE_API explicit DirectBuffer(jobject buffer);
+
+	/**
+	 * Wraps a direct buffer received from Java.
+	 *
+	 * @param buffer a proxy of a direct java.nio.Buffer, such as java.nio.ByteBuffer
+	 * @throws JNIException if buffer is null or is not a direct buffer
+	 */
+	JACE_API explicit DirectBuffer(const ::jace::proxy::JObject& buffer);
+
+	/**
+	 * Returns the address of the buffer's memory.
+	 */
+	JACE_API void* getAddress() const;
+
+	/**
+	 * Returns the capacity of the buffer, as reported by GetDirectBufferCapacity(). The capacity of
+	 * a ByteBuffer is measured in bytes, while the capacity of other buffers, such as IntBuffer, is
+	 * measured in elements.
+	 */
+	JACE_API jlong getCapacity() const;
+
+	/**
+	 * Returns true if the buffer is a java.nio.ByteBuffer.
+	 */
+	JACE_API bool isByteBuffer() const;
+
+	/**
+	 * Returns a global reference to the buffer. The reference is valid as long as this DirectBuffer.
+	 */
+	JACE_API jobject getJavaJniObject() const;
+
+	/**
+	 * Returns a proxy of the buffer, which may be passed into Java methods. For example,
+	 * toProxy<ByteBuffer>() returns a java.nio.ByteBuffer proxy.
+	 *
+	 * The caller is responsible for ensuring that ProxyType is compatible with the buffer's class.
+	 */
+	template <class ProxyType> ProxyType toProxy() const
+	{
+		return ProxyType(getJavaJniObject());
+	}
+
+private:
+	struct State;
+
+	explicit DirectBuffer(const boost::shared_ptr<State>& state);
+
+	/**
+	 * Populates the state of a buffer received from Java.
+	 */
+	void initialize(jobject buffer);
+
+	boost::shared_ptr<State> state;
+};
+
+
+/**
+ * A typed view of the memory of a DirectBuffer, for use with the standard C++ library.
+ *
+ * For ByteBuffers, T may be any type that can be copied using memcpy() and the view contains
+ * getCapacity() / sizeof(T) elements. The caller is responsible for the buffer's alignment and
+ * byte order. For other buffers, such as DoubleBuffer, T must be the JNI type of the buffer's
+ * elements (jdouble) and the view contains getCapacity() elements.
+ *
+ * The view keeps the buffer alive.
+ *
+ * @author Gili Tzabari
+ */
+template <class T> class DirectBufferView
+{
+public:
+	typedef T* iterator;
+	typedef const T* const_iterator;
+
+	/**
+	 * Creates a new view.
+	 *
+	 * @param buffer the buffer
+	 */
+	explicit DirectBufferView(const DirectBuffer& buffer):
+		directBuffer(buffer), elements(static_cast<T*>(buffer.getAddress())), elementCount(0)
+	{
+		if (buffer.isByteBuffer())
+			elementCount = static_cast<size_t>(buffer.getCapacity()) / sizeof(T);
+		else
+			elementCount = static_cast<size_t>(buffer.getCapacity());
+	}
+
+	/**
+	 * Returns the underlying buffer.
+	 */
+	const DirectBuffer& getBuffer() const
+	{
+		return directBuffer;
+	}
+
+	/**
+	 * Returns the number of elements.
+	 */
+	size_t size() const
+	{
+		return elementCount;
+	}
+
+	T* data() const
+	{
+		return elements;
+	}
+
+	iterator begin() const
+	{
+		return elements;
+	}
+
+	iterator end() const
+	{
+		return elements + elementCount;
+	}
+
+	T& operator[](size_t index) const
+	{
+		#ifdef JACE_CHECK_ARRAYS
+			if (index >= elementCount)
+				throw ::jace::JNIException("[DirectBufferView::operator[]] invalid buffer index.");
+		#endif
+		return elements[index];
+	}
+
+private:
+	DirectBuffer directBuffer;
+	T* elements;
+	size_t elementCount;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
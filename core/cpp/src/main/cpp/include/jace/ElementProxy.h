@@ -5,6 +5,7 @@
 #include "jace/Namespace.h"
 #include "jace/Jace.h"
 #include "jace/ElementProxyHelper.h"
+#include "jace/ArrayWindow.h"
 #include "jace/proxy/JObject.h"
 #include "jace/JClass.h"
 #include "jace/proxy/types/JBoolean.h"
@@ -16,6 +17,10 @@
 #include "jace/proxy/types/JLong.h"
 #include "jace/proxy/types/JShort.h"
 
+#include "jace/BoostWarningOff.h"
+#include <boost/shared_ptr.hpp>
+#include "jace/BoostWarningOn.h"
+
 BEGIN_NAMESPACE(jace)
 
 /**
@@ -46,6 +51,16 @@ public:
 	}
 
 
+	/**
+	 * Creates a new ElementProxy whose element is read from, and written to, an ArrayWindow.
+	 *
+	 * Unlike the other constructors, this one does not allocate a global reference.
+	 */
+	ElementProxy(const boost::shared_ptr< ::jace::ArrayWindow >& _window, jvalue element, int _index):
+		ElementType(element), parent(0), index(_index), window(_window)
+	{}
+
+
 	/**
 	 * Copy constructor. This constructor should also never be called. It should be specialized away.
 	 */
@@ -81,10 +96,11 @@ public:
 
 	~ElementProxy() throw()
 	{
+		if (parent == 0)
+			return;
 		try
 		{
-			JNIEnv* env = attach();
-			deleteGlobalRef(env, parent);
+			releaseGlobalRef(parent);
 		}
 		catch (VirtualMachineShutdownError&)
 		{
@@ -95,6 +111,10 @@ public:
 private:
 	jarray parent;
 	int index;
+	/**
+	 * The window containing the element, or null if the element is accessed directly.
+	 */
+	boost::shared_ptr< ::jace::ArrayWindow > window;
 };
 
 END_NAMESPACE(jace)
@@ -5,13 +5,19 @@
 #include "jace/Namespace.h"
 #include "jace/proxy/JValue.h"
 
+#include <jni.h>
+
 #include <list>
+#include <vector>
 
 BEGIN_NAMESPACE(jace)
 
 /**
  * Represents the list of arguments for a java method.
  *
+ * Up to INLINE_CAPACITY arguments are stored inline, so passing them to a method does not allocate
+ * any memory.
+ *
  * @author Toby Reyelts
  */
 class JArguments
@@ -57,8 +63,40 @@ public:
 	 */
 	JACE_API std::list<const ::jace::proxy::JValue*> asList() const;
 
+	/**
+	 * Returns the number of arguments.
+	 */
+	JACE_API size_t size() const;
+
+	/**
+	 * Returns the argument at the specified index.
+	 *
+	 * @param index the index of the argument
+	 */
+	JACE_API const ::jace::proxy::JValue& getValue(size_t index) const;
+
+	/**
+	 * Returns the arguments as an array of jvalues, suitable for Call<Type>MethodA().
+	 *
+	 * The values are read when this method is invoked. The array is owned by this JArguments and
+	 * remains valid until the next invocation of add() or asJValues().
+	 */
+	JACE_API const jvalue* asJValues() const;
+
+	/**
+	 * The number of arguments that are stored without allocating memory.
+	 */
+	static const size_t INLINE_CAPACITY = 10;
+
 private:
-	std::list<const ::jace::proxy::JValue*> mList;
+	size_t mSize;
+	const ::jace::proxy::JValue* mInlineValues[INLINE_CAPACITY];
+	mutable jvalue mInlineJValues[INLINE_CAPACITY];
+	/**
+	 * Holds all arguments once there are more than INLINE_CAPACITY of them.
+	 */
+	std::vector<const ::jace::proxy::JValue*> mOverflowValues;
+	mutable std::vector<jvalue> mOverflowJValues;
 };
 
 
@@ -6,6 +6,8 @@
 #include "jace/Jace.h"
 #include "jace/JClassImpl.h"
 #include "jace/ElementProxy.h"
+#include "jace/ArrayWindow.h"
+#include "jace/ArrayElements.h"
 #include "jace/JArrayHelper.h"
 #include "jace/JNIException.h"
 #include "jace/proxy/types/JBoolean.h"
@@ -18,14 +20,19 @@
 #include "jace/proxy/types/JShort.h"
 
 #include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
 #include <boost/thread/mutex.hpp>
+#include <boost/shared_ptr.hpp>
 #include "jace/BoostWarningOn.h"
 
+#include <algorithm>
 #include <string>
 #include <vector>
 
 BEGIN_NAMESPACE(jace)
 
+template <class ElementType> class CriticalArray;
+
 
 /**
  * Represents an array of JValues.
@@ -102,32 +109,18 @@ public:
 
 	/**
 	 * Creates a new JArray from a vector of a convertible type, T.
+	 *
+	 * Arrays of primitive types are populated using a single JNI call.
 	 */
 	template <class T> JArray(const std::vector<T>& values): JObject(0)
 	{
-		#ifdef NO_IMPLICIT_TYPENAME
-			#define TYPENAME typename
-		#else
-			#define TYPENAME
-		#endif
-
-		jobjectArray localArray = ::jace::JArrayHelper::newArray(values.size(), ElementType::staticGetJavaJniClass());
-		this->setJavaJniObject(localArray);
-
-		int i = 0;
-		JNIEnv* env = attach();
-
-		for (TYPENAME std::vector<T>::const_iterator it = values.begin(); it != values.end(); ++it, ++i)
-		{
-			env->SetObjectArrayElement(localArray, i, ElementType(*it));
-			catchAndThrow();
-		}
-		_length = values.size();
-		deleteLocalRef(env, localArray);
+		initialize(values, ::jace::ArrayElements<ElementType>());
 	}
 
 	JArray(const JArray& array): JObject(0)
 	{
+		// Make modifications made through the other array's iterators visible to this one
+		array.flush();
 		this->setJavaJniObject(array);
 		this->_length = array._length;
 	}
@@ -155,6 +148,190 @@ public:
 	}
 
 
+	/**
+	 * Returns the number of elements that iterators copy into native memory at a time.
+	 *
+	 * @return zero if ArrayWindow::getDefaultSize() is used
+	 */
+	int getWindowSize() const
+	{
+		boost::mutex::scoped_lock lock(windowState.mutex);
+		return windowState.size;
+	}
+
+
+	/**
+	 * Sets the number of elements that iterators copy into native memory at a time.
+	 *
+	 * @param size the number of elements, zero to use ArrayWindow::getDefaultSize(), or a negative
+	 * value to access elements one at a time
+	 */
+	void setWindowSize(int size)
+	{
+		boost::mutex::scoped_lock lock(windowState.mutex);
+		windowState.size = size;
+	}
+
+
+	/**
+	 * Writes back any modifications that were made through iterators.
+	 *
+	 * Modifications are written back automatically when the last iterator is destroyed, and when the
+	 * iterators move past the elements that were modified. This method is useful for observing the
+	 * modifications from Java while iterators are still alive.
+	 */
+	void flush() const
+	{
+		boost::mutex::scoped_lock lock(windowState.mutex);
+		if (windowState.window)
+			windowState.window->flush();
+	}
+
+
+	/**
+	 * Copies elements from native memory into the array, using a single JNI call.
+	 * Only supported by arrays of primitive types.
+	 *
+	 * @param source the elements to copy. Elements whose type differs from the array's JNI type are
+	 * converted first.
+	 * @param start the index of the first array element to overwrite
+	 * @param count the number of elements to copy
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	template <class T> void copyFrom(const T* source, int start, int count)
+	{
+		#ifdef JACE_CHECK_NULLS
+			if (!static_cast<jobject>(*this))
+				throw ::jace::JNIException("[JArray::copyFrom] Can not copy into a null array.");
+		#endif
+
+		checkCopyRange(start, count);
+		if (count == 0)
+			return;
+
+		// Make sure that iterators do not overwrite, or read stale copies of, the new values
+		invalidateWindow();
+
+		JNIEnv* env = attach();
+		::jace::ArrayElements<ElementType>::setRegion(env, getJavaJniArray(), start, count, source);
+		catchAndThrow();
+	}
+
+	/**
+	 * Copies the contents of a vector into the array, using a single JNI call.
+	 * Only supported by arrays of primitive types.
+	 *
+	 * @param source the elements to copy
+	 * @param start the index of the first array element to overwrite
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	template <class T> void copyFrom(const std::vector<T>& source, int start = 0)
+	{
+		copyFrom(source.empty() ? static_cast<const T*>(0) : &source[0], start,
+			static_cast<int>(source.size()));
+	}
+
+	/**
+	 * Copies the contents of a vector into the array, using a single JNI call.
+	 * Only supported by arrays of primitive types.
+	 *
+	 * @param source the elements to copy
+	 * @param start the index of the first array element to overwrite
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	void copyFrom(const std::vector<bool>& source, int start = 0)
+	{
+		#ifdef JACE_CHECK_NULLS
+			if (!static_cast<jobject>(*this))
+				throw ::jace::JNIException("[JArray::copyFrom] Can not copy into a null array.");
+		#endif
+
+		checkCopyRange(start, static_cast<int>(source.size()));
+		if (source.empty())
+			return;
+		invalidateWindow();
+
+		JNIEnv* env = attach();
+		::jace::ArrayElements<ElementType>::setRegion(env, getJavaJniArray(), start,
+			static_cast<jsize>(source.size()), source.begin());
+		catchAndThrow();
+	}
+
+	/**
+	 * Copies elements from the array into native memory, using a single JNI call.
+	 * Only supported by arrays of primitive types.
+	 *
+	 * @param target the destination. If its type differs from the array's JNI type, the elements are
+	 * converted.
+	 * @param start the index of the first array element to copy
+	 * @param count the number of elements to copy
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	template <class T> void copyTo(T* target, int start, int count)
+	{
+		#ifdef JACE_CHECK_NULLS
+			if (!static_cast<jobject>(*this))
+				throw ::jace::JNIException("[JArray::copyTo] Can not copy from a null array.");
+		#endif
+
+		checkCopyRange(start, count);
+		if (count == 0)
+			return;
+
+		// Make modifications made through iterators visible
+		flush();
+
+		JNIEnv* env = attach();
+		::jace::ArrayElements<ElementType>::getRegion(env, getJavaJniArray(), start, count, target);
+		catchAndThrow();
+	}
+
+	/**
+	 * Copies elements from the array into a vector, using a single JNI call.
+	 * Only supported by arrays of primitive types.
+	 *
+	 * @param target the destination. It is resized to the number of elements copied, so T must be
+	 * default-constructible.
+	 * @param start the index of the first array element to copy
+	 * @param count the number of elements to copy, or -1 to copy up to the end of the array
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	template <class T> void copyTo(std::vector<T>& target, int start = 0, int count = -1)
+	{
+		count = getCopyCount(start, count);
+		target.resize(count);
+		if (count == 0)
+			return;
+		flush();
+
+		JNIEnv* env = attach();
+		::jace::ArrayElements<ElementType>::getRegion(env, getJavaJniArray(), start, count, &target[0]);
+		catchAndThrow();
+	}
+
+	/**
+	 * Copies elements from the array into a vector, using a single JNI call.
+	 * Only supported by arrays of primitive types.
+	 *
+	 * @param target the destination. It is resized to the number of elements copied, so T must be
+	 * default-constructible.
+	 * @param start the index of the first array element to copy
+	 * @param count the number of elements to copy, or -1 to copy up to the end of the array
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	void copyTo(std::vector<bool>& target, int start = 0, int count = -1)
+	{
+		count = getCopyCount(start, count);
+		target.resize(count);
+		if (count == 0)
+			return;
+		flush();
+
+		JNIEnv* env = attach();
+		::jace::ArrayElements<ElementType>::getRegion(env, getJavaJniArray(), start, count, target.begin());
+		catchAndThrow();
+	}
+
 	/**
 	 * Retrieves the element at the given index of the array.
 	 *
@@ -225,6 +402,10 @@ public:
 	 */
 	static const ::jace::JClass& staticGetJavaJniClass() throw (JNIException)
 	{
+		JClassImpl* cached = javaClass.load(boost::memory_order_acquire);
+		if (cached != 0)
+			return *cached;
+
 		static boost::shared_ptr<JClassImpl> result;
 		boost::mutex::scoped_lock lock(javaClassMutex);
 		if (result == 0)
@@ -238,6 +419,7 @@ public:
 
 			result = boost::shared_ptr<JClassImpl>(new JClassImpl(internalName, signature));
 		}
+		javaClass.store(result.get(), boost::memory_order_release);
 		return *result;
 	}
 
@@ -272,7 +454,11 @@ public:
 	 *
 	 * Iterator should be preferred to operator[] for non-random
 	 * access of arrays, as it allows Jace to perform smart caching
-	 * against the array accesses.
+	 * against the array accesses. Iterators over arrays of primitive
+	 * types copy a window of elements (see setWindowSize()) into native
+	 * memory at a time. Modifications are applied to the window and
+	 * written back when the iterators move to another window, or when
+	 * the last iterator of the array is destroyed.
 	 *
 	 * Note that an Iterator is only good for as long as it's parent
 	 * is alive. Accessing an Iterator after the destruction of the
@@ -300,15 +486,33 @@ public:
 			parent(it.parent),
 			current(it.current),
 			end(it.end)
-		{}
+		{
+			parent->cache(current, end);
+		}
 
 		~Iterator()
 		{
-			parent->release(current, end);
+			try
+			{
+				parent->release(current, end);
+			}
+			catch (VirtualMachineShutdownError&)
+			{
+				// We tried to attach when the JVM has already been destroyed
+			}
+			catch (std::exception&)
+			{
+				// Destructors may not throw
+			}
 		}
 
 		Iterator operator=(const Iterator& it)
 		{
+			if (parent != it.parent)
+			{
+				it.parent->cache(it.current, it.end);
+				parent->release(current, end);
+			}
 			parent = it.parent;
 			current = it.current;
 			end = it.end;
@@ -458,8 +662,7 @@ public:
 					throw ::jace::JNIException("[JArray::Iterator::operator*] can not dereference an out of bounds iterator.");
 			#endif
 
-			// Change to use caching in the future
-			return parent->operator[](current);
+			return parent->getElement(current, end);
 		}
 	private:
 		JArray<ElementType>* parent;
@@ -499,23 +702,272 @@ private:
 	 */
 	bool operator==(const JArray& array);
 
-	// Methods for future implementation of caching
+	/**
+	 * Invoked when an Iterator is created.
+	 */
 	void cache(int begin, int end)
-	{}
+	{
+		boost::mutex::scoped_lock lock(windowState.mutex);
+		++windowState.iterators;
+	}
 
+	/**
+	 * Invoked when an Iterator is destroyed. Writes back any modifications and releases the window
+	 * once the last Iterator is destroyed.
+	 */
 	void release(int begin, int end)
-	{}
+	{
+		boost::mutex::scoped_lock lock(windowState.mutex);
+		if (--windowState.iterators > 0 || !windowState.window)
+			return;
+		boost::shared_ptr< ::jace::ArrayWindow > window = windowState.window;
+		windowState.window.reset();
+		window->invalidate();
+	}
+
+	/**
+	 * Validates the range of a copy into a vector, before the vector is resized.
+	 *
+	 * @param start the index of the first array element to copy
+	 * @param count the number of elements to copy, or -1 to copy up to the end of the array
+	 * @return the number of elements to copy
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	int getCopyCount(int start, int count)
+	{
+		#ifdef JACE_CHECK_NULLS
+			if (!static_cast<jobject>(*this))
+				throw ::jace::JNIException("[JArray::copyTo] Can not copy from a null array.");
+		#endif
+
+		if (count == -1)
+		{
+			int arrayLength = length();
+			if (start >= 0 && start <= arrayLength)
+				return arrayLength - start;
+		}
+		checkCopyRange(start, count);
+		return count;
+	}
+
+	/**
+	 * Validates the range of a bulk copy. Both copy directions, and all element types, are validated
+	 * up front so that they fail the same way regardless of whether the elements need converting.
+	 *
+	 * @param start the index of the first array element to copy
+	 * @param count the number of elements to copy
+	 * @throw ArrayIndexOutOfBoundsException if the range is outside of the array
+	 */
+	void checkCopyRange(int start, int count)
+	{
+		int arrayLength = length();
+		if (start >= 0 && count >= 0 && start <= arrayLength && count <= arrayLength - start)
+			return;
+
+		std::string message = "Array index out of range: start=" + toString(start) + ", count=" +
+			toString(count) + ", length=" + toString(arrayLength);
+		JNIEnv* env = attach();
+		jclass exceptionClass = env->FindClass("java/lang/ArrayIndexOutOfBoundsException");
+		if (exceptionClass != 0)
+		{
+			env->ThrowNew(exceptionClass, message.c_str());
+			deleteLocalRef(env, exceptionClass);
+		}
+		catchAndThrow();
+		throw ::jace::JNIException("[JArray::checkCopyRange] " + message);
+	}
+
+	/**
+	 * Writes back any modifications made through iterators, and discards the elements they copied.
+	 */
+	void invalidateWindow()
+	{
+		boost::mutex::scoped_lock lock(windowState.mutex);
+		if (windowState.window)
+			windowState.window->invalidate();
+	}
+
+	/**
+	 * Looks up an element in the window used by iterators, so that operator[] observes modifications
+	 * that have yet to be written back.
+	 *
+	 * @param index the index of the element
+	 * @param window receives the window
+	 * @param element receives the element
+	 * @return false if the window does not contain the element
+	 */
+	bool getWindowElement(int index, boost::shared_ptr< ::jace::ArrayWindow >& window,
+		jvalue& element) const
+	{
+		{
+			boost::mutex::scoped_lock lock(windowState.mutex);
+			window = windowState.window;
+		}
+		// Another thread may move the window once the lock is released
+		return window && window->tryGet(index, element);
+	}
+
+	/**
+	 * Returns the element at the given index, copying the window that contains it into native memory
+	 * if necessary.
+	 *
+	 * @param index the index of the element
+	 * @param end the position to which the iterator is likely to iterate to, or -1 to indicate the
+	 * end of the array
+	 */
+	ElementProxy<ElementType> getElement(int index, int end)
+	{
+		boost::shared_ptr< ::jace::ArrayWindow > window;
+		bool direct = false;
+		{
+			// operator[] locks the mutex, so it must not be invoked from within this block
+			boost::mutex::scoped_lock lock(windowState.mutex);
+			int size = windowState.size;
+			if (size == 0)
+				size = ::jace::ArrayWindow::getDefaultSize();
+			if (size <= 0)
+			{
+				if (windowState.window)
+				{
+					window = windowState.window;
+					windowState.window.reset();
+					window->invalidate();
+				}
+				direct = true;
+			}
+			else if (!windowState.window)
+			{
+				char elementType = ElementType::staticGetJavaJniClass().getSignature()[0];
+				if (!::jace::ArrayWindow::isSupported(elementType))
+					direct = true;
+				else
+				{
+					windowState.window = boost::shared_ptr< ::jace::ArrayWindow >(
+						new ::jace::ArrayWindow(getJavaJniArray(), elementType));
+				}
+			}
+			if (!direct)
+			{
+				window = windowState.window;
+				if (!window->contains(index))
+				{
+					#ifdef JACE_CHECK_ARRAYS
+						if (index < 0 || index >= length())
+							throw ::jace::JNIException("[JArray::getElement] invalid array index.");
+					#endif
+
+					if (window->getLength() > 0 && index < window->getStart())
+					{
+						// Iterating backwards
+						int start = std::max(0, index - size + 1);
+						window->load(start, index - start + 1);
+					}
+					else
+					{
+						int limit = end;
+						if (limit <= index)
+							limit = length();
+						window->load(index, std::min(size, limit - index));
+					}
+				}
+			}
+		}
+		if (direct)
+			return operator[](index);
+
+		// Another thread may move the window once the lock is released
+		jvalue element;
+		if (!window->tryGet(index, element))
+			return operator[](index);
+		return ElementProxy<ElementType>(window, element, index);
+	}
 
 	friend class Iterator;
+	template <class T> friend class ::jace::CriticalArray;
+
+	/**
+	 * The state of the window used by iterators.
+	 */
+	struct WindowState
+	{
+		WindowState(): iterators(0), size(0)
+		{}
+
+		/**
+		 * Guards the state, so that multiple threads may read the array concurrently.
+		 */
+		mutable boost::mutex mutex;
+		/**
+		 * The window, or null if no elements have been copied.
+		 */
+		boost::shared_ptr< ::jace::ArrayWindow > window;
+		/**
+		 * The number of live iterators.
+		 */
+		int iterators;
+		/**
+		 * The window size, zero to use the default size, or a negative value to disable windows.
+		 */
+		int size;
+	};
+	WindowState windowState;
+
+
+	/**
+	 * Populates a new array of objects.
+	 */
+	template <class T> void initialize(const std::vector<T>& values, boost::false_type)
+	{
+		#ifdef NO_IMPLICIT_TYPENAME
+			#define TYPENAME typename
+		#else
+			#define TYPENAME
+		#endif
+
+		jobjectArray localArray = ::jace::JArrayHelper::newArray(values.size(), ElementType::staticGetJavaJniClass());
+		this->setJavaJniObject(localArray);
+
+		int i = 0;
+		JNIEnv* env = attach();
+
+		for (TYPENAME std::vector<T>::const_iterator it = values.begin(); it != values.end(); ++it, ++i)
+		{
+			env->SetObjectArrayElement(localArray, i, ElementType(*it));
+			catchAndThrow();
+		}
+		_length = values.size();
+		deleteLocalRef(env, localArray);
+	}
 
+	/**
+	 * Populates a new array of primitives.
+	 */
+	template <class T> void initialize(const std::vector<T>& values, boost::true_type)
+	{
+		JNIEnv* env = attach();
+		jarray localArray = ::jace::ArrayElements<ElementType>::newArray(env, static_cast<jsize>(values.size()));
+		catchAndThrow();
+		if (localArray == 0)
+		{
+			throw JNIException(std::string("JArray(const std::vector<T>&) - Unable to construct a new array. ") +
+				"The virtual machine's memory could be exhausted.");
+		}
+		this->setJavaJniObject(localArray);
+		deleteLocalRef(env, localArray);
+		_length = values.size();
+		copyFrom(values);
+	}
 
 	// The cached length of the array.
 	// Mutable, because it's calculation can be deferred.
 	mutable int _length;
 	static boost::mutex javaClassMutex;
+	// The class, once it has been resolved.
+	static boost::atomic<JClassImpl*> javaClass;
 };
 
 template <class ElementType> boost::mutex JArray<ElementType>::javaClassMutex;
+template <class ElementType> boost::atomic<JClassImpl*> JArray<ElementType>::javaClass(0);
 
 END_NAMESPACE(jace)
 
@@ -44,6 +44,11 @@ public:
 	JACE_API virtual jclass getClass() const throw (jace::JNIException) = 0;
 };
 
+/**
+ * A function that returns a JClass, such as a proxy's staticGetJavaJniClass().
+ */
+typedef const JClass& (*JClassGetter)();
+
 
 END_NAMESPACE(jace)
 
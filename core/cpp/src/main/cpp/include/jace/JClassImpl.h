@@ -6,9 +6,9 @@
 #include "jace/JClass.h"
 #include "jace/JNIException.h"
 
-BEGIN_NAMESPACE(boost)
-	class mutex;
-END_NAMESPACE(boost)
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include "jace/BoostWarningOn.h"
 
 #include <string>
 
@@ -76,6 +76,10 @@ public:
 
 	/**
 	 * Returns the JNI representation of this class.
+	 *
+	 * If the current thread uses a ClassLoader, the class is loaded by that ClassLoader and cached
+	 * separately for it. See setClassLoader(). Primitive and array classes, which
+	 * ClassLoader.loadClass() cannot load, are always loaded using FindClass().
 	 */
 	JACE_API virtual jclass getClass() const throw (::jace::JNIException);
 
@@ -90,8 +94,11 @@ private:
 	JClassImpl& operator=(JClassImpl&);
 	std::string internalName;
 	std::string signature;
-	mutable jclass theClass;
-	boost::mutex* mutex;
+	/**
+	 * The class, once it has been resolved by the system ClassLoaderCache. The cache owns the
+	 * reference.
+	 */
+	mutable boost::atomic<jclass> theClass;
 };
 
 
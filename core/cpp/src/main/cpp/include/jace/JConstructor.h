@@ -4,6 +4,9 @@
 #include "jace/OsDep.h"
 #include "jace/Namespace.h"
 #include "jace/JClass.h"
+#include "jace/MemberRegistry.h"
+
+#include <string>
 
 BEGIN_NAMESPACE(jace)
 class JArguments;
@@ -22,6 +25,19 @@ public:
 	 */
 	JACE_API JConstructor(const ::jace::JClass& javaClass);
 
+	/**
+	 * Creates a new JConstructor for the given signature. The jmethodID is resolved on first use, and
+	 * may be shared by multiple threads that load the class using the same ClassLoader.
+	 *
+	 * Generated proxies store such JConstructors in file-level statics so that each call site only
+	 * resolves its jmethodID once. The constructor does not invoke JNI, so it may run during static
+	 * initialization.
+	 *
+	 * @param getClass returns the class declaring the constructor
+	 * @param signature the JNI signature of the constructor, for example "(ILjava/lang/String;)V"
+	 */
+	JACE_API JConstructor(JClassGetter getClass, const std::string& signature);
+
 	/**
 	 * Invokes the constructor with the given JArguments.
 	 *
@@ -31,6 +47,10 @@ public:
 	JACE_API jobject invoke(const JArguments& arguments);
 
 private:
+	/**
+	 * Prevent copying.
+	 */
+	JConstructor(const JConstructor&);
 	/**
 	 * Prevent assignment.
 	 */
@@ -39,9 +59,29 @@ private:
 	 * Gets the method id matching the given arguments.
 	 */
 	jmethodID getMethodID(const ::jace::JClass& jClass, const JArguments& arguments);
+	/**
+	 * Gets the method id matching the given signature.
+	 */
+	jmethodID getMethodID(const ::jace::JClass& jClass, const std::string& signature);
 
-	const ::jace::JClass& mClass;
-	jmethodID mMethodID;
+	/**
+	 * Returns the class declaring the constructor.
+	 */
+	const ::jace::JClass& getDeclaringClass() const;
+
+	/**
+	 * The class declaring the constructor, or null if getClass is used instead.
+	 */
+	const ::jace::JClass* mClass;
+	::jace::JClassGetter mClassGetter;
+	/**
+	 * The JNI signature of the constructor, or an empty string if it is derived from the arguments.
+	 */
+	std::string mSignature;
+	/**
+	 * The jmethodID of the class that was resolved most recently.
+	 */
+	MemberIDCache<jmethodID> mMethodIDs;
 };
 
 END_NAMESPACE(jace)
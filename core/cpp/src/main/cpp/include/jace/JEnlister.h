@@ -51,10 +51,14 @@ public:
 	 *
 	 * except that the return value's real type is preserved and
 	 * not sliced to a JValue upon being thrown.
+	 *
+	 * The exception always holds a global reference, even if a LocalFrame
+	 * is active, because it is caught after the frame is popped.
 	 */
 	virtual void throwInstance(jvalue val)
 	{
 		T t(val);
+		t.promote();
 		JNIEnv* env = attach();
 
 		// We know that val is a jobject, because you can only throw exceptions.
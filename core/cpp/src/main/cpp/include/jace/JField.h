@@ -47,7 +47,7 @@ public:
 	JFieldProxy<Type> get(::jace::proxy::JObject& object)
 	{
 		jvalue value = helper.getField(object);
-		JFieldProxy<Type> fieldProxy(helper.getFieldID(), value, object);
+		JFieldProxy<Type> fieldProxy(getFieldID(object.getJavaJniClass()), value, object);
 		JNIEnv* env = attach();
 		deleteLocalRef(env, value.l);
 		return fieldProxy;
@@ -62,7 +62,7 @@ public:
 	JFieldProxy<Type> get(const ::jace::JClass& jClass)
 	{
 		jvalue value = helper.getField(jClass);
-		JFieldProxy<Type> fieldProxy(helper.getFieldID(), value, jClass.getClass());
+		JFieldProxy<Type> fieldProxy(getFieldID(jClass, true), value, jClass.getClass());
 		JNIEnv* env = attach();
 		deleteLocalRef(env, value.l);
 		return fieldProxy;
@@ -5,6 +5,7 @@
 #include "Namespace.h"
 #include "jace/proxy/JObject.h"
 #include "jace/JClass.h"
+#include "jace/MemberRegistry.h"
 
 #include "jni.h"
 #include <string>
@@ -19,15 +20,21 @@ public:
   JACE_API jvalue getField(jace::proxy::JObject& object);
   JACE_API jvalue getField(const jace::JClass& jClass);
   JACE_API jfieldID getFieldID(const jace::JClass& parentClass, bool isStatic);
-  JACE_API jfieldID getFieldID();
 
 private:
 	/**
 	 * Prevent copying.
 	 */
+	JFieldHelper(const JFieldHelper&);
+	/**
+	 * Prevent assignment.
+	 */
 	JFieldHelper& operator=(JFieldHelper&);
 
-  jfieldID mFieldID;
+	/**
+	 * The jfieldID of the class that was resolved most recently.
+	 */
+  MemberIDCache<jfieldID> mFieldIDs;
   const std::string mName;
   const JClass& mTypeClass;
 };
@@ -108,8 +108,7 @@ public:
 		{
 			try
 			{
-				JNIEnv* env = attach();
-				deleteGlobalRef(env, parent);
+				releaseGlobalRef(parent);
 			}
 			catch (std::exception&)
 			{
@@ -120,8 +119,7 @@ public:
 		{
 			try
 			{
-				JNIEnv* env = attach();
-				deleteGlobalRef(env, parentClass);
+				releaseGlobalRef(parentClass);
 			}
 			catch (std::exception&)
 			{
@@ -9,6 +9,7 @@
 #include "jace/JArguments.h"
 #include "jace/JNIException.h"
 #include "jace/JSignature.h"
+#include "jace/MemberRegistry.h"
 #include "jace/proxy/types/JBoolean.h"
 #include "jace/proxy/types/JByte.h"
 #include "jace/proxy/types/JChar.h"
@@ -47,7 +48,31 @@ public:
 	 * Creates a new JMethod representing the method with the
 	 * given name, belonging to the given class.
 	 */
-	JMethod(const std::string& name): mName(name), mMethodID(0)
+	JMethod(const std::string& name): mName(name), mClassGetter(0)
+	{}
+
+	/**
+	 * Creates a new JMethod representing the method with the given name and signature. The jmethodID
+	 * is resolved against the declaring class on first use, and may be shared by multiple threads
+	 * that load the class using the same ClassLoader.
+	 *
+	 * Generated proxies store such JMethods in file-level statics so that each call site only
+	 * resolves its jmethodID once. The constructor does not invoke JNI, so it may run during static
+	 * initialization.
+	 *
+	 * @param getClass returns the class declaring the method
+	 * @param name the method name
+	 * @param signature the JNI signature of the method, for example "(ILjava/lang/String;)V"
+	 */
+	JMethod(JClassGetter getClass, const std::string& name, const std::string& signature):
+		mName(name), mSignature(signature), mClassGetter(getClass)
+	{}
+
+	/**
+	 * Copies a JMethod. The copy resolves its own jmethodID.
+	 */
+	JMethod(const JMethod& other):
+		mName(other.mName), mSignature(other.mSignature), mClassGetter(other.mClassGetter)
 	{}
 
 	/**
@@ -71,10 +96,7 @@ public:
 		JNIEnv* env = attach();
 		jobject resultRef;
 
-		if (arguments.asList().size() > 0)
-			resultRef = env->CallObjectMethodA(object, methodID, &toVector(arguments)[0]);
-		else
-			resultRef = env->CallObjectMethod(object, methodID);
+		resultRef = env->CallObjectMethodA(object, methodID, arguments.asJValues());
 
 		// Catch any java exception that occured during the method call, and throw it as a C++ exception.
 		catchAndThrow();
@@ -102,10 +124,7 @@ public:
 		JNIEnv* env = attach();
 		jobject resultRef;
 
-		if (arguments.asList().size() > 0)
-			resultRef = env->CallStaticObjectMethodA(jClass.getClass(), methodID, &toVector(arguments)[0]);
-		else
-			resultRef = env->CallStaticObjectMethod(jClass.getClass(), methodID);
+		resultRef = env->CallStaticObjectMethodA(jClass.getClass(), methodID, arguments.asJValues());
 
 		// Catch any java exception that occured during the method call, and throw it as a C++ exception.
 		catchAndThrow();
@@ -122,36 +141,41 @@ protected:
 	 */
 	jmethodID getMethodID(const JClass& jClass, const JArguments& arguments, bool isStatic = false)
 	{
+		// Methods with a known signature are resolved against their declaring class
+		if (mClassGetter != 0)
+			return getMethodID(mClassGetter(), mSignature, isStatic);
+
 		// We cache the jmethodID locally, so if we've already found it, we don't need to go looking for it again.
-		if (mMethodID)
-			return mMethodID;
+		jmethodID result = mMethodIDs.get(jClass.getClass(), getClassLoaderCacheId());
+		if (result != 0)
+			return result;
 
 		// If we don't already have the jmethodID, we need to determine the signature of this method.
 		JSignature signature(ResultType::staticGetJavaJniClass());
-		typedef std::list<const ::jace::proxy::JValue*> ValueList;
-		ValueList args = arguments.asList();
-
-		ValueList::iterator i = args.begin();
-		ValueList::iterator end = args.end();
+		for (size_t i = 0; i < arguments.size(); ++i)
+			signature << arguments.getValue(i).getJavaJniClass();
 
-		for (; i != end; ++i)
-		{
-			const ::jace::proxy::JValue* value = *i;
-			signature << value->getJavaJniClass();
-		}
-
-		std::string methodSignature = signature.toString();
+		return getMethodID(jClass, signature.toString(), isStatic);
+	}
 
-		// Now that we have the signature for the method, we could look in a global cache for the
-		// jmethodID corresponding to this method, but for now, we'll always find it.
+	/**
+	 * Returns the jmethodID matching the given signature.
+	 */
+	jmethodID getMethodID(const JClass& jClass, const std::string& methodSignature, bool isStatic)
+	{
+		// The class differs between threads that use different ClassLoaders
+		jclass javaClass = jClass.getClass();
+		unsigned int classLoaderCacheId = getClassLoaderCacheId();
+		jmethodID result = mMethodIDs.get(javaClass, classLoaderCacheId);
+		if (result != 0)
+			return result;
+
+		// Now that we have the signature for the method, look up the jmethodID in the global cache
+		unsigned int generation = MemberRegistry::getGeneration();
 		JNIEnv* env = attach();
+		result = MemberRegistry::getMethodID(env, javaClass, mName, methodSignature, isStatic);
 
-		if (isStatic)
-			mMethodID = env->GetStaticMethodID(jClass.getClass(), mName.c_str(), methodSignature.c_str());
-		else
-			mMethodID = env->GetMethodID(jClass.getClass(), mName.c_str(), methodSignature.c_str());
-
-		if (mMethodID == 0)
+		if (result == 0)
 		{
 			std::string msg = "JMethod::getMethodID\n" \
 				"Unable to find method <" + mName + "> with signature <" + methodSignature + ">";
@@ -167,15 +191,33 @@ protected:
 			throw JNIException(msg);
 		}
 
+		mMethodIDs.set(javaClass, classLoaderCacheId, result, generation);
+
 		//  cout << "JMethod::getMethodID() - Found the method:" << endl;
 		//  cout << "  <" << mName << "> with signature <" << methodSignature << "> for " << jClass.getInternalName() << endl;
 
-		return mMethodID;
+		return result;
 	}
 
 private:
+	/**
+	 * Prevent assignment.
+	 */
+	JMethod& operator=(const JMethod&);
+
 	std::string mName;
-	jmethodID mMethodID;
+	/**
+	 * The JNI signature of the method, or an empty string if it is derived from the arguments.
+	 */
+	std::string mSignature;
+	/**
+	 * Returns the class declaring the method, or null if it is not known.
+	 */
+	JClassGetter mClassGetter;
+	/**
+	 * The jmethodID of the class that was resolved most recently.
+	 */
+	MemberIDCache<jmethodID> mMethodIDs;
 };
 
 END_NAMESPACE(jace)
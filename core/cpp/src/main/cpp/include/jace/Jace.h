@@ -21,6 +21,7 @@
 
 BEGIN_NAMESPACE(jace)
 class Peer;
+class ClassLoaderCache;
 END_NAMESPACE(jace)
 
 BEGIN_NAMESPACE_2(jace, proxy)
@@ -124,12 +125,35 @@ JACE_API JNIEnv* attach(const jobject threadGroup, const char* name, const bool
 
 
 /**
- * Detaches the current thread from the virtual machine.
+ * Detaches the current thread from the virtual machine, if it was attached by attach().
+ *
+ * Threads attached by Jace stay attached, and reuse their cached JNIEnv, until they exit. They are
+ * then detached automatically, so calling this method is only necessary to detach a thread early.
+ * Threads that were already attached when Jace first saw them, such as Java threads invoking native
+ * methods, are never detached.
+ *
+ * Threads attached by Jace cache their JNIEnv. Such threads must be detached using this method,
+ * not DetachCurrentThread(), or the cached value will go stale.
  *
  * @see DetachCurrentThread
  */
 JACE_API void detach() throw ();
 
+/**
+ * Records that the current thread entered a JNI critical region, such as the one held by a
+ * CriticalArray. JNI functions may not be invoked until the matching exitCriticalRegion().
+ *
+ * The current thread must be attached. If Jace is built with JACE_CHECK_CRITICAL, attach() throws
+ * JNIException while the current thread is inside a critical region. Otherwise, this method only
+ * maintains the bookkeeping.
+ */
+JACE_API void enterCriticalRegion() throw ();
+
+/**
+ * Records that the current thread exited a JNI critical region.
+ */
+JACE_API void exitCriticalRegion() throw ();
+
 /**
  * A central point for allocating new local references.
  * These references must be deallocated by a call to deleteLocalRef.
@@ -161,6 +185,51 @@ JACE_API jobject newGlobalRef(JNIEnv* env, jobject ref) throw (VirtualMachineShu
 JACE_API void deleteGlobalRef(JNIEnv* env, jobject globalRef);
 
 
+/**
+ * Deletes a global reference when it is convenient to do so.
+ *
+ * If deferred release is enabled and the current thread is not attached, the reference is queued
+ * and later deleted, in a batch, by the next thread that invokes attach(). Otherwise, the reference
+ * is deleted immediately. The caller must not use the reference afterwards.
+ *
+ * @throws VirtualMachineShutdownError if the virtual machine is not running
+ * @throws JNIException if the current thread could not be attached
+ * @see setDeferredReleaseEnabled(bool)
+ */
+JACE_API void releaseGlobalRef(jobject globalRef) throw (JNIException, VirtualMachineShutdownError);
+
+
+/**
+ * Deletes a weak global reference when it is convenient to do so.
+ *
+ * @throws VirtualMachineShutdownError if the virtual machine is not running
+ * @throws JNIException if the current thread could not be attached
+ * @see releaseGlobalRef(jobject)
+ */
+JACE_API void releaseWeakGlobalRef(jweak weakRef) throw (JNIException, VirtualMachineShutdownError);
+
+
+/**
+ * Indicates if proxies that are destroyed by detached threads should queue their references for
+ * deletion instead of attaching the thread.
+ *
+ * Attaching a thread only to delete a reference is expensive. When deferred release is enabled,
+ * such references are deleted in batches by threads that are already attached. The downside is
+ * that the Java objects remain reachable until the next thread invokes attach().
+ *
+ * @param enabled true if references should be released lazily. The default is false.
+ */
+JACE_API void setDeferredReleaseEnabled(bool enabled);
+
+
+/**
+ * Indicates if references are released lazily.
+ *
+ * @see setDeferredReleaseEnabled(bool)
+ */
+JACE_API bool isDeferredReleaseEnabled();
+
+
 /**
  * Enlists a new factory for a java class with Jace.
  *
@@ -186,11 +255,42 @@ JACE_API void enlist(JFactory* factory);
  */
 JACE_API void catchAndThrow();
 
+/**
+ * Indicates if translated Java exceptions should describe themselves.
+ *
+ * By default, the first invocation of what() on a translated exception returns the result of
+ * Throwable.toString(). If messages are disabled, what() returns the name of the proxy class
+ * without calling into Java, which suits code that catches and discards exceptions.
+ *
+ * @param enabled true if exception messages should be retrieved from Java. The default is true.
+ */
+JACE_API void setExceptionMessagesEnabled(bool enabled);
+
+/**
+ * Indicates if translated Java exceptions describe themselves.
+ *
+ * @see setExceptionMessagesEnabled(bool)
+ */
+JACE_API bool isExceptionMessagesEnabled();
+
 /**
  * Returns the Peer for a given java Peer.
+ *
+ * @throws JNIException if the class of jPeer has not been enhanced
+ * @see getPeer(JNIEnv*, jobject, jfieldID)
  */
 JACE_API Peer* getPeer(jobject jPeer);
 
+/**
+ * Returns the Peer for a given java Peer by reading its native handle directly. This is the fast
+ * path used by the generated JNI mappings, which resolve the field once per peer class.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param jPeer the java Peer
+ * @param handleField the "jaceNativeHandle" field of the peer class
+ */
+JACE_API Peer* getPeer(JNIEnv* env, jobject jPeer, jfieldID handleField);
+
 /**
  * Returns the ClassLoader being used by the current thread.
  *
@@ -206,11 +306,35 @@ JACE_API jobject getClassLoader();
  * Java Webstart, Applets or any other framework that makes use
  * of custom ClassLoaders to load classes.
  *
+ * Classes are cached per ClassLoader. Threads that use the same ClassLoader share its
+ * classes, and classes loaded by one ClassLoader are never used by threads that use another.
+ * The classes remain cached after threads stop using the ClassLoader, and are released once
+ * the ClassLoader is garbage-collected.
+ *
  * NOTE: You must setClassLoader(0) to release the ClassLoader
  *       reference or detach() will do it for you on thread shutdown.
  */
 JACE_API void setClassLoader(jobject classLoader);
 
+/**
+ * Returns the class cache of the ClassLoader being used by the current thread.
+ *
+ * This method is internal to the JACE library.
+ *
+ * @return null if the current thread does not use a ClassLoader
+ */
+JACE_API ClassLoaderCache* getClassLoaderCache();
+
+/**
+ * Returns the ID of the class cache being used by the current thread. Unlike the cache's address,
+ * the ID is never reused once the cache is destroyed.
+ *
+ * This method is internal to the JACE library.
+ *
+ * @return 0 if the current thread does not use a ClassLoader
+ */
+JACE_API unsigned int getClassLoaderCacheId();
+
 /**
  * Returns the string representation of any type.
  */
@@ -232,11 +356,16 @@ JACE_API std::string getCurrentThreadId();
 
 /**
  * Converts std::wstring to a modified UTF-8 std::string.
+ *
+ * Characters outside the Basic Multilingual Plane are encoded as surrogate pairs. Values that are not
+ * valid code points are replaced by U+FFFD.
  */
 JACE_API std::string toUTF8(const std::wstring& src);
 
 /**
  * Converts a modified UTF-8 std::string to a std::wstring.
+ *
+ * Standard UTF-8 is accepted as well. Each byte of a malformed sequence is replaced by U+FFFD.
  */
 JACE_API std::wstring fromUTF8(const std::string& src);
 
@@ -275,9 +404,11 @@ T java_new()
  * For example,
  *
  *  Map map = java_new<HashMap>(42);
+ *
+ * Arguments are passed by reference, so proxies are not copied.
  */
 template <typename T, typename A0>
-T java_new(A0 a0)
+T java_new(const A0& a0)
 {
 	return T::Factory::create(a0);
 }
@@ -290,7 +421,7 @@ T java_new(A0 a0)
  *  Map map = java_new<HashMap>(a0, a1);
  */
 template <typename T, typename A0, typename A1>
-T java_new(A0 a0, A1 a1)
+T java_new(const A0& a0, const A1& a1)
 {
 	return T::Factory::create(a0, a1);
 }
@@ -303,7 +434,7 @@ T java_new(A0 a0, A1 a1)
  *  Map map = java_new<HashMap>(a0, a1, a2);
  */
 template <typename T, typename A0, typename A1, typename A2>
-T java_new(A0 a0, A1 a1, A2 a2)
+T java_new(const A0& a0, const A1& a1, const A2& a2)
 {
 	return T::Factory::create(a0, a1, a2);
 }
@@ -316,7 +447,7 @@ T java_new(A0 a0, A1 a1, A2 a2)
  *  Map map = java_new<HashMap>(a0, a1, a2, a3);
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3)
 {
 	return T::Factory::create(a0, a1, a2, a3);
 }
@@ -329,7 +460,7 @@ T java_new(A0 a0, A1 a1, A2 a2, A3 a3)
  *  Map map = java_new<HashMap>(a0, a1, a2, a3, a4);
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3, typename A4>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3, const A4& a4)
 {
 	return T::Factory::create(a0, a1, a2, a3, a4);
 }
@@ -342,7 +473,7 @@ T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4)
  *  Map map = java_new<HashMap>(a0, a1, a2, a3, a4, a5);
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3, typename A4, typename A5>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3, const A4& a4, const A5& a5)
 {
 	return T::Factory::create(a0, a1, a2, a3, a4, a5);
 }
@@ -356,7 +487,7 @@ T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5)
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3, typename A4, typename A5,
           typename A6>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3, const A4& a4, const A5& a5, const A6& a6)
 {
 	return T::Factory::create(a0, a1, a2, a3, a4, a5, a6);
 }
@@ -370,7 +501,7 @@ T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6)
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3, typename A4, typename A5,
           typename A6, typename A7>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6, A7 a7)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3, const A4& a4, const A5& a5, const A6& a6, const A7& a7)
 {
 	return T::Factory::create(a0, a1, a2, a3, a4, a5, a6, a7);
 }
@@ -384,7 +515,7 @@ T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6, A7 a7)
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3, typename A4, typename A5,
           typename A6, typename A7, typename A8>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6, A7 a7, A8 a8)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3, const A4& a4, const A5& a5, const A6& a6, const A7& a7, const A8& a8)
 {
 	return T::Factory::create(a0, a1, a2, a3, a4, a5, a6, a7, a8);
 }
@@ -398,7 +529,7 @@ T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6, A7 a7, A8 a8)
  */
 template <typename T, typename A0, typename A1, typename A2, typename A3, typename A4, typename A5,
           typename A6, typename A7, typename A8, typename A9>
-T java_new(A0 a0, A1 a1, A2 a2, A3 a3, A4 a4, A5 a5, A6 a6, A7 a7, A8 a8, A9 a9)
+T java_new(const A0& a0, const A1& a1, const A2& a2, const A3& a3, const A4& a4, const A5& a5, const A6& a6, const A7& a7, const A8& a8, const A9& a9)
 {
 	return T::Factory::create(a0, a1, a2, a3, a4, a5, a6, a7, a8, a9);
 }
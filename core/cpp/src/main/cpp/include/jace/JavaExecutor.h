@@ -0,0 +1,268 @@
+#ifndef JACE_JAVA_EXECUTOR_H
+#define JACE_JAVA_EXECUTOR_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/cstdint.hpp>
+#include <boost/function.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/thread/condition_variable.hpp>
+#include <boost/thread/future.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/thread.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <cstddef>
+#include <deque>
+#include <string>
+#include <vector>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A fixed pool of threads, attached to the virtual machine, that execute tasks which invoke Java
+ * methods.
+ *
+ * Attaching and detaching a thread per task is expensive, and a C++ thread that blocks on a Java
+ * call cannot do anything else. A JavaExecutor attaches its threads once, when it is constructed,
+ * and runs tasks on them asynchronously:
+ *
+ *   JavaExecutor executor(4, 1024);
+ *   boost::shared_future<int> size = executor.submit<int>(boost::bind(&getSize, list));
+ *   ...
+ *   std::cout << size.get();
+ *
+ * Tasks may use proxies freely. Any local references they create are released once they return,
+ * and any exception they throw is rethrown by the future.
+ *
+ * The queue holds a bounded number of tasks. Once it is full, submit() blocks until a thread takes
+ * a task off the queue, and trySubmit() fails immediately.
+ *
+ * destroyVm() shuts down every executor that is still running before it destroys the virtual
+ * machine. Tasks that were already queued run to completion.
+ *
+ * @author Gili Tzabari
+ */
+class JavaExecutor
+{
+public:
+	/**
+	 * Executor statistics.
+	 */
+	struct Statistics
+	{
+		/**
+		 * The number of tasks waiting in the queue.
+		 */
+		std::size_t queueDepth;
+		/**
+		 * The largest number of tasks that have waited in the queue at the same time.
+		 */
+		std::size_t peakQueueDepth;
+		/**
+		 * The number of tasks that are running.
+		 */
+		std::size_t activeTasks;
+		/**
+		 * The number of tasks that were accepted.
+		 */
+		boost::uint64_t submitted;
+		/**
+		 * The number of tasks that have finished running.
+		 */
+		boost::uint64_t completed;
+		/**
+		 * The number of times that trySubmit() failed because the queue was full.
+		 */
+		boost::uint64_t rejected;
+	};
+
+	/**
+	 * Creates a new executor and attaches its threads to the virtual machine.
+	 *
+	 * @param threads the number of threads
+	 * @param queueCapacity the maximum number of tasks that may wait in the queue
+	 * @param name the prefix of the thread names. Threads are named name-0, name-1, and so on.
+	 * @param daemon true if the threads should be attached as daemon threads
+	 * @param threadGroup the ThreadGroup of the threads, or null for the default group
+	 * @throws JNIException if threads or queueCapacity are zero, or if a thread could not be started
+	 *   or attached
+	 * @throws VirtualMachineShutdownError if the virtual machine is shut down
+	 */
+	JACE_API JavaExecutor(std::size_t threads, std::size_t queueCapacity,
+		const std::string& name = "jace-executor", bool daemon = true, jobject threadGroup = 0);
+
+	/**
+	 * Shuts down the executor.
+	 *
+	 * @see shutdown()
+	 */
+	JACE_API ~JavaExecutor() throw ();
+
+	/**
+	 * Queues a task, blocking while the queue is full.
+	 *
+	 * @param task a function object that takes no arguments and returns Result
+	 * @return the result of the task
+	 * @throws JNIException if the executor is shut down
+	 */
+	template <typename Result, typename Callable>
+	boost::shared_future<Result> submit(const Callable& task)
+	{
+		boost::shared_ptr<boost::packaged_task<Result> > packagedTask(
+			new boost::packaged_task<Result>(task));
+		boost::shared_future<Result> result(packagedTask->get_future());
+		enqueue(RunTask<Result>(packagedTask), true);
+		return result;
+	}
+
+	/**
+	 * Queues a task, unless the queue is full.
+	 *
+	 * @param task a function object that takes no arguments and returns Result
+	 * @param result receives the result of the task, if it was queued
+	 * @return false if the queue was full
+	 * @throws JNIException if the executor is shut down
+	 */
+	template <typename Result, typename Callable>
+	bool trySubmit(const Callable& task, boost::shared_future<Result>& result)
+	{
+		boost::shared_ptr<boost::packaged_task<Result> > packagedTask(
+			new boost::packaged_task<Result>(task));
+		boost::shared_future<Result> future(packagedTask->get_future());
+		if (!enqueue(RunTask<Result>(packagedTask), false))
+			return false;
+		result = future;
+		return true;
+	}
+
+	/**
+	 * Stops accepting tasks, waits for the queued tasks to finish, and detaches the threads.
+	 *
+	 * Invoking this method more than once has no effect. It may not be invoked by a task.
+	 */
+	JACE_API void shutdown() throw ();
+
+	/**
+	 * Returns the number of threads.
+	 */
+	JACE_API std::size_t getThreadCount() const;
+
+	/**
+	 * Returns the maximum number of tasks that may wait in the queue.
+	 */
+	JACE_API std::size_t getQueueCapacity() const;
+
+	/**
+	 * Returns the executor statistics.
+	 */
+	JACE_API Statistics getStatistics() const;
+
+	/**
+	 * Shuts down every executor that has not been shut down yet.
+	 *
+	 * This method is invoked by destroyVm() and is internal to the JACE library.
+	 */
+	JACE_API static void shutdownAll() throw ();
+
+private:
+	/**
+	 * Prevent copying.
+	 */
+	JavaExecutor(const JavaExecutor&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	JavaExecutor& operator=(const JavaExecutor&);
+
+	/**
+	 * Runs a packaged task.
+	 */
+	template <typename Result>
+	struct RunTask
+	{
+		boost::shared_ptr<boost::packaged_task<Result> > task;
+
+		explicit RunTask(const boost::shared_ptr<boost::packaged_task<Result> >& _task):
+			task(_task)
+		{}
+
+		void operator()() const
+		{
+			(*task)();
+		}
+	};
+
+	/**
+	 * Adds a task to the queue.
+	 *
+	 * @param task the task
+	 * @param block true if the method should wait while the queue is full
+	 * @return false if the queue was full and block is false
+	 * @throws JNIException if the executor is shut down
+	 */
+	JACE_API bool enqueue(const boost::function<void ()>& task, bool block);
+
+	/**
+	 * Attaches the current thread, and runs tasks until the executor is shut down.
+	 *
+	 * @param index the index of the thread
+	 */
+	void run(std::size_t index);
+
+	/**
+	 * Stops accepting tasks, waits for the queued tasks to finish, and joins the threads. Does not
+	 * unregister the executor.
+	 */
+	void stop() throw ();
+
+	const std::size_t queueCapacity;
+	const std::string name;
+	const bool daemon;
+	/**
+	 * A global reference to the ThreadGroup, or null.
+	 */
+	jobject threadGroup;
+	std::vector<boost::shared_ptr<boost::thread> > workers;
+	std::deque<boost::function<void ()> > queue;
+	mutable boost::mutex mutex;
+	boost::condition_variable notEmpty;
+	boost::condition_variable notFull;
+	/**
+	 * Notified when a thread finishes attaching to the virtual machine.
+	 */
+	boost::condition_variable started;
+	/**
+	 * Serializes stop().
+	 */
+	boost::mutex stopMutex;
+	std::size_t attachedThreads;
+	/**
+	 * The errors that prevented threads from attaching.
+	 */
+	std::vector<std::string> attachErrors;
+	bool stopping;
+	bool stopped;
+	/**
+	 * True while shutdownAll() is stopping the executor. Guarded by the mutex of the registered
+	 * executors.
+	 */
+	bool stoppingAll;
+	std::size_t peakQueueDepth;
+	std::size_t activeTasks;
+	boost::uint64_t submitted;
+	boost::uint64_t completed;
+	boost::uint64_t rejected;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
@@ -0,0 +1,108 @@
+#ifndef JACE_LOCAL_FRAME_H
+#define JACE_LOCAL_FRAME_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/cstdint.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A scoped JNI local reference frame.
+ *
+ * The constructor invokes PushLocalFrame() and the destructor invokes PopLocalFrame(), releasing
+ * all local references created in the meantime.
+ *
+ * By default, proxies that are created by the current thread while the frame is active borrow local
+ * references instead of allocating global references. Local references are cheaper to create and
+ * delete, and are released in bulk when the frame is popped. For example:
+ *
+ *   for (int i = 0; i < count; ++i)
+ *   {
+ *     LocalFrame frame;
+ *     String name = list.get(i).toString();
+ *     ...
+ *   }
+ *
+ * Borrowed proxies must not be used after their frame is popped, or by other threads. Proxies that
+ * escape the frame must be converted using JObject::promote() while the frame is still active. Copies
+ * of a global proxy are global, so a promoted proxy may be returned by value. Java exceptions that
+ * Jace translates into C++ exceptions are always global, so they may be caught outside the frame.
+ *
+ * Frames must be popped in the reverse order of their creation, by the thread that created them.
+ *
+ * @author Gili Tzabari
+ */
+class LocalFrame
+{
+public:
+	/**
+	 * Pushes a new local reference frame.
+	 *
+	 * @param capacity the minimum number of local references that the frame can hold
+	 * @param borrow true if proxies created by the current thread should borrow local references
+	 * while the frame is active
+	 * @throws JNIException if the frame could not be allocated
+	 */
+	JACE_API explicit LocalFrame(jint capacity = 16, bool borrow = true);
+
+	/**
+	 * Pops the frame, if it has not already been popped.
+	 */
+	JACE_API ~LocalFrame() throw ();
+
+	/**
+	 * Pops the frame.
+	 *
+	 * @param result a local reference, belonging to this frame, that should remain valid
+	 * @return a local reference to result in the enclosing frame, or null if result is null
+	 */
+	JACE_API jobject pop(jobject result = 0);
+
+	/**
+	 * Returns the frame whose local references the current thread's proxies should borrow.
+	 *
+	 * This method is internal to the JACE library.
+	 *
+	 * @return zero if proxies should allocate global references
+	 */
+	JACE_API static boost::uint64_t getBorrowingFrame();
+
+	/**
+	 * Indicates if a frame of the current thread has yet to be popped.
+	 *
+	 * This method is internal to the JACE library.
+	 *
+	 * @param frame a value returned by getBorrowingFrame()
+	 */
+	JACE_API static bool isActive(boost::uint64_t frame);
+
+private:
+	/**
+	 * Prevent copying.
+	 */
+	LocalFrame(const LocalFrame&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	LocalFrame& operator=(const LocalFrame&);
+
+	JNIEnv* env;
+	/**
+	 * A unique identifier for the frame, or zero if it has been popped.
+	 */
+	boost::uint64_t id;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
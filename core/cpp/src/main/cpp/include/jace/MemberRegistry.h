@@ -0,0 +1,279 @@
+#ifndef JACE_MEMBER_REGISTRY_H
+#define JACE_MEMBER_REGISTRY_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include <boost/cstdint.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <jni.h>
+
+#include <string>
+#include <vector>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A process-wide cache of resolved jmethodIDs and jfieldIDs, keyed by class, member name and
+ * signature.
+ *
+ * The cache is split into shards, each guarded by a readers-writer lock, so lookups of members that
+ * have already been resolved do not contend with one another. Entries remain valid until their
+ * class is removed (see removeClasses()) or the virtual machine shuts down.
+ *
+ * Classes must be identified by global or weak global references that outlive their cache entries,
+ * such as the ones returned by JClass::getClass(). Local references must not be used because their
+ * values get reused.
+ *
+ * @author Gili Tzabari
+ */
+class MemberRegistry
+{
+public:
+	/**
+	 * Cache statistics.
+	 */
+	struct Statistics
+	{
+		/**
+		 * The number of lookups that were satisfied by the cache.
+		 */
+		boost::uint64_t hits;
+		/**
+		 * The number of lookups that had to query the virtual machine.
+		 */
+		boost::uint64_t misses;
+		/**
+		 * The number of cached members.
+		 */
+		size_t size;
+	};
+
+	/**
+	 * Returns the jmethodID of a method, resolving it if necessary.
+	 *
+	 * @param env the JNIEnv of the current thread
+	 * @param jClass a global reference to the class containing the method
+	 * @param name the method name, or "&lt;init&gt;" for constructors
+	 * @param signature the JNI method signature, for example "(ILjava/lang/String;)V"
+	 * @param isStatic true if the method is static
+	 * @return null if the method could not be found, in which case a Java exception is pending
+	 */
+	JACE_API static jmethodID getMethodID(JNIEnv* env, jclass jClass, const std::string& name,
+		const std::string& signature, bool isStatic);
+
+	/**
+	 * Returns the jfieldID of a field, resolving it if necessary.
+	 *
+	 * @param env the JNIEnv of the current thread
+	 * @param jClass a global reference to the class containing the field
+	 * @param name the field name
+	 * @param signature the JNI type signature of the field, for example "Ljava/lang/String;"
+	 * @param isStatic true if the field is static
+	 * @return null if the field could not be found, in which case a Java exception is pending
+	 */
+	JACE_API static jfieldID getFieldID(JNIEnv* env, jclass jClass, const std::string& name,
+		const std::string& signature, bool isStatic);
+
+	/**
+	 * Returns the cache statistics.
+	 */
+	JACE_API static Statistics getStatistics();
+
+	/**
+	 * Returns a number that changes whenever all cached members are discarded. A MemberIDCache
+	 * compares it to the number that was current when its ID was resolved, and ignores the ID if they
+	 * differ.
+	 */
+	JACE_API static unsigned int getGeneration();
+
+	/**
+	 * Discards all cached members. Invoked when the virtual machine shuts down.
+	 */
+	JACE_API static void clear();
+
+	/**
+	 * Discards the cached members of classes whose references are about to be deleted. Members of
+	 * other classes are unaffected.
+	 *
+	 * A MemberIDCache may still hold the members of the classes, but no longer returns them because
+	 * it identifies classes by the ClassLoaderCache that loaded them (see MemberIDCache).
+	 *
+	 * @param classes the classes, sorted in ascending order
+	 */
+	JACE_API static void removeClasses(const std::vector<jclass>& classes);
+
+private:
+	/**
+	 * Prevent construction.
+	 */
+	MemberRegistry();
+};
+
+
+/**
+ * Caches the jmethodID or jfieldID of a single member, such as the method invoked by a proxy call
+ * site, so that repeated lookups skip MemberRegistry.
+ *
+ * A member may be resolved against more than one class, for example when threads use different
+ * ClassLoaders (see setClassLoader()). The cache holds the IDs of up to ENTRY_COUNT classes, so
+ * threads that alternate between a few ClassLoaders do not evict each other's IDs.
+ *
+ * Each ID is keyed by its class and by the ID of the ClassLoaderCache that loaded the class (see
+ * getClassLoaderCacheId()). A class reference may be deleted, and its value reused, once its
+ * ClassLoader is garbage-collected, but ClassLoaderCache IDs are never reused, so a stale entry
+ * never matches. The cache also misses once MemberRegistry discards all cached members.
+ *
+ * Lookups never block. If threads race to update the cache, one of them wins and the others leave
+ * it unchanged.
+ *
+ * @author Gili Tzabari
+ */
+template <class ID> class MemberIDCache
+{
+public:
+	/**
+	 * The maximum number of classes whose IDs are cached.
+	 */
+	static const size_t ENTRY_COUNT = 4;
+
+	/**
+	 * Creates an empty cache.
+	 */
+	MemberIDCache():
+		sequence(0), next(0)
+	{
+		clearEntries();
+	}
+
+	/**
+	 * Creates an empty cache. The copy resolves its own IDs.
+	 */
+	MemberIDCache(const MemberIDCache&):
+		sequence(0), next(0)
+	{
+		clearEntries();
+	}
+
+	/**
+	 * Returns the ID of the member in the specified class.
+	 *
+	 * @param jClass the class
+	 * @param classLoaderCacheId the ID of the ClassLoaderCache that loaded the class
+	 * @return null if the ID is not cached
+	 */
+	ID get(jclass jClass, unsigned int classLoaderCacheId) const
+	{
+		// The sequence is odd while the cache is being updated
+		unsigned int before = sequence.load(boost::memory_order_acquire);
+		if ((before & 1) != 0)
+			return 0;
+		ID result = 0;
+		unsigned int resultGeneration = 0;
+		for (size_t i = 0; i < ENTRY_COUNT; ++i)
+		{
+			const Entry& entry = entries[i];
+			if (entry.jClass.load(boost::memory_order_relaxed) == jClass &&
+				entry.classLoaderCacheId.load(boost::memory_order_relaxed) == classLoaderCacheId)
+			{
+				result = entry.id.load(boost::memory_order_relaxed);
+				resultGeneration = entry.generation.load(boost::memory_order_relaxed);
+				break;
+			}
+		}
+		boost::atomic_thread_fence(boost::memory_order_acquire);
+		if (sequence.load(boost::memory_order_relaxed) != before)
+			return 0;
+		if (result == 0 || resultGeneration != MemberRegistry::getGeneration())
+			return 0;
+		return result;
+	}
+
+	/**
+	 * Caches the ID of the member in the specified class, replacing the least recently added entry
+	 * if the cache is full.
+	 *
+	 * @param jClass the class
+	 * @param classLoaderCacheId the ID of the ClassLoaderCache that loaded the class
+	 * @param id the ID
+	 * @param _generation the value of MemberRegistry::getGeneration() before the ID was resolved
+	 */
+	void set(jclass jClass, unsigned int classLoaderCacheId, ID id, unsigned int _generation)
+	{
+		unsigned int before = sequence.load(boost::memory_order_relaxed);
+		if ((before & 1) != 0 ||
+			!sequence.compare_exchange_strong(before, before + 1, boost::memory_order_acquire))
+		{
+			// Another thread is updating the cache
+			return;
+		}
+		boost::atomic_thread_fence(boost::memory_order_release);
+
+		// Reuse the entry of the same class, cached by a racing thread or in an earlier generation
+		size_t slot = ENTRY_COUNT;
+		for (size_t i = 0; i < ENTRY_COUNT; ++i)
+		{
+			if (entries[i].jClass.load(boost::memory_order_relaxed) == jClass &&
+				entries[i].classLoaderCacheId.load(boost::memory_order_relaxed) == classLoaderCacheId)
+			{
+				slot = i;
+				break;
+			}
+		}
+		if (slot == ENTRY_COUNT)
+		{
+			slot = next;
+			next = (next + 1) % ENTRY_COUNT;
+		}
+		Entry& entry = entries[slot];
+		entry.jClass.store(jClass, boost::memory_order_relaxed);
+		entry.classLoaderCacheId.store(classLoaderCacheId, boost::memory_order_relaxed);
+		entry.id.store(id, boost::memory_order_relaxed);
+		entry.generation.store(_generation, boost::memory_order_relaxed);
+		sequence.store(before + 2, boost::memory_order_release);
+	}
+
+private:
+	/**
+	 * Prevent assignment.
+	 */
+	MemberIDCache& operator=(const MemberIDCache&);
+
+	/**
+	 * The ID of a member in a single class.
+	 */
+	struct Entry
+	{
+		boost::atomic<jclass> jClass;
+		boost::atomic<unsigned int> classLoaderCacheId;
+		boost::atomic<ID> id;
+		boost::atomic<unsigned int> generation;
+	};
+
+	void clearEntries()
+	{
+		for (size_t i = 0; i < ENTRY_COUNT; ++i)
+		{
+			entries[i].jClass.store(0, boost::memory_order_relaxed);
+			entries[i].classLoaderCacheId.store(0, boost::memory_order_relaxed);
+			entries[i].id.store(0, boost::memory_order_relaxed);
+			entries[i].generation.store(0, boost::memory_order_relaxed);
+		}
+	}
+
+	boost::atomic<unsigned int> sequence;
+	/**
+	 * The entry to replace next. Only accessed while the sequence is odd.
+	 */
+	size_t next;
+	Entry entries[ENTRY_COUNT];
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
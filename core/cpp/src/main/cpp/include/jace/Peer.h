@@ -55,6 +55,10 @@ public:
    *
    * Empty by default, this should be overriden by Developers to provide
    * any Peer specific destruction they require.
+   *
+   * If the Java peer was enhanced using phantom reference cleanup, it is
+   * no longer reachable when destroy() is invoked by the garbage collector,
+   * so destroy() may not invoke methods on it.
    */
   JACE_API virtual void destroy();
 
@@ -0,0 +1,166 @@
+#ifndef JACE_STRING_CACHE_H
+#define JACE_STRING_CACHE_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+#include "jace/proxy/JObject.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include <boost/cstdint.hpp>
+#include <boost/scoped_array.hpp>
+#include <boost/thread/shared_mutex.hpp>
+#include <boost/unordered_map.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <cstddef>
+#include <string>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * A size-bounded cache of interned java.lang.Strings, keyed by the C++ strings they were created
+ * from.
+ *
+ * Converting the same C++ string to Java over and over allocates a new String, and a new global
+ * reference, every time. Strings that are used repeatedly, such as metric names or keys, can be
+ * looked up in a StringCache instead:
+ *
+ *   static StringCache cache(4096);
+ *   String key(name, cache);
+ *
+ * C++ strings are converted using the platform's default charset, like String(const std::string&).
+ * Once the cache is full, it evicts the least recently used entries using the CLOCK algorithm.
+ * Lookups of cached strings only take a shared lock. The Strings they return share the cached global
+ * reference, so a lookup that hits the cache does not invoke any JNI functions.
+ *
+ * A StringCache must be destroyed before the virtual machine is shut down, or its global references
+ * are leaked.
+ *
+ * @author Gili Tzabari
+ */
+class StringCache
+{
+public:
+	/**
+	 * Cache statistics.
+	 */
+	struct Statistics
+	{
+		/**
+		 * The number of lookups that were satisfied by the cache.
+		 */
+		boost::uint64_t hits;
+		/**
+		 * The number of lookups that had to create a new String.
+		 */
+		boost::uint64_t misses;
+		/**
+		 * The number of Strings that were evicted to make room for new ones.
+		 */
+		boost::uint64_t evictions;
+		/**
+		 * The number of cached Strings.
+		 */
+		std::size_t size;
+	};
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param capacity the maximum number of Strings to cache
+	 * @throws JNIException if capacity is zero
+	 */
+	JACE_API explicit StringCache(std::size_t capacity) throw (JNIException);
+
+	/**
+	 * Releases the cached Strings.
+	 */
+	JACE_API ~StringCache() throw ();
+
+	/**
+	 * Returns the String corresponding to a C++ string, creating it if necessary.
+	 *
+	 * @param str the C++ string
+	 * @return the interned String, sharing the cache's global reference
+	 * @throws JNIException if the String could not be created
+	 */
+	JACE_API ::jace::proxy::JObject get(const std::string& str) throw (JNIException);
+
+	/**
+	 * Returns the maximum number of Strings that may be cached.
+	 */
+	JACE_API std::size_t getCapacity() const;
+
+	/**
+	 * Returns the cache statistics.
+	 */
+	JACE_API Statistics getStatistics() const;
+
+	/**
+	 * Discards all cached Strings.
+	 */
+	JACE_API void clear();
+
+private:
+	/**
+	 * Prevent copying.
+	 */
+	StringCache(const StringCache&);
+
+	/**
+	 * Prevent assignment.
+	 */
+	StringCache& operator=(const StringCache&);
+
+	/**
+	 * Creates a new interned String.
+	 *
+	 * @return the String, holding a global reference even if a LocalFrame is active
+	 * @throws JNIException if the String could not be created
+	 */
+	static ::jace::proxy::JObject createString(const std::string& str);
+
+	/**
+	 * A cached String.
+	 */
+	struct Slot
+	{
+		std::string key;
+		/**
+		 * The String, or null if the slot is unused.
+		 */
+		::jace::proxy::JObject value;
+		/**
+		 * True if the String was used since the clock hand last passed over the slot.
+		 */
+		boost::atomic<bool> referenced;
+
+		Slot(): referenced(false)
+		{}
+	};
+
+	typedef boost::unordered_map<std::string, std::size_t> Index;
+
+	const std::size_t capacity;
+	boost::scoped_array<Slot> slots;
+	/**
+	 * Maps each cached C++ string to its slot.
+	 */
+	Index index;
+	/**
+	 * The next slot to consider for eviction.
+	 */
+	std::size_t hand;
+	mutable boost::shared_mutex mutex;
+	boost::atomic<boost::uint64_t> hits;
+	boost::atomic<boost::uint64_t> misses;
+	boost::atomic<boost::uint64_t> evictions;
+};
+
+
+END_NAMESPACE(jace)
+
+#endif
@@ -0,0 +1,74 @@
+#ifndef JACE_STRING_CONVERSION_H
+#define JACE_STRING_CONVERSION_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+
+#include <jni.h>
+
+#include <string>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * Conversions between java.lang.String and C++ strings that do not go through Java methods.
+ *
+ * Unlike String::operator std::string(), which uses the platform's default charset, these functions
+ * use the encodings that JNI supports natively: modified UTF-8 for std::string and UTF-16 (or UTF-32,
+ * depending on the size of wchar_t) for std::wstring. They do not allocate any Java objects other than
+ * the resulting jstring, and the functions that write into a caller-supplied buffer reuse its
+ * capacity, so repeated conversions into the same buffer do not allocate once it is large enough.
+ */
+
+/**
+ * Copies the contents of a jstring, encoded using modified UTF-8, into a buffer.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param str the jstring
+ * @param buffer the buffer to overwrite
+ * @throws JNIException if str is null
+ * @see http://en.wikipedia.org/wiki/UTF-8#Modified_UTF-8
+ */
+JACE_API void getStringUTF8(JNIEnv* env, jstring str, std::string& buffer) throw (JNIException);
+
+/**
+ * Copies the contents of a jstring into a buffer.
+ *
+ * If wchar_t is 32 bits wide, surrogate pairs are combined into a single character.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param str the jstring
+ * @param buffer the buffer to overwrite
+ * @throws JNIException if str is null
+ */
+JACE_API void getStringUTF16(JNIEnv* env, jstring str, std::wstring& buffer) throw (JNIException);
+
+/**
+ * Creates a new jstring from a modified UTF-8 string.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param str the string, which may not contain embedded nulls
+ * @return a local reference to the jstring
+ * @throws JNIException if the jstring could not be allocated
+ */
+JACE_API jstring newStringUTF8(JNIEnv* env, const std::string& str) throw (JNIException);
+
+/**
+ * Creates a new jstring from a wide string.
+ *
+ * If wchar_t is 32 bits wide, characters outside the Basic Multilingual Plane are converted into
+ * surrogate pairs.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param str the string
+ * @return a local reference to the jstring
+ * @throws JNIException if the jstring could not be allocated
+ */
+JACE_API jstring newStringUTF16(JNIEnv* env, const std::wstring& str) throw (JNIException);
+
+
+END_NAMESPACE(jace)
+
+#endif
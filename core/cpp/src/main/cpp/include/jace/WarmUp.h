@@ -0,0 +1,100 @@
+#ifndef JACE_WARM_UP_H
+#define JACE_WARM_UP_H
+
+#include "jace/OsDep.h"
+#include "jace/Namespace.h"
+#include "jace/JNIException.h"
+#include "jace/VirtualMachineShutdownError.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/chrono.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <cstddef>
+#include <istream>
+#include <string>
+#include <vector>
+
+BEGIN_NAMESPACE(jace)
+
+
+/**
+ * The outcome of warmUp().
+ *
+ * @author Gili Tzabari
+ */
+struct WarmUpReport
+{
+	/**
+	 * The number of classes that were resolved.
+	 */
+	std::size_t classes;
+	/**
+	 * The number of methods and constructors that were resolved.
+	 */
+	std::size_t methods;
+	/**
+	 * The number of fields that were resolved.
+	 */
+	std::size_t fields;
+	/**
+	 * The manifest entries that could not be resolved, along with the reason.
+	 */
+	std::vector<std::string> failures;
+	/**
+	 * The time it took to warm up.
+	 */
+	boost::chrono::milliseconds elapsed;
+
+	/**
+	 * Creates an empty report.
+	 */
+	WarmUpReport();
+};
+
+
+/**
+ * Resolves the classes, methods and fields listed in a manifest ahead of their first use, so proxies
+ * do not pay for lookups on the first call.
+ *
+ * The manifest is generated by AutoProxy's -manifest option. Each line contains one of:
+ * <ul>
+ *   <li>class &lt;internal name&gt;</li>
+ *   <li>method &lt;internal name&gt; &lt;name&gt; &lt;signature&gt;</li>
+ *   <li>static-method &lt;internal name&gt; &lt;name&gt; &lt;signature&gt;</li>
+ *   <li>field &lt;internal name&gt; &lt;name&gt; &lt;signature&gt;</li>
+ *   <li>static-field &lt;internal name&gt; &lt;name&gt; &lt;signature&gt;</li>
+ * </ul>
+ * Blank lines and lines beginning with '#' are ignored.
+ *
+ * Classes are loaded using the ClassLoader of the current thread (see setClassLoader()). Entries
+ * that cannot be resolved are reported, not thrown, so a stale manifest does not prevent startup.
+ *
+ * @param manifest the manifest
+ * @param threads the number of threads to warm up with. Values less than 2 warm up on the current
+ * thread.
+ * @return the outcome
+ * @throws JNIException if the manifest is malformed or a thread could not be started
+ * @throws VirtualMachineShutdownError if the virtual machine is not running
+ */
+JACE_API WarmUpReport warmUp(std::istream& manifest, int threads = 1)
+	throw (JNIException, VirtualMachineShutdownError);
+
+/**
+ * Resolves the classes, methods and fields listed in a manifest file.
+ *
+ * @param path the path of the manifest file
+ * @param threads the number of threads to warm up with
+ * @return the outcome
+ * @throws JNIException if the file could not be read, the manifest is malformed or a thread could
+ * not be started
+ * @throws VirtualMachineShutdownError if the virtual machine is not running
+ * @see warmUp(std::istream&, int)
+ */
+JACE_API WarmUpReport warmUp(const std::string& path, int threads = 1)
+	throw (JNIException, VirtualMachineShutdownError);
+
+
+END_NAMESPACE(jace)
+
+#endif
@@ -6,6 +6,11 @@
 #include "jace/JArguments.h"
 #include "jace/proxy/JValue.h"
 
+#include "jace/BoostWarningOff.h"
+#include <boost/config.hpp>
+#include <boost/cstdint.hpp>
+#include "jace/BoostWarningOn.h"
+
 
 BEGIN_NAMESPACE_2(jace, proxy)
 
@@ -45,7 +50,13 @@ BEGIN_NAMESPACE_2(jace, proxy)
  *
  * In both cases, String creates a global reference to the jstring,
  * and does not release that global reference until it's lifetime
- * has ended.
+ * has ended. Proxies that are created while a LocalFrame is active
+ * borrow a local reference instead, until they are promoted.
+ *
+ * Copies of a JObject that holds a global reference share that reference
+ * using an atomic reference count, so copying, assigning or moving such
+ * a JObject does not invoke any JNI functions. The global reference is
+ * deleted when the last copy is destroyed.
  *
  * @author Toby Reyelts
  */
@@ -77,6 +88,15 @@ public:
 	 */
 	JACE_API JObject(const JObject& object);
 
+#ifndef BOOST_NO_CXX11_RVALUE_REFERENCES
+	/**
+	 * Takes over the reference of another object, leaving it null.
+	 *
+	 * @param object the object
+	 */
+	JACE_API JObject(JObject&& object);
+#endif
+
 	/**
 	 * Destroys the existing java object.
 	 */
@@ -87,6 +107,13 @@ public:
 	 */
 	JACE_API JObject& operator=(const JObject& other);
 
+#ifndef BOOST_NO_CXX11_RVALUE_REFERENCES
+	/**
+	 * Takes over the reference of another object, leaving it null.
+	 */
+	JACE_API JObject& operator=(JObject&& other);
+#endif
+
 	/**
 	 * Returns the underlying JNI jobject for this JObject.
 	 *
@@ -118,6 +145,23 @@ public:
 	 */
 	JACE_API bool isNull() const;
 
+	/**
+	 * Replaces a local reference, borrowed from a LocalFrame, with a global reference so that this
+	 * object may be used after the frame is popped. Does nothing if this object already holds a
+	 * global reference.
+	 *
+	 * This method must be invoked by the thread that created the object, before its frame is popped.
+	 *
+	 * @throws JNIException if the virtual machine runs out of memory while trying to create the
+	 * global reference
+	 */
+	JACE_API void promote() throw (JNIException);
+
+	/**
+	 * Returns true if this object borrows a local reference from a LocalFrame.
+	 */
+	JACE_API bool isBorrowed() const;
+
 	/**
 	 * Returns the JClass for this class.
 	 */
@@ -152,6 +196,23 @@ protected:
 	 */
 	JACE_API void setJavaJniObject(jobject object) throw (JNIException);
 
+	/**
+	 * Sets this JObject to refer to the same object as another JObject.
+	 *
+	 * The copy holds a global reference if the other object does, or if the current thread is not
+	 * inside a borrowing LocalFrame. Otherwise, it borrows a local reference.
+	 * Global references are shared with the other object, without invoking any JNI functions.
+	 */
+	JACE_API void setJavaJniObject(const JObject& object) throw (JNIException);
+
+	/**
+	 * Takes over the reference held by another JObject, without invoking any JNI functions.
+	 * The other object is left holding a null reference.
+	 *
+	 * Generated proxies use this method to implement their move constructors.
+	 */
+	JACE_API void takeJavaJniObject(JObject& object) throw ();
+
 	/**
 	 * Constructs a new instance of the given class
 	 * with the given arguments.
@@ -163,6 +224,39 @@ protected:
 	 *   is thrown during method execution.
 	 */
 	JACE_API static jobject newObject(const ::jace::JClass& jClass, const ::jace::JArguments& arguments);
+
+private:
+	/**
+	 * A global reference shared by copies of a JObject.
+	 */
+	struct SharedReference;
+
+	/**
+	 * Replaces the reference held by this object.
+	 *
+	 * @param env the JNIEnv of the current thread
+	 * @param value the object to refer to
+	 * @param frame the LocalFrame to borrow a local reference from, or zero to create a global
+	 * reference
+	 */
+	void setReference(JNIEnv* env, jobject value, boost::uint64_t frame) throw (JNIException);
+
+	/**
+	 * Releases the reference held by this object, if any, and sets it to null. A global reference is
+	 * deleted once it is no longer shared with any other object.
+	 */
+	void deleteReference();
+
+	/**
+	 * The LocalFrame that owns the local reference held by this object, or zero if this object holds
+	 * a global or null reference.
+	 */
+	boost::uint64_t localFrame;
+
+	/**
+	 * The global reference held by this object, or null if this object holds a local or null reference.
+	 */
+	SharedReference* sharedReference;
 };
 
 
@@ -34,12 +34,18 @@ BEGIN_NAMESPACE_2(jace, proxy)
  *
  *
  *   static boost::mutex javaClassMutex;
+ *   static boost::atomic<JClassImpl*> javaClass(0);
  *   const JClass& Object::staticGetJavaJniClass() throw (JNIException)
  *   {
+ *     JClassImpl* cached = javaClass.load(boost::memory_order_acquire);
+ *     if (cached != 0)
+ *       return *cached;
+ *
  *     static boost::shared_ptr<JClassImpl> result;
  *     boost::mutex::scoped_lock lock(javaClassMutex);
  *     if (result == 0)
  * 	     result = boost::shared_ptr<JClassImpl>(new JClassImpl("java/lang/Object"));
+ *     javaClass.store(result.get(), boost::memory_order_release);
  *     return *result;
  *   }
  *
@@ -0,0 +1,268 @@
+#include "jace/ArrayWindow.h"
+
+#include "jace/Jace.h"
+#include "jace/ArrayElements.h"
+#include "jace/JNIException.h"
+#include "jace/VirtualMachineShutdownError.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <cstring>
+
+#include <string>
+using std::string;
+
+using ::jace::proxy::types::JBoolean;
+using ::jace::proxy::types::JByte;
+using ::jace::proxy::types::JChar;
+using ::jace::proxy::types::JDouble;
+using ::jace::proxy::types::JFloat;
+using ::jace::proxy::types::JInt;
+using ::jace::proxy::types::JLong;
+using ::jace::proxy::types::JShort;
+
+BEGIN_NAMESPACE(jace)
+
+/**
+ * The operations on arrays of a primitive type, delegating to ArrayElements.
+ */
+struct ArrayWindow::Operations
+{
+	size_t elementSize;
+	void (*getRegion)(JNIEnv* env, jarray array, jsize start, jsize length, void* buffer);
+	void (*setRegion)(JNIEnv* env, jarray array, jsize start, jsize length, const void* buffer);
+};
+
+
+namespace
+{
+	boost::atomic<int> defaultSize(16384);
+
+	template <class ElementType> struct WindowOperations
+	{
+		typedef typename ArrayElements<ElementType>::Type Type;
+
+		static void getRegion(JNIEnv* env, jarray array, jsize start, jsize length, void* buffer)
+		{
+			ArrayElements<ElementType>::getRegion(env, array, start, length, static_cast<Type*>(buffer));
+		}
+
+		static void setRegion(JNIEnv* env, jarray array, jsize start, jsize length, const void* buffer)
+		{
+			ArrayElements<ElementType>::setRegion(env, array, start, length, static_cast<const Type*>(buffer));
+		}
+
+		static const ArrayWindow::Operations operations;
+	};
+
+	template <class ElementType> const ArrayWindow::Operations WindowOperations<ElementType>::operations =
+	{
+		sizeof(typename ArrayElements<ElementType>::Type),
+		&WindowOperations<ElementType>::getRegion,
+		&WindowOperations<ElementType>::setRegion
+	};
+
+	/**
+	 * Returns the operations on arrays of the specified element type.
+	 *
+	 * @param elementType the JNI signature of the array's element type
+	 * @return null if the element type is not primitive
+	 */
+	const ArrayWindow::Operations* getOperations(char elementType)
+	{
+		switch (elementType)
+		{
+			case 'Z':
+				return &WindowOperations<JBoolean>::operations;
+			case 'B':
+				return &WindowOperations<JByte>::operations;
+			case 'C':
+				return &WindowOperations<JChar>::operations;
+			case 'S':
+				return &WindowOperations<JShort>::operations;
+			case 'I':
+				return &WindowOperations<JInt>::operations;
+			case 'J':
+				return &WindowOperations<JLong>::operations;
+			case 'F':
+				return &WindowOperations<JFloat>::operations;
+			case 'D':
+				return &WindowOperations<JDouble>::operations;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Converts a native element to a jvalue. All members of a jvalue start at its first byte.
+	 */
+	jvalue toJValue(const void* element, size_t elementSize)
+	{
+		jvalue result;
+		std::memset(&result, 0, sizeof(result));
+		std::memcpy(&result, element, elementSize);
+		return result;
+	}
+
+	/**
+	 * Converts a jvalue to a native element.
+	 */
+	void fromJValue(jvalue value, void* element, size_t elementSize)
+	{
+		std::memcpy(element, &value, elementSize);
+	}
+} // namespace
+
+
+ArrayWindow::ArrayWindow(jarray _array, char elementType):
+	array(0), operations(getOperations(elementType)), start(0), length(0), dirty(false)
+{
+	if (operations == 0)
+	{
+		throw JNIException(string("ArrayWindow::ArrayWindow()\n") +
+			"Windows are only supported for arrays of primitive types. Element type was: " + elementType);
+	}
+	JNIEnv* env = attach();
+	array = static_cast<jarray>(newGlobalRef(env, _array));
+}
+
+
+ArrayWindow::~ArrayWindow() throw ()
+{
+	try
+	{
+		flush();
+		JNIEnv* env = attach();
+		deleteGlobalRef(env, array);
+	}
+	catch (VirtualMachineShutdownError&)
+	{
+		// We tried to attach when the JVM has already been destroyed
+	}
+	catch (std::exception&)
+	{
+		// Destructors may not throw
+	}
+}
+
+
+bool ArrayWindow::isSupported(char elementType)
+{
+	return getOperations(elementType) != 0;
+}
+
+
+bool ArrayWindow::contains(int index) const
+{
+	boost::mutex::scoped_lock lock(mutex);
+	return index >= start && index < start + length;
+}
+
+
+int ArrayWindow::getStart() const
+{
+	boost::mutex::scoped_lock lock(mutex);
+	return start;
+}
+
+
+int ArrayWindow::getLength() const
+{
+	boost::mutex::scoped_lock lock(mutex);
+	return length;
+}
+
+
+jvalue ArrayWindow::get(int index) const
+{
+	boost::mutex::scoped_lock lock(mutex);
+	return toJValue(&buffer[(index - start) * operations->elementSize], operations->elementSize);
+}
+
+
+bool ArrayWindow::tryGet(int index, jvalue& value) const
+{
+	boost::mutex::scoped_lock lock(mutex);
+	if (index < start || index >= start + length)
+		return false;
+	value = toJValue(&buffer[(index - start) * operations->elementSize], operations->elementSize);
+	return true;
+}
+
+
+void ArrayWindow::set(int index, jvalue value)
+{
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		if (index >= start && index < start + length)
+		{
+			fromJValue(value, &buffer[(index - start) * operations->elementSize], operations->elementSize);
+			dirty = true;
+			return;
+		}
+	}
+	operations->setRegion(attach(), array, index, 1, &value);
+	catchAndThrow();
+}
+
+
+void ArrayWindow::load(int _start, int _length)
+{
+	boost::mutex::scoped_lock lock(mutex);
+	flushLocked();
+	start = 0;
+	length = 0;
+	if (_length <= 0)
+		return;
+	size_t size = _length * operations->elementSize;
+	if (buffer.size() < size)
+		buffer.resize(size);
+	operations->getRegion(attach(), array, _start, _length, &buffer[0]);
+	catchAndThrow();
+	start = _start;
+	length = _length;
+}
+
+
+void ArrayWindow::flush()
+{
+	boost::mutex::scoped_lock lock(mutex);
+	flushLocked();
+}
+
+
+void ArrayWindow::flushLocked()
+{
+	if (!dirty)
+		return;
+
+	// Discard the modifications if they cannot be written back, rather than failing on every flush
+	dirty = false;
+	operations->setRegion(attach(), array, start, length, &buffer[0]);
+	catchAndThrow();
+}
+
+
+void ArrayWindow::invalidate()
+{
+	boost::mutex::scoped_lock lock(mutex);
+	flushLocked();
+	start = 0;
+	length = 0;
+}
+
+
+int ArrayWindow::getDefaultSize()
+{
+	return defaultSize.load(boost::memory_order_relaxed);
+}
+
+
+void ArrayWindow::setDefaultSize(int size)
+{
+	defaultSize.store(size, boost::memory_order_relaxed);
+}
+
+END_NAMESPACE(jace)
@@ -0,0 +1,446 @@
+#include "jace/CallBatch.h"
+
+#include "jace/Jace.h"
+#include "jace/ClassLoaderCache.h"
+#include "jace/LocalFrame.h"
+#include "jace/MemberRegistry.h"
+
+#include <algorithm>
+#include <cstring>
+#include <limits>
+
+using std::string;
+using std::vector;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	/**
+	 * The smallest capacity of the methods and references arrays.
+	 */
+	const size_t MIN_ARRAY_CAPACITY = 16;
+
+	/**
+	 * Returns a class that is visible to the system class loader.
+	 */
+	jclass getSystemClass(JNIEnv* env, const char* name)
+	{
+		return ClassLoaderCache::getSystem().getClass(env, 0, name);
+	}
+
+	/**
+	 * Parses the parameter types of a method signature.
+	 *
+	 * @param signature the JNI signature of the method
+	 * @param parameters receives true for each parameter that is a reference, and false for each
+	 *   parameter that is a primitive
+	 * @return true if the method returns a reference
+	 * @throws JNIException if the signature is malformed
+	 */
+	bool parseSignature(const string& signature, vector<bool>& parameters)
+	{
+		if (signature.empty() || signature[0] != '(')
+			throw JNIException("CallBatch - Malformed method signature: " + signature);
+		size_t i = 1;
+		while (true)
+		{
+			if (i >= signature.size())
+				throw JNIException("CallBatch - Malformed method signature: " + signature);
+			if (signature[i] == ')')
+				break;
+			bool isReference = false;
+			while (i < signature.size() && signature[i] == '[')
+			{
+				isReference = true;
+				++i;
+			}
+			if (i < signature.size() && signature[i] == 'L')
+			{
+				isReference = true;
+				i = signature.find(';', i);
+				if (i == string::npos)
+					throw JNIException("CallBatch - Malformed method signature: " + signature);
+			}
+			parameters.push_back(isReference);
+			++i;
+		}
+		char returnType = i + 1 < signature.size() ? signature[i + 1] : 'V';
+		return returnType == 'L' || returnType == '[';
+	}
+
+	/**
+	 * Packs two jints into a call header.
+	 */
+	jlong toHeader(jint methodIndex, jint targetIndex)
+	{
+		jint values[2] = {methodIndex, targetIndex};
+		jlong result;
+		std::memcpy(&result, values, sizeof(result));
+		return result;
+	}
+} // namespace
+
+
+CallBatch::CallBatch(size_t _maxCalls) throw (JNIException):
+	maxCalls(_maxCalls), methods(0), methodCount(0), references(0), referenceCount(0),
+	objectResults(0), errors(0), submitted(false)
+{
+	if (maxCalls == 0)
+		throw JNIException("CallBatch::CallBatch() - maxCalls must be positive");
+	if (maxCalls > static_cast<size_t>(std::numeric_limits<jsize>::max()))
+	{
+		throw JNIException("CallBatch::CallBatch() - maxCalls (" + toString(maxCalls) +
+			") > Integer.MAX_VALUE.");
+	}
+	returnsReference.reserve(maxCalls);
+}
+
+
+CallBatch::~CallBatch() throw ()
+{
+	if (!isRunning())
+		return;
+	try
+	{
+		clear();
+		if (methods != 0)
+			releaseGlobalRef(methods);
+		if (references != 0)
+			releaseGlobalRef(references);
+	}
+	catch (std::exception&)
+	{
+		// The virtual machine is shutting down
+	}
+}
+
+
+size_t CallBatch::add(const ::jace::proxy::JObject& target, const string& name,
+	const string& signature, const JArguments& arguments) throw (JNIException)
+{
+	if (target.isNull())
+		throw JNIException("CallBatch::add() - target may not be null");
+	JNIEnv* env = attach();
+	return addCall(env, target.getJavaJniClass().getClass(), static_cast<jobject>(target), name,
+		signature, arguments, false);
+}
+
+
+size_t CallBatch::addStatic(const JClass& jClass, const string& name, const string& signature,
+	const JArguments& arguments) throw (JNIException)
+{
+	JNIEnv* env = attach();
+	return addCall(env, jClass.getClass(), 0, name, signature, arguments, true);
+}
+
+
+size_t CallBatch::addCall(JNIEnv* env, jclass jClass, jobject target, const string& name,
+	const string& signature, const JArguments& arguments, bool isStatic)
+{
+	if (submitted)
+		throw JNIException("CallBatch::add() - The batch has already been submitted. Invoke clear() first.");
+	if (isFull())
+		throw JNIException("CallBatch::add() - The batch is full. Invoke submit() first.");
+
+	vector<bool> parameters;
+	bool returnsObject = parseSignature(signature, parameters);
+	if (parameters.size() != arguments.size())
+	{
+		throw JNIException("CallBatch::add() - " + name + signature + " expects " +
+			toString(parameters.size()) + " arguments, but " + toString(arguments.size()) + " were given");
+	}
+
+	jmethodID method = MemberRegistry::getMethodID(env, jClass, name, signature, isStatic);
+	if (method == 0)
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::add() - Unable to find the method " + name + signature);
+	}
+
+	// Roll back partially encoded calls if a reference cannot be added
+	size_t oldCallsSize = calls.size();
+	size_t oldReferenceCount = referenceCount;
+	try
+	{
+		jint methodIndex = getMethodIndex(env, jClass, method, isStatic);
+		jint targetIndex = isStatic ? -1 : addReference(env, target);
+		calls.push_back(toHeader(methodIndex, targetIndex));
+
+		const jvalue* values = arguments.asJValues();
+		for (size_t i = 0; i < parameters.size(); ++i)
+		{
+			jlong slot = 0;
+			if (parameters[i])
+			{
+				jint index = addReference(env, values[i].l);
+				std::memcpy(&slot, &index, sizeof(index));
+			}
+			else
+				std::memcpy(&slot, &values[i], sizeof(slot));
+			calls.push_back(slot);
+		}
+	}
+	catch (...)
+	{
+		calls.resize(oldCallsSize);
+		for (size_t i = oldReferenceCount; i < referenceCount; ++i)
+			env->SetObjectArrayElement(references, jsize(i), 0);
+		referenceCount = oldReferenceCount;
+		throw;
+	}
+	returnsReference.push_back(returnsObject);
+	return returnsReference.size() - 1;
+}
+
+
+jint CallBatch::getMethodIndex(JNIEnv* env, jclass jClass, jmethodID method, bool isStatic)
+{
+	boost::unordered_map<jmethodID, jint>::const_iterator i = methodIndexes.find(method);
+	if (i != methodIndexes.end())
+		return i->second;
+
+	jobject reflected = env->ToReflectedMethod(jClass, method, isStatic);
+	if (reflected == 0)
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::add() - Unable to look up the java.lang.reflect.Method.");
+	}
+	try
+	{
+		methods = ensureCapacity(env, methods, getSystemClass(env, "java/lang/reflect/Method"),
+			methodCount);
+	}
+	catch (...)
+	{
+		deleteLocalRef(env, reflected);
+		throw;
+	}
+	env->SetObjectArrayElement(methods, jsize(methodCount), reflected);
+	deleteLocalRef(env, reflected);
+
+	jint result = jint(methodCount);
+	methodIndexes[method] = result;
+	++methodCount;
+	return result;
+}
+
+
+jint CallBatch::addReference(JNIEnv* env, jobject reference)
+{
+	if (reference == 0)
+		return -1;
+	if (referenceCount >= static_cast<size_t>(std::numeric_limits<jsize>::max()))
+		throw JNIException("CallBatch::add() - Too many references");
+	references = ensureCapacity(env, references, getSystemClass(env, "java/lang/Object"),
+		referenceCount);
+	env->SetObjectArrayElement(references, jsize(referenceCount), reference);
+	return jint(referenceCount++);
+}
+
+
+jobjectArray CallBatch::ensureCapacity(JNIEnv* env, jobjectArray array, jclass elementClass,
+	size_t length)
+{
+	if (array != 0 && static_cast<size_t>(env->GetArrayLength(array)) > length)
+		return array;
+
+	size_t capacity = std::max(MIN_ARRAY_CAPACITY, length * 2);
+	if (capacity > static_cast<size_t>(std::numeric_limits<jsize>::max()))
+		capacity = std::numeric_limits<jsize>::max();
+	jobjectArray localArray = env->NewObjectArray(jsize(capacity), elementClass, 0);
+	if (localArray == 0)
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::add() - Unable to allocate a new java array.");
+	}
+	for (size_t i = 0; i < length; ++i)
+	{
+		jobject element = env->GetObjectArrayElement(array, jsize(i));
+		env->SetObjectArrayElement(localArray, jsize(i), element);
+		deleteLocalRef(env, element);
+	}
+
+	jobjectArray result;
+	try
+	{
+		result = static_cast<jobjectArray>(newGlobalRef(env, localArray));
+	}
+	catch (...)
+	{
+		deleteLocalRef(env, localArray);
+		throw;
+	}
+	deleteLocalRef(env, localArray);
+	if (array != 0)
+		deleteGlobalRef(env, array);
+	return result;
+}
+
+
+size_t CallBatch::submit() throw (JNIException)
+{
+	if (submitted)
+		throw JNIException("CallBatch::submit() - The batch has already been submitted. Invoke clear() first.");
+	JNIEnv* env = attach();
+	size_t count = returnsReference.size();
+	if (count == 0)
+	{
+		submitted = true;
+		return 0;
+	}
+
+	jclass dispatcherClass = getSystemClass(env, "org/jace/util/BatchDispatcher");
+	jmethodID dispatch = MemberRegistry::getMethodID(env, dispatcherClass, "dispatch",
+		"(Ljava/nio/ByteBuffer;I[Ljava/lang/reflect/Method;I[Ljava/lang/Object;Ljava/nio/ByteBuffer;"
+		"[Ljava/lang/Object;[Ljava/lang/Throwable;)I", true);
+	if (dispatch == 0)
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::submit() - Unable to find the method BatchDispatcher.dispatch()");
+	}
+
+	// Releases the local references created below, however submit() exits
+	LocalFrame frame(8, false);
+	jvalue zero;
+	zero.j = 0;
+	primitiveResults.assign(count, zero);
+	jobject callBuffer = env->NewDirectByteBuffer(&calls[0], jlong(calls.size() * sizeof(jlong)));
+	jobject resultBuffer = 0;
+	if (callBuffer != 0)
+		resultBuffer = env->NewDirectByteBuffer(&primitiveResults[0], jlong(count * sizeof(jvalue)));
+	if (resultBuffer == 0)
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::submit() - Unable to allocate a direct buffer. The virtual "
+			"machine may not support direct buffers.");
+	}
+	jobject localObjectResults = env->NewObjectArray(jsize(count),
+		getSystemClass(env, "java/lang/Object"), 0);
+	jobject localErrors = 0;
+	if (localObjectResults != 0)
+	{
+		localErrors = env->NewObjectArray(jsize(count), getSystemClass(env, "java/lang/Throwable"),
+			0);
+	}
+	if (localErrors == 0)
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::submit() - Unable to allocate a new java array.");
+	}
+
+	jint failureCount = env->CallStaticIntMethod(dispatcherClass, dispatch, callBuffer, jint(count),
+		methods, jint(methodCount), references, resultBuffer, localObjectResults, localErrors);
+	if (env->ExceptionCheck())
+	{
+		catchAndThrow();
+		throw JNIException("CallBatch::submit() - BatchDispatcher.dispatch() failed.");
+	}
+	jobjectArray newObjectResults = static_cast<jobjectArray>(newGlobalRef(env, localObjectResults));
+	try
+	{
+		errors = static_cast<jobjectArray>(newGlobalRef(env, localErrors));
+	}
+	catch (...)
+	{
+		deleteGlobalRef(env, newObjectResults);
+		throw;
+	}
+	objectResults = newObjectResults;
+
+	failures.assign(count, false);
+	for (size_t i = 0; failureCount > 0 && i < count; ++i)
+	{
+		jobject error = env->GetObjectArrayElement(errors, jsize(i));
+		if (error == 0)
+			continue;
+		failures[i] = true;
+		deleteLocalRef(env, error);
+	}
+	submitted = true;
+	return size_t(failureCount);
+}
+
+
+bool CallBatch::failed(size_t index) const throw (JNIException)
+{
+	checkResultIndex(index, "CallBatch::failed()");
+	return failures[index];
+}
+
+
+jvalue CallBatch::getResult(size_t index)
+{
+	checkResultIndex(index, "CallBatch::getResult()");
+	JNIEnv* env = attach();
+	if (failures[index])
+	{
+		jthrowable error = static_cast<jthrowable>(env->GetObjectArrayElement(errors, jsize(index)));
+		env->Throw(error);
+		deleteLocalRef(env, error);
+		catchAndThrow();
+	}
+	if (!returnsReference[index])
+		return primitiveResults[index];
+	jvalue result;
+	result.l = env->GetObjectArrayElement(objectResults, jsize(index));
+	return result;
+}
+
+
+size_t CallBatch::size() const
+{
+	return returnsReference.size();
+}
+
+
+size_t CallBatch::getMaxCalls() const
+{
+	return maxCalls;
+}
+
+
+bool CallBatch::isFull() const
+{
+	return returnsReference.size() >= maxCalls;
+}
+
+
+void CallBatch::clear()
+{
+	JNIEnv* env = attach();
+	calls.clear();
+	returnsReference.clear();
+	primitiveResults.clear();
+	failures.clear();
+
+	// Keep the arrays for reuse, but drop the references they hold
+	for (size_t i = 0; i < referenceCount; ++i)
+		env->SetObjectArrayElement(references, jsize(i), 0);
+	referenceCount = 0;
+	if (objectResults != 0)
+	{
+		deleteGlobalRef(env, objectResults);
+		objectResults = 0;
+	}
+	if (errors != 0)
+	{
+		deleteGlobalRef(env, errors);
+		errors = 0;
+	}
+	submitted = false;
+}
+
+
+void CallBatch::checkResultIndex(size_t index, const char* function) const
+{
+	if (!submitted)
+		throw JNIException(string(function) + " - The batch has not been submitted");
+	if (index >= returnsReference.size())
+	{
+		throw JNIException(string(function) + " - index (" + toString(index) + ") >= size() (" +
+			toString(returnsReference.size()) + ")");
+	}
+}
+
+END_NAMESPACE(jace)
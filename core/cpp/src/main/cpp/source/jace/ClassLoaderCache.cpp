@@ -0,0 +1,249 @@
+#include "jace/ClassLoaderCache.h"
+
+#include "jace/Jace.h"
+#include "jace/MemberRegistry.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/thread/locks.hpp>
+#include <boost/thread/mutex.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <algorithm>
+
+#include <string>
+using std::string;
+
+#include <vector>
+using std::vector;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	typedef vector<boost::shared_ptr<ClassLoaderCache> > CacheList;
+
+	// Threads may resolve their first classes at the same time, so the caches are constructed during
+	// static initialization instead of on first use
+
+	/**
+	 * The caches of all ClassLoaders that have not been garbage-collected.
+	 */
+	CacheList caches;
+	/**
+	 * The ID of the most recently created cache.
+	 */
+	unsigned int lastId = 0;
+	/**
+	 * Guards caches and lastId.
+	 */
+	boost::mutex cachesMutex;
+
+	/**
+	 * Converts an internal name, such as "java/lang/String", to a binary name, such as
+	 * "java.lang.String".
+	 */
+	string toBinaryName(const string& internalName)
+	{
+		string result(internalName);
+		std::replace(result.begin(), result.end(), '/', '.');
+		return result;
+	}
+} // namespace
+
+
+boost::shared_ptr<ClassLoaderCache> ClassLoaderCache::get(JNIEnv* env, jobject classLoader)
+{
+	boost::mutex::scoped_lock lock(cachesMutex);
+	boost::shared_ptr<ClassLoaderCache> result;
+	CacheList::iterator i = caches.begin();
+	while (i != caches.end())
+	{
+		ClassLoaderCache& cache = **i;
+		if (env->IsSameObject(cache.classLoader, 0) == JNI_TRUE)
+		{
+			// The ClassLoader was garbage-collected, so no thread uses it. Destroying the cache releases
+			// its classes.
+			i = caches.erase(i);
+			continue;
+		}
+		if (!result && env->IsSameObject(cache.classLoader, classLoader) == JNI_TRUE)
+			result = *i;
+		++i;
+	}
+	if (result)
+		return result;
+
+	result.reset(new ClassLoaderCache(env, classLoader, lastId + 1));
+	caches.push_back(result);
+	++lastId;
+	return result;
+}
+
+
+ClassLoaderCache ClassLoaderCache::system;
+
+
+ClassLoaderCache& ClassLoaderCache::getSystem()
+{
+	return system;
+}
+
+
+ClassLoaderCache::ClassLoaderCache():
+	classLoader(0), loadClass(0), id(0)
+{}
+
+
+ClassLoaderCache::ClassLoaderCache(JNIEnv* env, jobject _classLoader, unsigned int _id):
+	classLoader(0), loadClass(0), id(_id)
+{
+	jclass classLoaderClass = env->GetObjectClass(_classLoader);
+	loadClass = env->GetMethodID(classLoaderClass, "loadClass", "(Ljava/lang/String;)Ljava/lang/Class;");
+	deleteLocalRef(env, classLoaderClass);
+	if (loadClass == 0)
+	{
+		string msg = "JClass::getClass - Unable to find the method Jace::getClassLoader().loadClass()";
+		try
+		{
+			catchAndThrow();
+		}
+		catch (JNIException& e)
+		{
+			msg.append("\ncaused by:\n");
+			msg.append(e.what());
+		}
+		throw JNIException(msg);
+	}
+
+	classLoader = env->NewWeakGlobalRef(_classLoader);
+	if (classLoader == 0)
+	{
+		catchAndThrow();
+		throw JNIException(string("ClassLoaderCache::ClassLoaderCache()\n") +
+			"Unable to allocate a new weak reference for the ClassLoader.");
+	}
+}
+
+
+unsigned int ClassLoaderCache::getId() const
+{
+	return id;
+}
+
+
+ClassLoaderCache::~ClassLoaderCache() throw ()
+{
+	if (classLoader == 0)
+	{
+		// The system cache is destroyed during static deinitialization. Its classes are released along
+		// with the virtual machine.
+		return;
+	}
+	JavaVM* jvm = getJavaVm();
+	if (jvm == 0)
+	{
+		// The virtual machine is shut down
+		return;
+	}
+
+	// The cache is destroyed by get(), on an attached thread
+	JNIEnv* env;
+	if (jvm->GetEnv((void**) &env, JNI_VERSION_1_2) != JNI_OK)
+		return;
+
+	vector<jclass> released;
+	released.reserve(classes.size());
+	for (ClassMap::const_iterator i = classes.begin(); i != classes.end(); ++i)
+		released.push_back(i->second);
+	std::sort(released.begin(), released.end());
+
+	// The jclass values may be reused by new references. No thread uses the classes any longer, so
+	// their members can be discarded before the references are deleted.
+	MemberRegistry::removeClasses(released);
+	for (vector<jclass>::const_iterator i = released.begin(); i != released.end(); ++i)
+		env->DeleteWeakGlobalRef(*i);
+	env->DeleteWeakGlobalRef(classLoader);
+}
+
+
+jclass ClassLoaderCache::getClass(JNIEnv* env, jobject _classLoader, const string& internalName)
+{
+	{
+		boost::shared_lock<boost::shared_mutex> lock(mutex);
+		ClassMap::const_iterator i = classes.find(internalName);
+		if (i != classes.end())
+			return i->second;
+	}
+
+	jclass localClass;
+	if (classLoader == 0)
+		localClass = env->FindClass(internalName.c_str());
+	else
+	{
+		jstring javaString = env->NewStringUTF(toBinaryName(internalName).c_str());
+		if (javaString == 0)
+		{
+			catchAndThrow();
+			throw JNIException(string("ClassLoaderCache::getClass()\n") +
+				"Unable to allocate the class name. The virtual machine's memory could be exhausted.");
+		}
+		localClass = static_cast<jclass>(env->CallObjectMethod(_classLoader, loadClass, javaString));
+		deleteLocalRef(env, javaString);
+	}
+	if (!localClass)
+	{
+		string msg = "JClass::getClass - Unable to find the class <" + internalName + ">";
+		try
+		{
+			catchAndThrow();
+		}
+		catch (JNIException& e)
+		{
+			msg.append("\ncaused by:\n");
+			msg.append(e.what());
+		}
+		throw JNIException(msg);
+	}
+
+	// A strong reference would keep the ClassLoader from being garbage-collected
+	jclass result;
+	if (classLoader == 0)
+	{
+		try
+		{
+			result = static_cast<jclass>(newGlobalRef(env, localClass));
+		}
+		catch (...)
+		{
+			deleteLocalRef(env, localClass);
+			throw;
+		}
+	}
+	else
+	{
+		result = static_cast<jclass>(env->NewWeakGlobalRef(localClass));
+		if (result == 0)
+		{
+			deleteLocalRef(env, localClass);
+			catchAndThrow();
+			throw JNIException(string("ClassLoaderCache::getClass()\n") +
+				"Unable to allocate a new weak reference for the class <" + internalName + ">.");
+		}
+	}
+	deleteLocalRef(env, localClass);
+
+	boost::unique_lock<boost::shared_mutex> lock(mutex);
+	std::pair<ClassMap::iterator, bool> inserted = classes.insert(ClassMap::value_type(internalName, result));
+	if (!inserted.second)
+	{
+		// Another thread loaded the class first
+		if (classLoader == 0)
+			deleteGlobalRef(env, result);
+		else
+			env->DeleteWeakGlobalRef(result);
+		return inserted.first->second;
+	}
+	return result;
+}
+
+END_NAMESPACE(jace)
@@ -0,0 +1,252 @@
+#include "jace/DirectBuffer.h"
+
+#include "jace/Jace.h"
+#include "jace/ClassLoaderCache.h"
+#include "jace/JClassImpl.h"
+#include "jace/MemberRegistry.h"
+#include "jace/VirtualMachineShutdownError.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include <boost/thread/mutex.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <string>
+using std::string;
+
+BEGIN_NAMESPACE(jace)
+
+/**
+ * The state shared by copies of a DirectBuffer.
+ */
+struct DirectBuffer::State
+{
+	State(): buffer(0), address(0), capacity(0), byteBuffer(false)
+	{}
+
+	~State()
+	{
+		if (buffer == 0)
+			return;
+		try
+		{
+			JNIEnv* env = attach();
+			deleteGlobalRef(env, buffer);
+		}
+		catch (VirtualMachineShutdownError&)
+		{
+			// We tried to attach when the JVM has already been destroyed
+		}
+		catch (std::exception&)
+		{
+			// Destructors may not throw
+		}
+	}
+
+	/**
+	 * A global reference to the buffer.
+	 */
+	jobject buffer;
+	void* address;
+	jlong capacity;
+	bool byteBuffer;
+};
+
+namespace
+{
+	// Function-local statics are not initialized in a thread-safe manner prior to C++11
+	boost::mutex byteBufferClassMutex;
+	boost::atomic<JClassImpl*> byteBufferClass(0);
+	boost::shared_ptr<JClassImpl> byteBufferClassOwner;
+
+	const JClass& getByteBufferClass()
+	{
+		JClassImpl* cached = byteBufferClass.load(boost::memory_order_acquire);
+		if (cached != 0)
+			return *cached;
+
+		boost::mutex::scoped_lock lock(byteBufferClassMutex);
+		if (byteBufferClassOwner == 0)
+			byteBufferClassOwner = boost::shared_ptr<JClassImpl>(new JClassImpl("java/nio/ByteBuffer"));
+		byteBufferClass.store(byteBufferClassOwner.get(), boost::memory_order_release);
+		return *byteBufferClassOwner;
+	}
+
+	boost::mutex ownerNativesMutex;
+	boost::atomic<bool> ownerNativesRegistered(false);
+
+	/**
+	 * Releases the owner of memory wrapped by a ByteBuffer that became phantom reachable. Implements
+	 * org.jace.util.DirectBufferOwner.jaceDestroyInstance(long), and is invoked by a PeerCleaner thread.
+	 */
+	void JNICALL destroyOwner(JNIEnv*, jclass, jlong handle)
+	{
+		try
+		{
+			delete reinterpret_cast<boost::shared_ptr<void>*>(handle);
+		}
+		catch (std::exception&)
+		{
+			// Exceptions may not propagate into the virtual machine
+		}
+	}
+
+	/**
+	 * Binds org.jace.util.DirectBufferOwner.jaceDestroyInstance(long) to destroyOwner(), the first time
+	 * this method is invoked.
+	 *
+	 * @throws JNIException if the method could not be registered
+	 */
+	void registerOwnerNatives(JNIEnv* env, jclass ownerClass)
+	{
+		if (ownerNativesRegistered.load(boost::memory_order_acquire))
+			return;
+
+		boost::mutex::scoped_lock lock(ownerNativesMutex);
+		if (ownerNativesRegistered.load(boost::memory_order_relaxed))
+			return;
+		JNINativeMethod method =
+		{
+			const_cast<char*>("jaceDestroyInstance"), const_cast<char*>("(J)V"),
+			reinterpret_cast<void*>(&destroyOwner)
+		};
+		if (env->RegisterNatives(ownerClass, &method, 1) != 0)
+		{
+			catchAndThrow();
+			throw JNIException("DirectBuffer::wrap() - Unable to register DirectBufferOwner.jaceDestroyInstance()");
+		}
+		ownerNativesRegistered.store(true, boost::memory_order_release);
+	}
+
+	/**
+	 * Keeps the owner of a wrapped buffer's memory alive until the buffer becomes phantom reachable.
+	 *
+	 * @param buffer the ByteBuffer
+	 * @param owner the owner of its memory
+	 * @throws JNIException if jace-runtime.jar is not on the class path, or the buffer could not be
+	 * registered
+	 */
+	void retainOwner(JNIEnv* env, jobject buffer, const boost::shared_ptr<void>& owner)
+	{
+		ClassLoaderCache& system = ClassLoaderCache::getSystem();
+		jclass ownerClass = system.getClass(env, 0, "org/jace/util/DirectBufferOwner");
+		registerOwnerNatives(env, ownerClass);
+		jclass cleanerClass = system.getClass(env, 0, "org/jace/util/PeerCleaner");
+		jmethodID registerMethod = MemberRegistry::getMethodID(env, cleanerClass, "register",
+			"(Ljava/lang/Object;Ljava/lang/Class;J)Lorg/jace/util/PeerCleaner$Cleanable;", true);
+		if (registerMethod == 0)
+		{
+			catchAndThrow();
+			throw JNIException("DirectBuffer::wrap() - Unable to find the method PeerCleaner.register()");
+		}
+
+		// The cleaner owns the copy from now on
+		boost::shared_ptr<void>* handle = new boost::shared_ptr<void>(owner);
+		jobject cleanable = env->CallStaticObjectMethod(cleanerClass, registerMethod, buffer, ownerClass,
+			reinterpret_cast<jlong>(handle));
+		if (env->ExceptionCheck())
+		{
+			delete handle;
+			catchAndThrow();
+		}
+		deleteLocalRef(env, cleanable);
+	}
+} // namespace
+
+
+DirectBuffer DirectBuffer::wrap(void* address, jlong capacity, const boost::shared_ptr<void>& owner)
+{
+	JNIEnv* env = attach();
+	jobject localRef = env->NewDirectByteBuffer(address, capacity);
+	catchAndThrow();
+	if (localRef == 0)
+	{
+		throw JNIException(string("DirectBuffer::wrap()\n") +
+			"The virtual machine does not support JNI access to direct buffers");
+	}
+
+	boost::shared_ptr<State> state(new State());
+	try
+	{
+		state->buffer = newGlobalRef(env, localRef);
+	}
+	catch (...)
+	{
+		deleteLocalRef(env, localRef);
+		throw;
+	}
+	deleteLocalRef(env, localRef);
+	state->address = address;
+	state->capacity = capacity;
+	state->byteBuffer = true;
+	if (owner)
+		retainOwner(env, state->buffer, owner);
+	return DirectBuffer(state);
+}
+
+
+DirectBuffer::DirectBuffer(jobject buffer)
+{
+	initialize(buffer);
+}
+
+
+DirectBuffer::DirectBuffer(const ::jace::proxy::JObject& buffer)
+{
+	initialize(static_cast<jobject>(buffer));
+}
+
+
+DirectBuffer::DirectBuffer(const boost::shared_ptr<State>& _state):
+	state(_state)
+{}
+
+
+void DirectBuffer::initialize(jobject buffer)
+{
+	if (buffer == 0)
+		throw JNIException("[DirectBuffer::DirectBuffer] Can not wrap a null buffer.");
+
+	JNIEnv* env = attach();
+	void* address = env->GetDirectBufferAddress(buffer);
+	if (address == 0)
+	{
+		throw JNIException(string("DirectBuffer::DirectBuffer()\n") +
+			"The buffer is not direct, or the virtual machine does not support JNI access to direct buffers");
+	}
+	jlong capacity = env->GetDirectBufferCapacity(buffer);
+	bool byteBuffer = env->IsInstanceOf(buffer, getByteBufferClass().getClass()) == JNI_TRUE;
+
+	boost::shared_ptr<State> result(new State());
+	result->buffer = newGlobalRef(env, buffer);
+	result->address = address;
+	result->capacity = capacity;
+	result->byteBuffer = byteBuffer;
+	state = result;
+}
+
+
+void* DirectBuffer::getAddress() const
+{
+	return state->address;
+}
+
+
+jlong DirectBuffer::getCapacity() const
+{
+	return state->capacity;
+}
+
+
+bool DirectBuffer::isByteBuffer() const
+{
+	return state->byteBuffer;
+}
+
+
+jobject DirectBuffer::getJavaJniObject() const
+{
+	return state->buffer;
+}
+
+END_NAMESPACE(jace)
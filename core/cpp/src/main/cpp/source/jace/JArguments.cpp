@@ -7,13 +7,16 @@ using jace::proxy::JValue;
 #include <list>
 using std::list;
 
+#include <vector>
+using std::vector;
+
 
 BEGIN_NAMESPACE(jace)
 
 /**
  * Constructs a new argument list. 
  */
-JArguments::JArguments(): mList()
+JArguments::JArguments(): mSize(0)
 {
 }
 
@@ -25,7 +28,15 @@ JArguments::JArguments(): mList()
  */
 JArguments& JArguments::add(const JValue& value)
 {
-  mList.push_back(&value);
+  if (mSize < INLINE_CAPACITY)
+    mInlineValues[mSize] = &value;
+  else
+  {
+    if (mSize == INLINE_CAPACITY)
+      mOverflowValues.assign(mInlineValues, mInlineValues + INLINE_CAPACITY);
+    mOverflowValues.push_back(&value);
+  }
+  ++mSize;
   return *this;
 }
 
@@ -61,7 +72,39 @@ JArguments& JArguments::operator<<(const JValue& value)
  */
 list<const JValue*> JArguments::asList() const
 {
-  return mList;
+  list<const JValue*> result;
+  for (size_t i = 0; i < mSize; ++i)
+    result.push_back(&getValue(i));
+  return result;
+}
+
+
+size_t JArguments::size() const
+{
+  return mSize;
+}
+
+
+const JValue& JArguments::getValue(size_t index) const
+{
+  if (mSize <= INLINE_CAPACITY)
+    return *mInlineValues[index];
+  return *mOverflowValues[index];
+}
+
+
+const jvalue* JArguments::asJValues() const
+{
+  if (mSize <= INLINE_CAPACITY)
+  {
+    for (size_t i = 0; i < mSize; ++i)
+      mInlineJValues[i] = static_cast<jvalue>(*mInlineValues[i]);
+    return mInlineJValues;
+  }
+  mOverflowJValues.resize(mSize);
+  for (size_t i = 0; i < mSize; ++i)
+    mOverflowJValues[i] = static_cast<jvalue>(*mOverflowValues[i]);
+  return &mOverflowJValues[0];
 }
 
 END_NAMESPACE(jace)
@@ -1,10 +1,7 @@
 #include "jace/JClassImpl.h"
 
 #include "jace/Jace.h"
-
-#include "jace/BoostWarningOff.h"
-#include <boost/thread/mutex.hpp>
-#include "jace/BoostWarningOn.h"
+#include "jace/ClassLoaderCache.h"
 
 using std::string;
 
@@ -15,34 +12,20 @@ JClassImpl::JClassImpl(const string& _internalName, const string& _signature):
   internalName(_internalName), 
   signature(_signature),
 	theClass(0)
-{
-	mutex = new boost::mutex();
-}
+{}
 
 
 JClassImpl::JClassImpl(const string& _internalName): 
   internalName(_internalName),
   signature("L" + internalName + ";"),
 	theClass(0)
-{
-	mutex = new boost::mutex();
-}
+{}
 	
 /**
  * Destroys this JClassImpl.
  */
 JClassImpl::~JClassImpl() throw ()
-{
-	delete mutex;
-	if (theClass)
-	{
-		if (!isRunning())
-			return;
-
-		JNIEnv* env = attach();
-		deleteGlobalRef(env, theClass);
-  }
-}
+{}
 
 
 const string& JClassImpl::getInternalName() const
@@ -60,73 +43,29 @@ const string& JClassImpl::getSignature() const
  */
 jclass JClassImpl::getClass() const throw (JNIException)
 {
-	boost::mutex::scoped_lock lock(*mutex);
-	if (theClass == 0)
+	// ClassLoader.loadClass() does not accept the names of primitive or array classes, such as "int"
+	// or "[I"
+	bool primitive = signature.size() == 1;
+	bool array = !internalName.empty() && internalName[0] == '[';
+	jobject classLoader = 0;
+	if (!primitive && !array)
+		classLoader = getClassLoader();
+	if (classLoader != 0)
 	{
+		// Classes are cached per ClassLoader
 		JNIEnv* env = attach();
+		return getClassLoaderCache()->getClass(env, classLoader, getInternalName());
+	}
 
-		jobject classLoader = getClassLoader();
-		jclass localClass;
-
-		if (classLoader != 0)
-		{
-			std::string binaryName(getInternalName());
-			size_t i = 0;
-			
-			// Replace '/' by '.' in the name
-			while (true)
-			{
-				i = binaryName.find('/', i);
-				if (i != std::string::npos)
-				{
-					binaryName[i] = '.';
-					++i;
-				}
-				else
-					break;
-			}
-			jclass classLoaderClass = env->GetObjectClass(classLoader);
-			jmethodID loadClass = env->GetMethodID(classLoaderClass, "loadClass", "(Ljava/lang/String;)Ljava/lang/Class;");
-			if (loadClass == 0)
-			{
-				string msg = "JClass::getClass - Unable to find the method Jace::getClassLoader().loadClass()";
-				try
-				{
-					catchAndThrow();
-				}
-				catch (JNIException& e)
-				{
-					msg.append("\ncaused by:\n");
-					msg.append(e.what());
-				}
-				throw JNIException(msg);
-			}
-			jstring javaString = env->NewStringUTF(binaryName.c_str());
-			localClass = static_cast<jclass>(env->CallObjectMethod(classLoader, loadClass, javaString));
-			env->DeleteLocalRef(javaString);
-		}
-		else
-			localClass = env->FindClass(getInternalName().c_str());
-
-		if (!localClass)
-		{
-			string msg = "JClass::getClass - Unable to find the class <" + getInternalName() + ">";
-			try
-			{
-				catchAndThrow();
-			}
-			catch (JNIException& e)
-			{
-				msg.append("\ncaused by:\n");
-				msg.append(e.what());
-			}
-			throw JNIException(msg);
-		}
+	jclass result = theClass.load(boost::memory_order_acquire);
+	if (result != 0)
+		return result;
 
-		theClass = static_cast<jclass>(newGlobalRef(env, localClass));
-		deleteLocalRef(env, localClass);
-	}
-	return theClass;
+	// Shares the classes resolved by warmUp() and by other JClassImpl instances
+	JNIEnv* env = attach();
+	result = ClassLoaderCache::getSystem().getClass(env, 0, getInternalName());
+	theClass.store(result, boost::memory_order_release);
+	return result;
 }
 
 END_NAMESPACE(jace)
@@ -8,6 +8,9 @@ using jace::JArguments;
 #include "jace/JSignature.h"
 using jace::JSignature;
 
+#include "jace/MemberRegistry.h"
+using jace::MemberRegistry;
+
 #include "jace/proxy/types/JVoid.h"
 using jace::proxy::types::JVoid;
 
@@ -24,36 +27,23 @@ using std::string;
 using std::cout;
 using std::endl;
 
-#include <list>
-using std::list;
 
 BEGIN_NAMESPACE(jace)
 
-namespace
-{
-	// Transforms a JArguments to a vector of jvalue's
-	vector<jvalue> toVector(const JArguments& arguments)
-	{
-		typedef list<const JValue*> ValueList;
-		vector<jvalue> argsVector;
-		ValueList argsList = arguments.asList();
-
-		ValueList::iterator end = argsList.end();
-
-		for (ValueList::iterator i = argsList.begin(); i != end; ++i)
-			argsVector.push_back(static_cast<jvalue>(**i));
-
-		return argsVector;
-	}
-
-} // namespace {
-
-
 /**
  * Creates a new JConstructor for the given JClass.
  */
 JConstructor::JConstructor(const JClass& javaClass):
-  mClass(javaClass), mMethodID(0)
+  mClass(&javaClass), mClassGetter(0)
+{}
+
+
+/**
+ * Creates a new JConstructor for the given signature.
+ * The jmethodID is resolved on first use.
+ */
+JConstructor::JConstructor(JClassGetter getClass, const string& signature):
+  mClass(0), mClassGetter(getClass), mSignature(signature)
 {}
 
 
@@ -68,7 +58,8 @@ jobject JConstructor::invoke(const JArguments& arguments)
 {
   // Get the methodID for the constructor matching the given arguments.
 //  cout << "JConstructor::invoke - Retrieving the methodID..." << endl;
-  jmethodID methodID = getMethodID(mClass, arguments);
+  const JClass& jClass = getDeclaringClass();
+  jmethodID methodID = getMethodID(jClass, arguments);
 //  cout << "JConstructor::invoke - Retrieved the methodID." << endl;
 
   // Call the constructor
@@ -78,12 +69,7 @@ jobject JConstructor::invoke(const JArguments& arguments)
 
 //  cout << "JConstructor::invoke - Creating the object..." << endl;
   jobject result;
-	vector<jvalue> argArray = toVector(arguments);
-
-	if (argArray.size() > 0)
-		result = env->NewObjectA(mClass.getClass(), methodID, &argArray[0]);
-	else
-		result = env->NewObject(mClass.getClass(), methodID);
+  result = env->NewObjectA(jClass.getClass(), methodID, arguments.asJValues());
 //  cout << "JConstructor::invoke - Created the object..." << endl;
 
   // Catch any java exception that occurred during the method call,
@@ -101,10 +87,14 @@ jobject JConstructor::invoke(const JArguments& arguments)
  */
 jmethodID JConstructor::getMethodID(const JClass& jClass, const JArguments& arguments)
 {
+  if (!mSignature.empty())
+    return getMethodID(jClass, mSignature);
+
   // We cache the jmethodID locally, so if we've already found it,
   // we don't need to go looking for it again.
-  if (mMethodID)
-    return mMethodID;
+  jmethodID result = mMethodIDs.get(jClass.getClass(), getClassLoaderCacheId());
+  if (result != 0)
+    return result;
 
   // If we don't already have the jmethodID, we need to determine
   // the signature of this method.
@@ -112,28 +102,33 @@ jmethodID JConstructor::getMethodID(const JClass& jClass, const JArguments& argu
   // We construct this signature with a void return type,
   // because the return type for constructors is void.
   JSignature signature(JVoid::staticGetJavaJniClass());
-  typedef list<const JValue*> ValueList;
-  ValueList args = arguments.asList();
+  for (size_t i = 0; i < arguments.size(); ++i)
+    signature << arguments.getValue(i).getJavaJniClass();
 
-  ValueList::iterator i = args.begin();
-  ValueList::iterator end = args.end();
-
-  for (; i != end; ++i)
-	{
-    const JValue* value = *i;
-    signature << value->getJavaJniClass();
-  }
+  return getMethodID(jClass, signature.toString());
+}
 
-  string methodSignature = signature.toString();
 
-  // Now that we have the signature for the method, we could look
-  // in a global cache for the jmethodID corresponding to this method,
-  // but for now, we'll always find it.
+/**
+ * Gets the method id matching the given signature.
+ */
+jmethodID JConstructor::getMethodID(const JClass& jClass, const string& methodSignature)
+{
+  // The class differs between threads that use different ClassLoaders
+  jclass javaClass = jClass.getClass();
+  unsigned int classLoaderCacheId = getClassLoaderCacheId();
+  jmethodID result = mMethodIDs.get(javaClass, classLoaderCacheId);
+  if (result != 0)
+    return result;
+
+  // Now that we have the signature for the method, look up
+  // the jmethodID in the global cache.
+  unsigned int generation = MemberRegistry::getGeneration();
   JNIEnv* env = attach();
 
-  mMethodID = env->GetMethodID(jClass.getClass(), "<init>", methodSignature.c_str());
+  result = MemberRegistry::getMethodID(env, javaClass, "<init>", methodSignature, false);
 
-  if (mMethodID == 0)
+  if (result == 0)
 	{
 		string msg = string("JConstructor::getMethodID(): ") +
                  "Unable to find constructor for " + jClass.getInternalName() + 
@@ -150,7 +145,16 @@ jmethodID JConstructor::getMethodID(const JClass& jClass, const JArguments& argu
     throw JNIException(msg);
   }
 
-  return mMethodID;
+  mMethodIDs.set(javaClass, classLoaderCacheId, result, generation);
+  return result;
+}
+
+
+const JClass& JConstructor::getDeclaringClass() const
+{
+  if (mClassGetter != 0)
+    return mClassGetter();
+  return *mClass;
 }
 
 
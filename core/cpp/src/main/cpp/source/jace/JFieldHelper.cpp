@@ -1,6 +1,7 @@
 
 #include "jace/JFieldHelper.h"
 #include "jace/Jace.h"
+#include "jace/MemberRegistry.h"
 
 using jace::proxy::JObject;
 using jace::JClass;
@@ -9,7 +10,6 @@ using std::string;
 BEGIN_NAMESPACE(jace)
 
 JFieldHelper::JFieldHelper(const std::string& name, const JClass& typeClass): 
-  mFieldID(0), 
   mName(name), 
   mTypeClass(typeClass)
 {
@@ -48,30 +48,25 @@ jvalue JFieldHelper::getField(const JClass& jClass)
   return value;
 }
 
-jfieldID JFieldHelper::getFieldID()
-{
-  return mFieldID;
-}
-
 jfieldID JFieldHelper::getFieldID(const JClass& parentClass, bool isStatic)
 {
   // We cache the jfieldID locally, so if we've already found it,
   // we don't need to go looking for it again.
-  if (mFieldID)
-    return mFieldID;
-
-  // We could look in a global cache for the jfieldID corresponding to this field,
-  // but for now, we'll always find it.
+  // The class differs between threads that use different ClassLoaders.
+  jclass javaClass = parentClass.getClass();
+  unsigned int classLoaderCacheId = getClassLoaderCacheId();
+  jfieldID result = mFieldIDs.get(javaClass, classLoaderCacheId);
+  if (result != 0)
+    return result;
+
+  // Look up the jfieldID in the global cache.
+  unsigned int generation = MemberRegistry::getGeneration();
   JNIEnv* env = attach();
 
-  string signature = mTypeClass.getSignature();
-
-  if (isStatic)
-    mFieldID = env->GetStaticFieldID(parentClass.getClass(), mName.c_str(), signature.c_str());
-  else
-    mFieldID = env->GetFieldID(parentClass.getClass(), mName.c_str(), signature.c_str());
+  const string& signature = mTypeClass.getSignature();
+  result = MemberRegistry::getFieldID(env, javaClass, mName, signature, isStatic);
 
-  if (mFieldID == 0)
+  if (result == 0)
 	{
     string msg = "JFieldHelper::getFieldID\n" \
                  "Unable to find field <" + mName + "> with signature <" + signature + ">";
@@ -86,11 +81,12 @@ jfieldID JFieldHelper::getFieldID(const JClass& parentClass, bool isStatic)
 		}
     throw JNIException(msg);
   }
+  mFieldIDs.set(javaClass, classLoaderCacheId, result, generation);
 
 //  cout << "JMethod::getMethodID() - Found the method:" << endl;
 //  cout << "  <" << mName << "> with signature <" << methodSignature << "> for " << jClass.getName() << endl;
 
-  return mFieldID;
+  return result;
 }
 
 
@@ -6,9 +6,6 @@ using jace::JArguments;
 #include "jace/proxy/JValue.h"
 using jace::proxy::JValue;
 
-#include <list>
-using std::list;
-
 #include <vector>
 using std::vector;
 
@@ -20,15 +17,8 @@ BEGIN_NAMESPACE(jace)
  */
 vector<jvalue> toVector(const JArguments& arguments)
 {
-  typedef list<const JValue*> ValueList;
-  vector<jvalue> argsVector;
-  ValueList argsList = arguments.asList();
-
-  ValueList::iterator end = argsList.end();
-  for (ValueList::iterator i = argsList.begin(); i != end; ++i)
-    argsVector.push_back(static_cast<jvalue>(**i));
-
-  return argsVector;
+  const jvalue* values = arguments.asJValues();
+  return vector<jvalue>(values, values + arguments.size());
 }
 
 END_NAMESPACE(jace)
@@ -18,6 +18,11 @@ using jace::Peer;
 #include "jace/VmLoader.h"
 using ::jace::VmLoader;
 
+#include "jace/MemberRegistry.h"
+#include "jace/ClassLoaderCache.h"
+#include "jace/JavaExecutor.h"
+using ::jace::MemberRegistry;
+
 #include "jace/VirtualMachineShutdownError.h"
 using jace::VirtualMachineShutdownError;
 
@@ -25,6 +30,9 @@ using jace::VirtualMachineShutdownError;
 using jace::VirtualMachineRunningError;
 
 #include <cstdarg>
+#include <cstddef>
+#include <cstring>
+#include <new>
 #include <stdlib.h>
 
 #include <iostream>
@@ -36,12 +44,11 @@ using std::endl;
 using std::copy;
 using std::replace;
 
+#include <utility>
+
 #include <vector>
 using std::vector;
 
-#include <map>
-using std::map;
-
 #include <string>
 using std::string;
 using std::wstring;
@@ -51,6 +58,11 @@ using std::wstring;
 #include <boost/thread/mutex.hpp>
 #include <boost/thread/tss.hpp>
 #include <boost/shared_ptr.hpp>
+#include <boost/atomic.hpp>
+#include <boost/cstdint.hpp>
+#include <boost/thread/locks.hpp>
+#include <boost/thread/shared_mutex.hpp>
+#include <boost/unordered_map.hpp>
 #include "jace/BoostWarningOn.h"
 
 #ifdef WIN32
@@ -65,17 +77,115 @@ BEGIN_NAMESPACE(jace)
 
 // A reference to the java virtual machine.
 // We're under the assumption that there will always only be one of these.
-JavaVM* jvm = 0;
+//
+// The value is published atomically so that attach(), isRunning() and getJavaVm() may read it
+// without locking. Writes must still take place under jvmMutex.
+boost::atomic<JavaVM*> jvm(0);
 jint jniVersion = 0;
 unsigned int threadNumber = 0;
 
 /**
- * Synchronizes access to "jvm" and "jniVersion" variables.
+ * Serializes modifications to "jvm" and "jniVersion" variables.
  */
 boost::mutex jvmMutex;
 
+/**
+ * The JNIEnv of an attached thread, and the virtual machine it belongs to.
+ */
+struct ThreadEnv
+{
+	JavaVM* jvm;
+	JNIEnv* env;
+	/**
+	 * The number of JNI critical regions held by the thread.
+	 */
+	int criticalRegions;
+	/**
+	 * True if Jace attached the thread, false if it was already attached (for example, because it
+	 * was started by Java).
+	 */
+	bool attachedByJace;
+};
+
+void threadEnvDestructor(ThreadEnv* value)
+{
+	// Invoked when the thread exits. detach() releases the value itself.
+	if (value == 0)
+		return;
+	JavaVM* owner = value->jvm;
+	bool attachedByJace = value->attachedByJace;
+	delete value;
+	if (!attachedByJace)
+		return;
+
+	boost::mutex::scoped_lock lock(jvmMutex);
+	if (jvm.load(boost::memory_order_relaxed) != owner)
+	{
+		// The virtual machine the thread was attached to is shut down
+		return;
+	}
+	owner->DetachCurrentThread();
+}
+
+/**
+ * Caches the JNIEnv of the current thread so that attach() does not need to lock jvmMutex or
+ * invoke GetEnv() once the thread is attached. Entries are invalidated by detach() and ignored
+ * once the virtual machine they belong to is shut down.
+ *
+ * Threads that Jace attached stay attached until they exit, at which point threadEnvDestructor()
+ * detaches them. Native thread pools therefore attach each thread at most once.
+ */
+boost::thread_specific_ptr<ThreadEnv> threadEnv(threadEnvDestructor);
+
+/**
+ * A reference that is waiting to be deleted.
+ */
+struct ReleasedRef
+{
+	jobject ref;
+	bool weak;
+	ReleasedRef* next;
+};
+
+/**
+ * The references that were released by detached threads, most recent first.
+ *
+ * Threads push references using compare-and-swap and drain the entire list at once, so the list
+ * is immune to the ABA problem.
+ */
+boost::atomic<ReleasedRef*> releaseQueue(0);
+
+/**
+ * Indicates if detached threads should queue references instead of deleting them.
+ */
+boost::atomic<bool> deferredReleaseEnabled(false);
+
+/**
+ * Deletes all queued references.
+ *
+ * @param env the JNIEnv of the current thread, or null to discard the references of a virtual
+ * machine that has shut down
+ */
+void drainReleaseQueue(JNIEnv* env) throw ()
+{
+	ReleasedRef* node = releaseQueue.exchange(0, boost::memory_order_acquire);
+	while (node != 0)
+	{
+		if (env != 0)
+		{
+			if (node->weak)
+				env->DeleteWeakGlobalRef(node->ref);
+			else
+				env->DeleteGlobalRef(node->ref);
+		}
+		ReleasedRef* next = node->next;
+		delete node;
+		node = next;
+	}
+}
+
 // The map of all of the java class factories.
-typedef map<string,JFactory*> FactoryMap;
+typedef boost::unordered_map<string,JFactory*> FactoryMap;
 
 FactoryMap* getFactoryMap()
 {
@@ -83,85 +193,151 @@ FactoryMap* getFactoryMap()
 	return &factoryMap;
 }
 
-/**
- * Converts std::wstring to a modified UTF-8 std::string.
- *
- * Adaptation of u_strToJavaModifiedUTF8() found in ustrtrns.cpp in icu4c 4.9.1.1 package found at
- * http://site.icu-project.org/
- */
-std::string toUTF8(const wstring& src)
+
+namespace
 {
-	wchar_t ch = 0;
-	size_t count;
-	std::string result;
+	/**
+	 * The character that replaces malformed input.
+	 */
+	const unsigned long REPLACEMENT_CHARACTER = 0xFFFD;
+
+	/**
+	 * The number of characters that toUTF8() measures at a time.
+	 */
+	const std::ptrdiff_t MEASURE_BLOCK_SIZE = 4096;
+
+	/**
+	 * Returns the number of bytes, beyond the first, needed to encode a character using modified
+	 * UTF-8.
+	 *
+	 * The computation is free of branches so that it can be vectorized. U+0000 wraps around and takes
+	 * two bytes. Supplementary characters are encoded as a surrogate pair while invalid values are
+	 * replaced by U+FFFD.
+	 */
+	inline boost::uint32_t getExtraUTF8Length(boost::uint32_t ch)
+	{
+		return (ch - 1 >= 0x7F) + (ch > 0x7FF) + 3 * (ch > 0xFFFF) - 3 * (ch > 0x10FFFF);
+	}
 
-	// Faster loop without ongoing checking for pSrcLimit and pDestLimit.
-	wstring::const_iterator i = src.begin();
-	while (i != src.end())
+	/**
+	 * Encodes a character in the range U+0800..U+FFFF using three bytes.
+	 *
+	 * @return the position after the last byte written
+	 */
+	inline char* encodeUTF8(unsigned long ch, char* out)
 	{
-		count = result.length();
-		if (*i <= 0x7f)
+		*out++ = static_cast<char>(0xE0 | (ch >> 12));
+		*out++ = static_cast<char>(0x80 | ((ch >> 6) & 0x3F));
+		*out++ = static_cast<char>(0x80 | (ch & 0x3F));
+		return out;
+	}
+
+	/**
+	 * Indicates if a byte is a UTF-8 continuation byte.
+	 */
+	inline bool isContinuation(unsigned char value)
+	{
+		return (value & 0xC0) == 0x80;
+	}
+
+	/**
+	 * Decodes a single modified UTF-8 character. Four-byte sequences of standard UTF-8 are accepted as
+	 * well.
+	 *
+	 * @param in the first byte of the character
+	 * @param end the end of the input
+	 * @param ch the decoded character, or REPLACEMENT_CHARACTER if the input is malformed
+	 * @return the number of bytes consumed
+	 */
+	inline size_t decodeUTF8(const unsigned char* in, const unsigned char* end, unsigned long& ch)
+	{
+		unsigned char first = in[0];
+		std::ptrdiff_t available = end - in;
+		if (first >= 0xC0 && first <= 0xDF)
 		{
-			// fast ASCII loop
-			while (i != src.end() && *i <= 0x7f && *i != 0)
+			if (available >= 2 && isContinuation(in[1]))
 			{
-				result += (char) *i;
-				++i;
-				--count;
-			}
-		}
+				ch = ((first & 0x1FUL) << 6) | (in[1] & 0x3FUL);
 
-		// Each iteration of the inner loop progresses by at most 3 UTF-8
-		// bytes and one UChar.
-		count /= 3;
-		if (i + count > src.end())
-		{
-			// min(remaining dest/3, remaining src)
-			count = src.end() - i;
-		}
-		if(count < 3)
-		{
-			// Too much overhead if we get near the end of the string,
-			// continue with the next loop.
-			break;
+				// Modified UTF-8 encodes U+0000 as C0 80. Any other overlong form is malformed.
+				if (ch >= 0x80 || ch == 0)
+					return 2;
+			}
 		}
-		do
+		else if (first >= 0xE0 && first <= 0xEF)
 		{
-			ch = *i++;
-			if (ch <= 0x7f && ch != 0)
-				result += (char) ch;
-			else if(ch <= 0x7ff)
+			if (available >= 3 && isContinuation(in[1]) && isContinuation(in[2]))
 			{
-				result += (char)((ch>>6)|0xc0);
-				result += (char)((ch&0x3f)|0x80);
+				ch = ((first & 0x0FUL) << 12) | ((in[1] & 0x3FUL) << 6) | (in[2] & 0x3FUL);
+				if (ch >= 0x800)
+					return 3;
 			}
-			else
+		}
+		else if (first >= 0xF0 && first <= 0xF4)
+		{
+			if (available >= 4 && isContinuation(in[1]) && isContinuation(in[2]) && isContinuation(in[3]))
 			{
-				result += (char)((ch>>12)|0xe0);
-				result += (char)(((ch>>6)&0x3f)|0x80);
-				result += (char)((ch&0x3f)|0x80);
+				ch = ((first & 0x07UL) << 18) | ((in[1] & 0x3FUL) << 12) | ((in[2] & 0x3FUL) << 6) |
+					(in[3] & 0x3FUL);
+				if (ch >= 0x10000 && ch <= 0x10FFFF)
+					return 4;
 			}
-		} while(--count > 0);
+		}
+		ch = REPLACEMENT_CHARACTER;
+		return 1;
 	}
 
-	while (i != src.end())
+} // namespace
+
+/**
+ * Converts std::wstring to a modified UTF-8 std::string.
+ *
+ * The output is measured before it is written so it is allocated exactly once. If wchar_t is 32 bits
+ * wide, characters outside the Basic Multilingual Plane are encoded as surrogate pairs, like Java
+ * does. Values that are not valid code points are replaced by U+FFFD.
+ */
+std::string toUTF8(const wstring& src)
+{
+	const wchar_t* in = src.data();
+	const wchar_t* end = in + src.size();
+
+	// Measure the output in blocks whose extra lengths fit in 32 bits, which lets the compiler
+	// vectorize the loop
+	size_t length = src.size();
+	for (const wchar_t* i = in; i != end;)
+	{
+		const wchar_t* blockEnd = end - i > MEASURE_BLOCK_SIZE ? i + MEASURE_BLOCK_SIZE : end;
+		boost::uint32_t extra = 0;
+		for (; i != blockEnd; ++i)
+			extra += getExtraUTF8Length(static_cast<boost::uint32_t>(*i));
+		length += extra;
+	}
+	string result(length, '\0');
+	if (length == 0)
+		return result;
+	char* out = &result[0];
+
+	for (; in != end; ++in)
 	{
-		ch = *i++;
-		if (ch <= 0x7f && ch != 0)
+		unsigned long ch = static_cast<unsigned long>(*in);
+		if (ch - 1 < 0x7F)
+			*out++ = static_cast<char>(ch);
+		else if (ch <= 0x7FF)
 		{
-			result += (char) ch;
+			out[0] = static_cast<char>(0xC0 | (ch >> 6));
+			out[1] = static_cast<char>(0x80 | (ch & 0x3F));
+			out += 2;
 		}
-		else if(ch <= 0x7ff)
+		else if (ch <= 0xFFFF)
+			out = encodeUTF8(ch, out);
+		else if (ch <= 0x10FFFF)
 		{
-			result += (char)((ch>>6)|0xc0);
-			result += (char)((ch&0x3f)|0x80);
+			ch -= 0x10000;
+			out = encodeUTF8(0xD800 + (ch >> 10), out);
+			out = encodeUTF8(0xDC00 + (ch & 0x3FF), out);
 		}
 		else
-		{
-			result += (char)((ch>>12)|0xe0);
-			result += (char)(((ch>>6)&0x3f)|0x80);
-			result += (char)((ch&0x3f)|0x80);
-		}
+			out = encodeUTF8(REPLACEMENT_CHARACTER, out);
 	}
 	return result;
 }
@@ -169,159 +345,67 @@ std::string toUTF8(const wstring& src)
 /**
  * Converts a modified UTF-8 std::string to a std::wstring.
  *
- * Adaptation of u_strFromJavaModifiedUTF8WithSub() found in ustrtrns.cpp in icu4c 4.9.1.1 package
- * found at http://site.icu-project.org/
+ * Each byte decodes to at most one character, so the output is allocated once and trimmed at the end.
+ * Runs of ASCII are tested eight bytes at a time. If wchar_t is 32 bits wide, surrogate pairs are
+ * combined into a single character. Each byte of a malformed sequence is replaced by U+FFFD.
  */
 wstring fromUTF8(const string& src)
 {
-	char ch;
-	size_t count;
-	char t1, t2; // trail bytes
-	std::wstring result;
-
-	// Faster loop without ongoing checking for pSrcLimit and pDestLimit.
-	string::const_iterator i = src.begin();
-	while (i != src.end())
+	wstring result(src.size(), L'\0');
+	if (src.empty())
+		return result;
+	const unsigned char* in = reinterpret_cast<const unsigned char*>(src.data());
+	const unsigned char* end = in + src.size();
+	wchar_t* const begin = &result[0];
+	wchar_t* out = begin;
+
+	while (in != end)
 	{
-		count = result.length();
-		if (*i <= 0x7f)
+		while (end - in >= 8)
 		{
-			// fast ASCII loop
-			while (i != src.end() && *i <= 0x7f)
-			{
-				result += (char) *i;
-				++i;
-				--count;
-			}
-		}
-		// Each iteration of the inner loop progresses by at most 3 UTF-8
-		// bytes and one char.
-		count /= 3;
-		if (i + count > src.end())
-		{
-			// min(remaining dest/3, remaining src)
-			count = src.end() - i;
+			boost::uint64_t word;
+			memcpy(&word, in, sizeof(word));
+			if ((word & 0x8080808080808080ULL) != 0)
+				break;
+			for (int i = 0; i < 8; ++i)
+				out[i] = in[i];
+			in += 8;
+			out += 8;
 		}
-		if (count < 3)
-		{
-			// Too much overhead if we get near the end of the string,
-			// continue with the next loop.
+		if (in == end)
 			break;
-		}
-		do
-		{
-			ch = *i;
-			if(ch <= 0x7f)
-			{
-				result += (char) ch;
-				++i;
-			}
-			else
-			{
-				if (ch >= 0xe0)
-				{
-					// handle U+0000..U+FFFF inline
-					t1 = (char) (*(i + 1) - 0x80);
-					t2 = (char) (*(i + 2) - 0x80);
-					if (ch <= 0xef && t1 <= 0x3f && t2 <= 0x3f)
-					{
-						// no need for (ch & 0xf) because the upper bits are truncated after <<12 in the cast
-						// to (char)
-						result += (char) ((ch << 12) | (t1 << 6) | t2);
-						i += 3;
-						continue;
-					}
-				}
-				else
-				{
-					// handle U+0000..U+07FF inline
-					t1 = (char) (*(i + 1) - 0x80);
-					if (ch >= 0xc0 && t1 <= 0x3f)
-					{
-						result += (char) (((ch & 0x1f) << 6) | t1);
-						i += 2;
-						continue;
-					}
-				}
-				throw string("Invalid char found: ") + ch;
-			}
-		}
-		while (--count > 0);
-	}
 
-	while (i != src.end())
-	{
-		ch = *i;
-		if (ch <= 0x7f)
+		if (*in <= 0x7F)
 		{
-			result += (char) ch;
-			++i;
+			*out++ = *in++;
+			continue;
 		}
-		else
+		unsigned long ch;
+		in += decodeUTF8(in, end, ch);
+		if (sizeof(wchar_t) == 2)
 		{
-			if (ch >= 0xe0)
+			if (ch > 0xFFFF)
 			{
-				// handle U+0000..U+FFFF inline
-				t1 = (char) (*(i + 1) - 0x80);
-				t2 = (char) (*(i + 2) - 0x80);
-				if (ch <= 0xef && ((src.end() - i) >= 3) &&
-					t1 <= 0x3f && t2 <= 0x3f)
-				{
-					// no need for (ch & 0xf) because the upper bits are truncated after <<12 in the cast to
-					// char
-					result += (char) ((ch << 12) | (t1 << 6) | t2);
-					i += 3;
-					continue;
-				}
+				// Four bytes of input produce two characters
+				ch -= 0x10000;
+				*out++ = static_cast<wchar_t>(0xD800 + (ch >> 10));
+				*out++ = static_cast<wchar_t>(0xDC00 + (ch & 0x3FF));
+				continue;
 			}
-			else
-			{
-				// handle U+0000..U+07FF inline
-				t1 = (char) (*(i + 1) - 0x80);
-				if (ch >= 0xc0 && ((src.end() - i) >= 2) &&
-					t1 <= 0x3f)
-				{
-					result += (char) (((ch & 0x1f) << 6) | t1);
-					i += 2;
-					continue;
-				}
-			}
-			throw string("Invalid char found: ") + ch;
 		}
-	}
-
-	// do not fill the dest buffer just count the char needed
-	while (i != src.end())
-	{
-		ch = *i;
-		if (ch <= 0x7f)
-			++i;
-		else
+		else if (ch >= 0xD800 && ch <= 0xDBFF && in != end)
 		{
-			if (ch >= 0xe0)
+			unsigned long low;
+			size_t consumed = decodeUTF8(in, end, low);
+			if (low >= 0xDC00 && low <= 0xDFFF)
 			{
-				// handle U+0000..U+FFFF inline
-				if (ch <= 0xef && ((src.end() - i) >= 3) &&
-					(char) (*(i + 1) - 0x80) <= 0x3f &&
-					(char) (*(i + 2) - 0x80) <= 0x3f)
-				{
-					i += 3;
-					continue;
-				}
+				ch = 0x10000 + ((ch - 0xD800) << 10) + (low - 0xDC00);
+				in += consumed;
 			}
-			else
-			{
-				// handle U+0000..U+07FF inline
-				if (ch >= 0xc0 && ((src.end() - i) >= 2) &&
-					(char) (*(i + 1) - 0x80) <= 0x3f)
-				{
-					i += 2;
-					continue;
-				}
-			}
-			throw string("Invalid char found: ") + ch;
 		}
+		*out++ = static_cast<wchar_t>(ch);
 	}
+	result.resize(out - begin);
 	return result;
 }
 
@@ -360,74 +444,92 @@ std::string asString(JNIEnv* env, jstring str)
 }
 
 /**
- * Implementation of catchAndThrow() using a specific JNIEnv.
+ * The methods used to translate Java exceptions. They belong to bootstrap classes, which are never
+ * unloaded, so they are resolved once and shared by all threads. classGetName is published last.
  */
-void catchAndThrow(JNIEnv* env)
+boost::atomic<jmethodID> classGetName(0);
+boost::atomic<jclass> systemClass(0);
+boost::atomic<jmethodID> systemIdentityHashCode(0);
+
+/**
+ * Resolves the methods used to translate Java exceptions.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param exceptionClass the class of an exception
+ * @throws JNIException if the methods cannot be found
+ */
+void resolveClassMethods(JNIEnv* env, jclass exceptionClass) throw (JNIException)
 {
-	if (!env->ExceptionCheck())
+	if (classGetName.load(boost::memory_order_acquire) != 0)
 		return;
-
-	jthrowable jexception = env->ExceptionOccurred();
-
-	// cout << "jace::catchAndThrow() - Discovered an exception: " << endl;
-	// print(jexception);
-
-	env->ExceptionClear();
-
-	// Find the fully qualified name for the exception type, so
-	// we can find a matching C++ proxy exception.
-	//
-	// In java, this looks like:
-	//   String typeName = exception.getClass().getName();
-
-	//  cout << "jace::catchAndThrow() - Retrieving the exception class type..." << endl;
-	jclass throwableClass = env->FindClass("java/lang/Throwable");
-	if (!throwableClass)
-	{
-		string msg = "Assert failed: Unable to find the class, java.lang.Throwable.";
-		throw JNIException(msg);
-	}
-
-	jclass classClass = env->FindClass("java/lang/Class");
-	if (!classClass)
+	jclass classClass = env->GetObjectClass(exceptionClass);
+	jmethodID getName = env->GetMethodID(classClass, "getName", "()Ljava/lang/String;");
+	deleteLocalRef(env, classClass);
+	if (!getName)
 	{
-		string msg = "Assert failed: Unable to find the class, java.lang.Class.";
+		string msg = "Assert failed: Unable to find the method, Class.getName().";
 		throw JNIException(msg);
 	}
 
-	jmethodID throwableGetClass = env->GetMethodID(throwableClass, "getClass", "()Ljava/lang/Class;");
-	if (!throwableGetClass)
+	jclass system = env->FindClass("java/lang/System");
+	jmethodID identityHashCode = 0;
+	if (system)
+		identityHashCode = env->GetStaticMethodID(system, "identityHashCode", "(Ljava/lang/Object;)I");
+	if (!identityHashCode)
 	{
-		string msg = "Assert failed: Unable to find the method, Throwable.getClass().";
+		if (system)
+			deleteLocalRef(env, system);
+		string msg = "Assert failed: Unable to find the method, System.identityHashCode().";
 		throw JNIException(msg);
 	}
-
-	deleteLocalRef(env, throwableClass);
-	jmethodID classGetName = env->GetMethodID(classClass, "getName", "()Ljava/lang/String;");
-	if (!classGetName)
+	jclass globalSystem;
+	try
 	{
-		string msg = "Assert failed: Unable to find the method, Class.getName().";
-		throw JNIException(msg);
+		globalSystem = static_cast<jclass>(newGlobalRef(env, system));
 	}
-
-	jmethodID classGetSuperclass = env->GetMethodID(classClass, "getSuperclass", "()Ljava/lang/Class;");
-	if (!classGetSuperclass)
+	catch (...)
 	{
-		string msg = "Assert failed: Unable to find the method, Class.getSuperclass().";
-		throw JNIException(msg);
+		deleteLocalRef(env, system);
+		throw;
 	}
+	deleteLocalRef(env, system);
+
+	// Another thread may have resolved the methods in the meantime
+	jclass expected = 0;
+	if (!systemClass.compare_exchange_strong(expected, globalSystem, boost::memory_order_relaxed))
+		deleteGlobalRef(env, globalSystem);
+	systemIdentityHashCode.store(identityHashCode, boost::memory_order_relaxed);
+	classGetName.store(getName, boost::memory_order_release);
+}
 
-	deleteLocalRef(env, classClass);
-	jobject exceptionClass = env->CallObjectMethod(jexception, throwableGetClass);
+/**
+ * Returns the identity hash code of a class, as returned by System.identityHashCode().
+ *
+ * PRECONDITION: resolveClassMethods() has been invoked.
+ */
+jint getIdentityHashCode(JNIEnv* env, jclass javaClass) throw (JNIException)
+{
+	jint result = env->CallStaticIntMethod(systemClass.load(boost::memory_order_relaxed),
+		systemIdentityHashCode.load(boost::memory_order_relaxed), javaClass);
 	if (env->ExceptionOccurred())
 	{
 		env->ExceptionDescribe();
 		string msg = string("jace::catchAndThrow()\n") +
-			"An error occurred while trying to call getClass() on the thrown exception.";
+			"An error occurred while trying to call System.identityHashCode() on the class of the thrown exception.";
 		throw JNIException(msg);
 	}
+	return result;
+}
 
-	jstring exceptionType = static_cast<jstring>(env->CallObjectMethod(exceptionClass, classGetName));
+/**
+ * Returns the name of a class, as returned by Class.getName().
+ *
+ * PRECONDITION: resolveClassMethods() has been invoked.
+ */
+string getClassName(JNIEnv* env, jclass javaClass) throw (JNIException)
+{
+	jstring name = static_cast<jstring>(env->CallObjectMethod(javaClass,
+		classGetName.load(boost::memory_order_acquire)));
 	if (env->ExceptionOccurred())
 	{
 		env->ExceptionDescribe();
@@ -435,87 +537,316 @@ void catchAndThrow(JNIEnv* env)
 			"An error occurred while trying to call getName() on the class of the thrown exception.";
 		throw JNIException(msg);
 	}
+	string result = asString(env, name);
+	deleteLocalRef(env, name);
+	return result;
+}
 
-	string exceptionTypeString = asString(env, exceptionType);
+/**
+ * Remembers which factory translates an exception class.
+ */
+struct FactoryMemoEntry
+{
+	FactoryMemoEntry(): exceptionClass(0), hashCode(0), factory(0), referenced(false)
+	{}
+
+	/**
+	 * A global reference to the exception class, or null if the entry is unused.
+	 */
+	jclass exceptionClass;
+	/**
+	 * The identity hash code of the exception class.
+	 */
+	jint hashCode;
+	/**
+	 * The factory, or null if the class has no matching factory.
+	 */
+	JFactory* factory;
+	/**
+	 * True if the entry was used since the clock hand last passed over it.
+	 */
+	boost::atomic<bool> referenced;
+};
 
-	// Now, find the matching factory for this exception type.
-	while (true)
-	{
-		FactoryMap::iterator it = getFactoryMap()->find(exceptionTypeString);
+/**
+ * The maximum number of exception classes whose factories are remembered.
+ */
+const size_t FACTORY_MEMO_CAPACITY = 64;
 
-		// If we couldn't find a match, try to find the parent exception type.
-		if (it == getFactoryMap()->end())
-		{
-			// cout << "Finding super class for " << endl;
-			// print(exceptionClass);
+/**
+ * The exception classes whose factories are known.
+ *
+ * Entries are indexed by the identity hash code of their class, which is stable for the lifetime of
+ * the class, so a lookup only compares classes using IsSameObject() when their hash codes collide.
+ * Once the memo is full, it evicts the least recently used entries using the CLOCK algorithm.
+ */
+struct FactoryMemo
+{
+	FactoryMemo(): hand(0)
+	{}
+
+	typedef boost::unordered_multimap<jint, size_t> Index;
+
+	FactoryMemoEntry entries[FACTORY_MEMO_CAPACITY];
+	/**
+	 * Maps the identity hash code of each remembered class to its entry.
+	 */
+	Index index;
+	/**
+	 * The next entry to consider for eviction.
+	 */
+	size_t hand;
+};
 
-			jobject superClass = env->CallObjectMethod(exceptionClass, classGetSuperclass);
+/**
+ * The memo and its mutex are constructed during static initialization, before any thread can look
+ * up a factory. enlist() may run earlier, from the static initializers of other translation units,
+ * but it only touches the memo once the virtual machine is running.
+ */
+FactoryMemo factoryMemo;
 
-			if (env->ExceptionOccurred())
-			{
-				env->ExceptionDescribe();
-				string msg = string("jace::catchAndThrow()\n") +
-					"An error occurred while trying to call getSuperclass() on the thrown exception.";
-				throw JNIException(msg);
-			}
+/**
+ * Incremented whenever the factory memo is cleared, so that lookups which race with enlist() do
+ * not remember a factory that may have been superseded. Guarded by factoryMemoMutex.
+ */
+size_t factoryMemoGeneration = 0;
 
-			// We get NULL if we've already reached java.lang.Object, in which case,
-			// we couldn't find any match at all.
-			if (!superClass)
-				break;
+/**
+ * Synchronizes access to the factory memo.
+ */
+boost::shared_mutex factoryMemoMutex;
 
-			deleteLocalRef(env, exceptionClass);
-			deleteLocalRef(env, exceptionType);
-			exceptionClass = superClass;
+/**
+ * Forgets which factories translate exception classes. Invoked when new factories are enlisted while
+ * the virtual machine is running.
+ */
+void clearFactoryMemo()
+{
+	boost::unique_lock<boost::shared_mutex> lock(factoryMemoMutex);
+	++factoryMemoGeneration;
+	FactoryMemo* memo = &factoryMemo;
+	if (memo->index.empty())
+		return;
+	JNIEnv* env = 0;
+	try
+	{
+		env = attach();
+	}
+	catch (std::exception&)
+	{
+		// The virtual machine shut down, the global references are already gone
+	}
+	for (size_t i = 0; i < FACTORY_MEMO_CAPACITY; ++i)
+	{
+		FactoryMemoEntry& entry = memo->entries[i];
+		if (entry.exceptionClass == 0)
+			continue;
+		if (env != 0)
+			deleteGlobalRef(env, entry.exceptionClass);
+		entry.exceptionClass = 0;
+		entry.factory = 0;
+		entry.referenced.store(false, boost::memory_order_relaxed);
+	}
+	memo->index.clear();
+	memo->hand = 0;
+}
 
-			exceptionType = static_cast<jstring>(env->CallObjectMethod(exceptionClass, classGetName));
+/**
+ * Looks up the factory of an exception class in the memo.
+ *
+ * PRECONDITION: The caller holds factoryMemoMutex.
+ *
+ * @param hashCode the identity hash code of the exception class
+ * @return true if the class was found
+ */
+bool findMemoizedFactory(JNIEnv* env, jclass exceptionClass, jint hashCode, JFactory*& factory)
+{
+	FactoryMemo* memo = &factoryMemo;
+	std::pair<FactoryMemo::Index::const_iterator, FactoryMemo::Index::const_iterator> range =
+		memo->index.equal_range(hashCode);
+	for (FactoryMemo::Index::const_iterator i = range.first; i != range.second; ++i)
+	{
+		FactoryMemoEntry& entry = memo->entries[i->second];
+		if (env->IsSameObject(entry.exceptionClass, exceptionClass))
+		{
+			entry.referenced.store(true, boost::memory_order_relaxed);
+			factory = entry.factory;
+			return true;
+		}
+	}
+	return false;
+}
+
+/**
+ * Remembers the factory of an exception class, evicting another class if the memo is full.
+ *
+ * PRECONDITION: The caller holds factoryMemoMutex exclusively.
+ *
+ * @param hashCode the identity hash code of the exception class
+ * @throws JNIException if the virtual machine runs out of memory
+ */
+void memoizeFactory(JNIEnv* env, jclass exceptionClass, jint hashCode, JFactory* factory)
+	throw (JNIException)
+{
+	FactoryMemo* memo = &factoryMemo;
+	jclass globalClass = static_cast<jclass>(newGlobalRef(env, exceptionClass));
 
-			if (env->ExceptionOccurred())
+	// Take the first unused entry. Once the memo is full, evict the first entry that was not used
+	// since the hand last passed over it.
+	bool full = memo->index.size() >= FACTORY_MEMO_CAPACITY;
+	while (true)
+	{
+		FactoryMemoEntry& entry = memo->entries[memo->hand];
+		if (entry.exceptionClass == 0)
+			break;
+		if (full && !entry.referenced.exchange(false, boost::memory_order_relaxed))
+		{
+			std::pair<FactoryMemo::Index::iterator, FactoryMemo::Index::iterator> range =
+				memo->index.equal_range(entry.hashCode);
+			for (FactoryMemo::Index::iterator i = range.first; i != range.second; ++i)
 			{
-				env->ExceptionDescribe();
-				throw JNIException("jace::catchAndThrow()\nAn error occurred while trying to call "
-					"getName() on the superclass of the thrown exception.");
+				if (i->second == memo->hand)
+				{
+					memo->index.erase(i);
+					break;
+				}
 			}
+			deleteGlobalRef(env, entry.exceptionClass);
+			entry.exceptionClass = 0;
+			break;
+		}
+		memo->hand = (memo->hand + 1) % FACTORY_MEMO_CAPACITY;
+	}
+	FactoryMemoEntry& entry = memo->entries[memo->hand];
+	entry.exceptionClass = globalClass;
+	entry.hashCode = hashCode;
+	entry.factory = factory;
+	entry.referenced.store(true, boost::memory_order_relaxed);
+	memo->index.insert(std::make_pair(hashCode, memo->hand));
+	memo->hand = (memo->hand + 1) % FACTORY_MEMO_CAPACITY;
+}
 
-			exceptionTypeString = asString(env, exceptionType);
-			if (exceptionTypeString == "java.lang.Object")
+/**
+ * Returns the factory that translates an exception class.
+ *
+ * @param env the JNIEnv of the current thread
+ * @param exceptionClass the exception class
+ * @return null if no factory matches the class or any of its superclasses
+ * @throws JNIException if an error occurs while inspecting the class
+ */
+JFactory* findFactory(JNIEnv* env, jclass exceptionClass) throw (JNIException)
+{
+	resolveClassMethods(env, exceptionClass);
+	jint hashCode = getIdentityHashCode(env, exceptionClass);
+	JFactory* factory = 0;
+	size_t generation;
+	{
+		boost::shared_lock<boost::shared_mutex> lock(factoryMemoMutex);
+		if (findMemoizedFactory(env, exceptionClass, hashCode, factory))
+			return factory;
+		generation = factoryMemoGeneration;
+	}
+
+	// Walk up the class hierarchy until we find a matching factory. GetSuperclass() returns null once
+	// we've passed java.lang.Object, in which case, we couldn't find any match at all.
+	FactoryMap* factories = getFactoryMap();
+	jclass currentClass = static_cast<jclass>(newLocalRef(env, exceptionClass));
+	try
+	{
+		while (currentClass)
+		{
+			FactoryMap::iterator it = factories->find(getClassName(env, currentClass));
+			if (it != factories->end())
 			{
-				// Couldn't find a matching exception. Abort!
+				factory = it->second;
 				break;
 			}
-			continue;
+			jclass superClass = env->GetSuperclass(currentClass);
+			deleteLocalRef(env, currentClass);
+			currentClass = superClass;
 		}
+	}
+	catch (...)
+	{
+		if (currentClass)
+			deleteLocalRef(env, currentClass);
+		throw;
+	}
+	if (currentClass)
+		deleteLocalRef(env, currentClass);
 
-		// Ask the factory to throw the exception.
-		// cout << "jace::catchAndThrow() - Throwing the exception " << endl;
-		// print(jexception);
+	boost::unique_lock<boost::shared_mutex> lock(factoryMemoMutex);
 
-		jvalue value;
-		value.l = jexception;
-		it->second->throwInstance(value);
-	}
+	// Factories that were enlisted during the lookup may be a closer match
+	if (generation != factoryMemoGeneration)
+		return factory;
 
-	exceptionClass = env->CallObjectMethod(jexception, throwableGetClass);
+	// Another thread may have remembered the class in the meantime
+	JFactory* memoized;
+	if (findMemoizedFactory(env, exceptionClass, hashCode, memoized))
+		return memoized;
+	memoizeFactory(env, exceptionClass, hashCode, factory);
+	return factory;
+}
 
-	if (env->ExceptionOccurred())
+/**
+ * Indicates if translated exceptions should retrieve their message from Java.
+ */
+boost::atomic<bool> exceptionMessagesEnabled(true);
+
+void setExceptionMessagesEnabled(bool enabled)
+{
+	exceptionMessagesEnabled.store(enabled, boost::memory_order_relaxed);
+}
+
+bool isExceptionMessagesEnabled()
+{
+	return exceptionMessagesEnabled.load(boost::memory_order_relaxed);
+}
+
+/**
+ * Implementation of catchAndThrow() using a specific JNIEnv.
+ */
+void catchAndThrow(JNIEnv* env)
+{
+	if (!env->ExceptionCheck())
+		return;
+
+	jthrowable jexception = env->ExceptionOccurred();
+
+	// cout << "jace::catchAndThrow() - Discovered an exception: " << endl;
+	// print(jexception);
+
+	env->ExceptionClear();
+
+	// Find the matching C++ proxy exception for the exception type or its closest superclass.
+	jclass exceptionClass = env->GetObjectClass(jexception);
+	JFactory* factory;
+	try
 	{
-		env->ExceptionDescribe();
-		string msg = string("jace::catchAndThrow()\n") +
-			"An error occurred while trying to call getClass() on the thrown exception.";
-		throw JNIException(msg);
+		factory = findFactory(env, exceptionClass);
+	}
+	catch (JNIException&)
+	{
+		deleteLocalRef(env, exceptionClass);
+		throw;
 	}
 
-	exceptionType = static_cast<jstring>(env->CallObjectMethod(exceptionClass, classGetName));
-
-	if (env->ExceptionOccurred())
+	if (factory != 0)
 	{
-		env->ExceptionDescribe();
-		string msg = string("jace::catchAndThrow()\n") +
-			"An error occurred while trying to call getName() on the class of the thrown exception.";
-		throw JNIException(msg);
+		deleteLocalRef(env, exceptionClass);
+
+		// Ask the factory to throw the exception.
+		// cout << "jace::catchAndThrow() - Throwing the exception " << endl;
+		// print(jexception);
+
+		jvalue value;
+		value.l = jexception;
+		factory->throwInstance(value);
 	}
 
-	exceptionTypeString = asString(env, exceptionType);
+	string exceptionTypeString = getClassName(env, exceptionClass);
+	deleteLocalRef(env, exceptionClass);
 	//    cout << "Unable to find an enlisted class factory matching the type <" + exceptionTypeString + ">" << endl;
 	//    cout << "Throwing Exception instead." << endl;
 	string msg = string("Can't find any linked in parent exception for ") + exceptionTypeString + "\n";
@@ -619,40 +950,41 @@ void registerShutdownHook(JNIEnv *env) throw (JNIException)
  * @param threadGroup the ThreadGroup associated with the thread, or null
  * @param name the thread name, or null
  * @param daemon true if the thread should be attached as a daemon thread
+ * @param attached if not null, set to true if the thread was attached by this method, or false if
+ * it was already attached
  * @throws JNIException if an error occurs while trying to attach the current thread.
  * @see AttachCurrentThread
  * @see AttachCurrentThreadAsDaemon
  */
-JNIEnv* attachImpl(JavaVM* jvm, const jobject threadGroup, const char* name, const bool daemon) throw (JNIException)
+JNIEnv* attachImpl(JavaVM* jvm, const jobject threadGroup, const char* name, const bool daemon,
+	bool* attached = 0) throw (JNIException)
 {
 	JNIEnv* env;
+	if (attached != 0)
+		*attached = false;
 	if (jvm->GetEnv((void**) &env, jniVersion) == JNI_OK)
 	{
 		// Already attached
 		return env;
 	}
 
-	JavaVMAttachArgs args = {0};
-	args.version = jniVersion;
+	// The default thread name is only computed once we know that the thread needs to be attached.
+	// AttachCurrentThread() copies the name, so it is safe to point into a temporary string.
+	string threadName;
 	if (name != 0)
-	{
-		args.name = new char[strlen(name)+1];
-		strcpy(args.name, name);
-	}
+		threadName = name;
 	else
-	{
-		string temp("NativeThread-");
-		temp += toString(getCurrentThreadId());
-		args.name = new char[temp.length() + 1];
-		strcpy(args.name, temp.c_str());
-	}
+		threadName = "NativeThread-" + getCurrentThreadId();
+
+	JavaVMAttachArgs args = {0};
+	args.version = jniVersion;
+	args.name = const_cast<char*>(threadName.c_str());
 	args.group = threadGroup;
 	jint result;
 	if (!daemon)
 		result = jvm->AttachCurrentThread(reinterpret_cast<void**>(&env), &args);
 	else
 		result = jvm->AttachCurrentThreadAsDaemon(reinterpret_cast<void**>(&env), &args);
-	delete[] args.name;
 
 	if (result != 0)
 	{
@@ -661,10 +993,41 @@ JNIEnv* attachImpl(JavaVM* jvm, const jobject threadGroup, const char* name, con
 			toString(result);
 		throw JNIException(msg);
 	}
+	if (attached != 0)
+		*attached = true;
 	return env;
 }
 
-void classLoaderDestructor(jobject* value)
+/**
+ * Detaches the current thread from the virtual machine and discards its cached JNIEnv.
+ *
+ * PRECONDITION: jvm is not null and jvmMutex is locked
+ *
+ * @param jvm the java virtual machine to detach the thread from
+ */
+void detachImpl(JavaVM* jvm) throw ()
+{
+	// release() bypasses threadEnvDestructor(), which would lock jvmMutex again
+	delete threadEnv.release();
+	jvm->DetachCurrentThread();
+}
+
+/**
+ * The ClassLoader of a thread.
+ */
+struct ThreadClassLoader
+{
+	/**
+	 * A global reference to the ClassLoader.
+	 */
+	jobject classLoader;
+	/**
+	 * The classes loaded by the ClassLoader.
+	 */
+	boost::shared_ptr<ClassLoaderCache> cache;
+};
+
+void classLoaderDestructor(ThreadClassLoader* value)
 {
 	// Invoked by setClassLoader() or when the thread exits
 	if (value == 0)
@@ -672,27 +1035,28 @@ void classLoaderDestructor(jobject* value)
 
 	// Read the thread state
 	boost::mutex::scoped_lock lock(jvmMutex);
-	if (jvm == 0)
+	JavaVM* currentJvm = jvm.load(boost::memory_order_relaxed);
+	if (currentJvm == 0)
 	{
 		// JVM is already shut down
+		delete value;
 		return;
 	}
 	JNIEnv* env;
-	bool isDetached = jvm->GetEnv((void**) &env, jniVersion) == JNI_EDETACHED;
+	bool isDetached = currentJvm->GetEnv((void**) &env, jniVersion) == JNI_EDETACHED;
 
 	if (isDetached)
-		env = attachImpl(jvm, 0, 0, false);
-	else
-		assert(false);
-	env->DeleteGlobalRef(*value);
-	delete[] value;
+		env = attachImpl(currentJvm, 0, 0, false);
+	if (value->classLoader != 0)
+		env->DeleteGlobalRef(value->classLoader);
+	delete value;
 
 	// Restore the thread state
 	if (isDetached)
-		detach();
+		detachImpl(currentJvm);
 }
 
-boost::thread_specific_ptr<jobject> threadClassLoader(classLoaderDestructor);
+boost::thread_specific_ptr<ThreadClassLoader> threadClassLoader(classLoaderDestructor);
 
 /**
  * Allows createVm() and setJavaVm() to share code without recursive mutexes.
@@ -704,8 +1068,10 @@ void setJavaVmImpl(JavaVM* _jvm) throw (JNIException)
 	assert(_jvm != 0);
 	JNIEnv* env = attachImpl(_jvm, 0, 0, false);
 	registerShutdownHook(env);
-	jvm = _jvm;
 	jniVersion = env->GetVersion();
+
+	// Publish jvm last so lock-free readers never observe it before jniVersion
+	jvm.store(_jvm, boost::memory_order_release);
 }
 
 void createVm(const VmLoader& loader,
@@ -745,9 +1111,12 @@ extern "C" JNIEXPORT void JNICALL Java_org_jace_util_ShutdownHook_signalVMShutdo
 	boost::mutex::scoped_lock lock(jvmMutex);
 
 	// Currently (JDK 1.7) JVM unloading is not supported. We do our best to ensure that the JVM
-	// is not used past this point.
-	jvm = 0;
+	// is not used past this point. Once jvm is reset, attach() rejects any JNIEnv cached by
+	// other threads.
+	jvm.store(0, boost::memory_order_release);
 	jniVersion = 0;
+	MemberRegistry::clear();
+	drainReleaseQueue(0);
 }
 
 
@@ -757,15 +1126,19 @@ void destroyVm() throw (JNIException)
 	JavaVM* jvmBeforeShutdown;
 	{
 		boost::mutex::scoped_lock lock(jvmMutex);
-		if (jvm == 0)
+		jvmBeforeShutdown = jvm.load(boost::memory_order_relaxed);
+		if (jvmBeforeShutdown == 0)
 		{
 			// JVM already shut down
 			return;
 		}
 		jniVersionBeforeShutdown = jniVersion;
-		jvmBeforeShutdown = jvm;
 	}
 
+	// Executor threads must finish their queued tasks while the virtual machine can still run them.
+	// Non-daemon threads would also prevent DestroyJavaVM() from returning.
+	JavaExecutor::shutdownAll();
+
 	// DestroyJavaVM()'s return value is only reliable under JDK 1.6 or newer; older versions always
 	// return failure.
 	//
@@ -808,24 +1181,90 @@ JNIEnv* attach() throw (JNIException, VirtualMachineShutdownError)
  */
 JNIEnv* attach(const jobject threadGroup, const char* name, const bool daemon) throw (JNIException, VirtualMachineShutdownError)
 {
+	JavaVM* currentJvm = jvm.load(boost::memory_order_acquire);
+	if (currentJvm == 0)
+		throw VirtualMachineShutdownError("The virtual machine is shut down");
+
+	// Fast path: the thread is already attached to the current virtual machine
+	ThreadEnv* cached = threadEnv.get();
+#ifdef JACE_CHECK_CRITICAL
+	if (cached != 0 && cached->criticalRegions > 0)
+	{
+		throw JNIException(string("Jace::attach\n") +
+			"JNI functions may not be invoked while the current thread holds a critical region");
+	}
+#endif
+	if (cached != 0 && cached->jvm == currentJvm)
+	{
+		if (releaseQueue.load(boost::memory_order_relaxed) != 0)
+			drainReleaseQueue(cached->env);
+		return cached->env;
+	}
+
 	boost::mutex::scoped_lock lock(jvmMutex);
-	if (jvm == 0)
+	currentJvm = jvm.load(boost::memory_order_relaxed);
+	if (currentJvm == 0)
 		throw VirtualMachineShutdownError("The virtual machine is shut down");
-	return attachImpl(jvm, threadGroup, name, daemon);
+	bool attached;
+	JNIEnv* env = attachImpl(currentJvm, threadGroup, name, daemon, &attached);
+	if (cached == 0)
+	{
+		cached = new ThreadEnv();
+		cached->criticalRegions = 0;
+		try
+		{
+			threadEnv.reset(cached);
+		}
+		catch (boost::thread_resource_error& e)
+		{
+			delete cached;
+			throw JNIException(e.what());
+		}
+	}
+	cached->jvm = currentJvm;
+	cached->env = env;
+	cached->attachedByJace = attached;
+	if (releaseQueue.load(boost::memory_order_relaxed) != 0)
+		drainReleaseQueue(env);
+	return env;
 }
 
 /**
- * Detaches the current thread from the virtual machine.
+ * Detaches the current thread from the virtual machine, if it was attached by Jace.
  */
 void detach() throw ()
 {
 	boost::mutex::scoped_lock lock(jvmMutex);
-	if (jvm == 0)
+	JavaVM* currentJvm = jvm.load(boost::memory_order_relaxed);
+	ThreadEnv* cached = threadEnv.get();
+	if (currentJvm == 0 || cached == 0 || cached->jvm != currentJvm)
 	{
-		// The JVM is already shut down
+		// The JVM is already shut down, or the thread was not attached by attach()
+		delete threadEnv.release();
 		return;
 	}
-	jvm->DetachCurrentThread();
+	if (!cached->attachedByJace)
+	{
+		// The thread belongs to someone else, such as a Java thread invoking a native method
+		return;
+	}
+	detachImpl(currentJvm);
+}
+
+
+void enterCriticalRegion() throw ()
+{
+	ThreadEnv* cached = threadEnv.get();
+	if (cached != 0)
+		++cached->criticalRegions;
+}
+
+
+void exitCriticalRegion() throw ()
+{
+	ThreadEnv* cached = threadEnv.get();
+	if (cached != 0 && cached->criticalRegions > 0)
+		--cached->criticalRegions;
 }
 
 
@@ -848,6 +1287,11 @@ void enlist(JFactory* factory)
 	string name = factory->getClass().getInternalName();
 	replace(name.begin(), name.end(), '/', '.');
 	getFactoryMap()->insert(FactoryMap::value_type(name, factory));
+
+	// The new factory may be a closer match for exceptions that were already translated. Exceptions
+	// are only translated while the virtual machine is running.
+	if (isRunning())
+		clearFactoryMemo();
 	//  cout << "jace::enlist - Enlisted " << name << endl;
 }
 
@@ -887,6 +1331,63 @@ void deleteGlobalRef(JNIEnv* env, jobject globalRef)
 	env->DeleteGlobalRef(globalRef);
 }
 
+/**
+ * Releases a global or weak global reference.
+ */
+void releaseRef(jobject ref, bool weak) throw (JNIException, VirtualMachineShutdownError)
+{
+	JavaVM* currentJvm = jvm.load(boost::memory_order_acquire);
+	if (currentJvm == 0)
+		throw VirtualMachineShutdownError("The virtual machine is shut down");
+
+	ThreadEnv* cached = threadEnv.get();
+	JNIEnv* env;
+	bool attached = (cached != 0 && cached->jvm == currentJvm) ||
+		currentJvm->GetEnv((void**) &env, jniVersion) == JNI_OK;
+	if (!attached && deferredReleaseEnabled.load(boost::memory_order_relaxed))
+	{
+		ReleasedRef* node = new (std::nothrow) ReleasedRef();
+		if (node != 0)
+		{
+			node->ref = ref;
+			node->weak = weak;
+			node->next = releaseQueue.load(boost::memory_order_relaxed);
+			while (!releaseQueue.compare_exchange_weak(node->next, node, boost::memory_order_release,
+				boost::memory_order_relaxed))
+			{
+			}
+			return;
+		}
+		// Out of memory, fall back to deleting the reference immediately
+	}
+
+	env = attach();
+	if (weak)
+		env->DeleteWeakGlobalRef(ref);
+	else
+		env->DeleteGlobalRef(ref);
+}
+
+void releaseGlobalRef(jobject globalRef) throw (JNIException, VirtualMachineShutdownError)
+{
+	releaseRef(globalRef, false);
+}
+
+void releaseWeakGlobalRef(jweak weakRef) throw (JNIException, VirtualMachineShutdownError)
+{
+	releaseRef(weakRef, true);
+}
+
+void setDeferredReleaseEnabled(bool enabled)
+{
+	deferredReleaseEnabled.store(enabled, boost::memory_order_relaxed);
+}
+
+bool isDeferredReleaseEnabled()
+{
+	return deferredReleaseEnabled.load(boost::memory_order_relaxed);
+}
+
 /**
  * Checks for a java exception.
  *
@@ -906,12 +1407,14 @@ void catchAndThrow()
 {
 	JNIEnv* env = attach();
 
+	// Read the field instead of invoking jaceGetNativeHandle() to avoid an upcall into Java
 	jclass peerClass = env->GetObjectClass(jPeer);
-	jmethodID handleID = env->GetMethodID(peerClass, "jaceGetNativeHandle", "()J");
+	jfieldID handleField = env->GetFieldID(peerClass, "jaceNativeHandle", "J");
+	deleteLocalRef(env, peerClass);
 
-	if (!handleID)
+	if (!handleField)
 	{
-		string msg = "Unable to locate the method, \"jaceGetNativeHandle\".\n" \
+		string msg = "Unable to locate the field, \"jaceNativeHandle\".\n" \
 			"The class has not been properly enhanced.";
 		try
 		{
@@ -924,16 +1427,17 @@ void catchAndThrow()
 		}
 		throw JNIException(msg);
 	}
+	return getPeer(env, jPeer, handleField);
+}
 
-	jlong nativeHandle = env->CallLongMethod(jPeer, handleID);
-	catchAndThrow();
-
-	return reinterpret_cast< ::jace::Peer* >(nativeHandle);
+::jace::Peer* getPeer(JNIEnv* env, jobject jPeer, jfieldID handleField)
+{
+	return reinterpret_cast< ::jace::Peer* >(env->GetLongField(jPeer, handleField));
 }
 
 JavaVM* getJavaVm()
 {
-	return jvm;
+	return jvm.load(boost::memory_order_acquire);
 }
 
 void setJavaVm(JavaVM* _jvm) throw (VirtualMachineRunningError, JNIException)
@@ -941,7 +1445,7 @@ void setJavaVm(JavaVM* _jvm) throw (VirtualMachineRunningError, JNIException)
 	if (_jvm == 0)
 		throw new JNIException("jvm may not be null");
 	boost::mutex::scoped_lock lock(jvmMutex);
-	if (jvm != 0)
+	if (jvm.load(boost::memory_order_relaxed) != 0)
 		throw VirtualMachineRunningError("The virtual machine is already running");
 	setJavaVmImpl(_jvm);
 }
@@ -951,54 +1455,63 @@ void setJavaVm(JavaVM* _jvm) throw (VirtualMachineRunningError, JNIException)
  */
 jobject getClassLoader()
 {
-	jobject* value = threadClassLoader.get();
+	ThreadClassLoader* value = threadClassLoader.get();
+	if (value == 0)
+		return 0;
+	return value->classLoader;
+}
+
+ClassLoaderCache* getClassLoaderCache()
+{
+	ThreadClassLoader* value = threadClassLoader.get();
 	if (value == 0)
 		return 0;
-	return value[0];
+	return value->cache.get();
+}
+
+unsigned int getClassLoaderCacheId()
+{
+	ThreadClassLoader* value = threadClassLoader.get();
+	if (value == 0 || !value->cache)
+		return 0;
+	return value->cache->getId();
 }
 
 void setClassLoader(jobject classLoader)
 {
 	JNIEnv* env = attach();
 
-	// boost::thread_specific_ptr can only store a pointer to jobject, but someone needs to keep
-	// the underlying jobject alive so we use a dynamically-allocated array.
-	jobject* ptr = new jobject[1];
-	if (classLoader != 0)
-		ptr[0] = newGlobalRef(env, classLoader);
-	else
-		ptr[0] = 0;
+	ThreadClassLoader* value = new ThreadClassLoader();
+	value->classLoader = 0;
 	try
 	{
-		threadClassLoader.reset(ptr);
+		if (classLoader != 0)
+		{
+			value->cache = ClassLoaderCache::get(env, classLoader);
+			value->classLoader = newGlobalRef(env, classLoader);
+		}
+		threadClassLoader.reset(value);
 	}
 	catch (boost::thread_resource_error& e)
 	{
+		if (value->classLoader != 0)
+			deleteGlobalRef(env, value->classLoader);
+		delete value;
 		throw JNIException(e.what());
 	}
+	catch (...)
+	{
+		delete value;
+		throw;
+	}
 }
 
 string toString(jobject obj)
 {
 	JNIEnv* env = attach();
-	jclass objectClass = env->FindClass("java/lang/Object");
-
-	if (!objectClass)
-	{
-		string msg = "Assert failed: Unable to find the class, java.lang.Object.";
-		try
-		{
-			catchAndThrow();
-		}
-		catch (JNIException& e)
-		{
-			msg.append("\ncaused by:\n");
-			msg.append(e.what());
-		}
-		throw JNIException(msg);
-	}
-
-	jmethodID toString = env->GetMethodID(objectClass, "toString", "()Ljava/lang/String;");
+	jclass objectClass = JObject::staticGetJavaJniClass().getClass();
+	jmethodID toString = MemberRegistry::getMethodID(env, objectClass, "toString", "()Ljava/lang/String;",
+		false);
 	if (!toString)
 	{
 		string msg = "Assert failed: Unable to find the method, Object.toString().";
@@ -1021,7 +1534,6 @@ string toString(jobject obj)
 	env->ReleaseStringUTFChars(javaStr, strBuf);
 
 	deleteLocalRef(env, javaStr);
-	deleteLocalRef(env, objectClass);
 
 	return value;
 }
@@ -1041,8 +1553,7 @@ void printClass(jobject obj)
 
 bool isRunning()
 {
-	boost::mutex::scoped_lock lock(jvmMutex);
-	return jvm != 0;
+	return jvm.load(boost::memory_order_acquire) != 0;
 }
 
 string getCurrentThreadId()
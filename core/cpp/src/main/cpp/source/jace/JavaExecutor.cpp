@@ -0,0 +1,262 @@
+#include "jace/JavaExecutor.h"
+
+#include "jace/Jace.h"
+#include "jace/LocalFrame.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/bind.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <iostream>
+#include <set>
+
+using std::string;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	// Executors may be constructed on several threads at once, so the registry is built during static
+	// initialization rather than on first use
+
+	/**
+	 * The executors that have not been shut down yet.
+	 */
+	std::set<JavaExecutor*> liveExecutors;
+
+	/**
+	 * Guards liveExecutors and JavaExecutor::stoppingAll.
+	 */
+	boost::mutex executorsMutex;
+
+	/**
+	 * Notified when shutdownAll() finishes stopping an executor.
+	 */
+	boost::condition_variable executorStopped;
+} // namespace
+
+
+JavaExecutor::JavaExecutor(size_t threads, size_t _queueCapacity, const string& _name,
+	bool _daemon, jobject _threadGroup):
+	queueCapacity(_queueCapacity), name(_name), daemon(_daemon), threadGroup(0),
+	attachedThreads(0), stopping(false), stopped(false), stoppingAll(false), peakQueueDepth(0),
+	activeTasks(0), submitted(0), completed(0), rejected(0)
+{
+	if (threads == 0)
+		throw JNIException("JavaExecutor::JavaExecutor() - threads must be positive");
+	if (queueCapacity == 0)
+		throw JNIException("JavaExecutor::JavaExecutor() - queueCapacity must be positive");
+	if (_threadGroup != 0)
+		threadGroup = newGlobalRef(attach(), _threadGroup);
+
+	string error;
+	for (size_t i = 0; i < threads; ++i)
+	{
+		try
+		{
+			workers.push_back(boost::shared_ptr<boost::thread>(new boost::thread(
+				boost::bind(&JavaExecutor::run, this, i))));
+		}
+		catch (std::exception& e)
+		{
+			error = "Unable to start a thread: " + string(e.what());
+			break;
+		}
+	}
+
+	// Wait for the threads to attach, so that tasks never fail for lack of a JNIEnv
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		while (attachedThreads + attachErrors.size() < workers.size())
+			started.wait(lock);
+		if (error.empty() && !attachErrors.empty())
+			error = attachErrors.front();
+	}
+	if (!error.empty())
+	{
+		stop();
+		throw JNIException("JavaExecutor::JavaExecutor() - " + error);
+	}
+
+	boost::mutex::scoped_lock lock(executorsMutex);
+	liveExecutors.insert(this);
+}
+
+
+JavaExecutor::~JavaExecutor() throw ()
+{
+	shutdown();
+}
+
+
+bool JavaExecutor::enqueue(const boost::function<void ()>& task, bool block)
+{
+	boost::mutex::scoped_lock lock(mutex);
+	while (!stopping && queue.size() >= queueCapacity)
+	{
+		if (!block)
+		{
+			++rejected;
+			return false;
+		}
+		notFull.wait(lock);
+	}
+	if (stopping)
+		throw JNIException("JavaExecutor::submit() - The executor is shut down");
+	queue.push_back(task);
+	++submitted;
+	if (queue.size() > peakQueueDepth)
+		peakQueueDepth = queue.size();
+	notEmpty.notify_one();
+	return true;
+}
+
+
+void JavaExecutor::run(size_t index)
+{
+	try
+	{
+		string threadName = name + "-" + toString(index);
+		attach(threadGroup, threadName.c_str(), daemon);
+	}
+	catch (std::exception& e)
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		attachErrors.push_back("Unable to attach a thread: " + string(e.what()));
+		started.notify_all();
+		return;
+	}
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		++attachedThreads;
+		started.notify_all();
+	}
+
+	while (true)
+	{
+		boost::function<void ()> task;
+		{
+			boost::mutex::scoped_lock lock(mutex);
+			while (queue.empty() && !stopping)
+				notEmpty.wait(lock);
+			if (queue.empty())
+				break;
+			task = queue.front();
+			queue.pop_front();
+			++activeTasks;
+			notFull.notify_one();
+		}
+		try
+		{
+			// Attached threads never return to Java, so local references must be released explicitly
+			LocalFrame frame(16, false);
+			task();
+		}
+		catch (std::exception& e)
+		{
+			// Exceptions thrown by the task itself are stored in its future
+			std::cerr << "JavaExecutor - Unable to run a task: " << e.what() << std::endl;
+		}
+		boost::mutex::scoped_lock lock(mutex);
+		--activeTasks;
+		++completed;
+	}
+	detach();
+}
+
+
+void JavaExecutor::shutdown() throw ()
+{
+	{
+		boost::mutex::scoped_lock lock(executorsMutex);
+		liveExecutors.erase(this);
+
+		// Prevent the executor from being destroyed while shutdownAll() is stopping it
+		while (stoppingAll)
+			executorStopped.wait(lock);
+	}
+	stop();
+}
+
+
+void JavaExecutor::stop() throw ()
+{
+	boost::mutex::scoped_lock stopLock(stopMutex);
+	if (stopped)
+		return;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		stopping = true;
+		notEmpty.notify_all();
+		notFull.notify_all();
+	}
+
+	// The threads drain the queue before they exit
+	for (std::vector<boost::shared_ptr<boost::thread> >::const_iterator i = workers.begin();
+		i != workers.end(); ++i)
+	{
+		(*i)->join();
+	}
+	if (threadGroup != 0 && isRunning())
+	{
+		try
+		{
+			releaseGlobalRef(threadGroup);
+		}
+		catch (std::exception&)
+		{
+			// The virtual machine is shutting down
+		}
+	}
+	threadGroup = 0;
+	stopped = true;
+}
+
+
+size_t JavaExecutor::getThreadCount() const
+{
+	return workers.size();
+}
+
+
+size_t JavaExecutor::getQueueCapacity() const
+{
+	return queueCapacity;
+}
+
+
+JavaExecutor::Statistics JavaExecutor::getStatistics() const
+{
+	boost::mutex::scoped_lock lock(mutex);
+	Statistics result;
+	result.queueDepth = queue.size();
+	result.peakQueueDepth = peakQueueDepth;
+	result.activeTasks = activeTasks;
+	result.submitted = submitted;
+	result.completed = completed;
+	result.rejected = rejected;
+	return result;
+}
+
+
+void JavaExecutor::shutdownAll() throw ()
+{
+	// Stopping an executor joins its threads, whose tasks may construct or shut down other executors.
+	// The executors are unregistered under the lock, and stopped after it is released.
+	std::set<JavaExecutor*> executors;
+	{
+		boost::mutex::scoped_lock lock(executorsMutex);
+		executors.swap(liveExecutors);
+		for (std::set<JavaExecutor*>::const_iterator i = executors.begin(); i != executors.end(); ++i)
+			(*i)->stoppingAll = true;
+	}
+	for (std::set<JavaExecutor*>::const_iterator i = executors.begin(); i != executors.end(); ++i)
+	{
+		(*i)->stop();
+		boost::mutex::scoped_lock lock(executorsMutex);
+		(*i)->stoppingAll = false;
+		executorStopped.notify_all();
+	}
+}
+
+END_NAMESPACE(jace)
@@ -0,0 +1,117 @@
+#include "jace/LocalFrame.h"
+
+#include "jace/Jace.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include <boost/thread/tss.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <algorithm>
+
+#include <string>
+using std::string;
+
+#include <vector>
+using std::vector;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	/**
+	 * An active frame.
+	 */
+	struct Frame
+	{
+		boost::uint64_t id;
+		bool borrow;
+
+		bool operator<(const Frame& other) const
+		{
+			return id < other.id;
+		}
+	};
+
+	/**
+	 * The active frames of a thread, ordered from the outermost to the innermost. Frame identifiers
+	 * are allocated in increasing order, so the list is sorted by id.
+	 */
+	typedef vector<Frame> FrameList;
+
+	boost::atomic<boost::uint64_t> nextId(1);
+
+	boost::thread_specific_ptr<FrameList>& getFrames()
+	{
+		static boost::thread_specific_ptr<FrameList> result;
+		return result;
+	}
+} // namespace
+
+
+LocalFrame::LocalFrame(jint capacity, bool borrow):
+	env(attach()), id(0)
+{
+	if (env->PushLocalFrame(capacity) != 0)
+	{
+		catchAndThrow();
+		throw JNIException(string("LocalFrame::LocalFrame()\n") +
+			"Unable to allocate a local reference frame. The virtual machine's memory could be exhausted.");
+	}
+
+	boost::thread_specific_ptr<FrameList>& frames = getFrames();
+	if (frames.get() == 0)
+		frames.reset(new FrameList());
+	Frame frame;
+	frame.id = nextId.fetch_add(1, boost::memory_order_relaxed);
+	frame.borrow = borrow;
+	frames->push_back(frame);
+	id = frame.id;
+}
+
+
+LocalFrame::~LocalFrame() throw ()
+{
+	pop();
+}
+
+
+jobject LocalFrame::pop(jobject result)
+{
+	if (id == 0)
+		return 0;
+
+	FrameList* frames = getFrames().get();
+	Frame key;
+	key.id = id;
+	FrameList::iterator i = std::lower_bound(frames->begin(), frames->end(), key);
+	if (i != frames->end() && i->id == id)
+		frames->erase(i);
+	id = 0;
+	return env->PopLocalFrame(result);
+}
+
+
+boost::uint64_t LocalFrame::getBorrowingFrame()
+{
+	FrameList* frames = getFrames().get();
+	if (frames == 0 || frames->empty())
+		return 0;
+	const Frame& innermost = frames->back();
+	if (!innermost.borrow)
+		return 0;
+	return innermost.id;
+}
+
+
+bool LocalFrame::isActive(boost::uint64_t frame)
+{
+	FrameList* frames = getFrames().get();
+	if (frames == 0)
+		return false;
+	Frame key;
+	key.id = frame;
+	return std::binary_search(frames->begin(), frames->end(), key);
+}
+
+END_NAMESPACE(jace)
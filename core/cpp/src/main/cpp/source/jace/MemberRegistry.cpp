@@ -0,0 +1,222 @@
+#include "jace/MemberRegistry.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
+#include <boost/functional/hash.hpp>
+#include <boost/thread/locks.hpp>
+#include <boost/thread/shared_mutex.hpp>
+#include <boost/unordered_map.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <algorithm>
+
+using std::string;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	/**
+	 * Identifies a class member.
+	 */
+	struct MemberKey
+	{
+		jclass jClass;
+		string name;
+		string signature;
+		bool isStatic;
+
+		MemberKey(jclass _jClass, const string& _name, const string& _signature, bool _isStatic):
+			jClass(_jClass), name(_name), signature(_signature), isStatic(_isStatic)
+		{}
+
+		bool operator==(const MemberKey& other) const
+		{
+			return jClass == other.jClass && isStatic == other.isStatic && name == other.name &&
+				signature == other.signature;
+		}
+	};
+
+	size_t hash_value(const MemberKey& key)
+	{
+		size_t result = 0;
+		boost::hash_combine(result, key.jClass);
+		boost::hash_combine(result, key.name);
+		boost::hash_combine(result, key.signature);
+		boost::hash_combine(result, key.isStatic);
+		return result;
+	}
+
+	/**
+	 * A portion of the cache, guarded by its own lock.
+	 */
+	template <class ID> class Shard
+	{
+	public:
+		Shard(): hits(0), misses(0)
+		{}
+
+		/**
+		 * Looks up a member.
+		 *
+		 * @return true if the member was found
+		 */
+		bool find(const MemberKey& key, ID& result)
+		{
+			{
+				boost::shared_lock<boost::shared_mutex> lock(mutex);
+				typename Map::const_iterator i = members.find(key);
+				if (i != members.end())
+				{
+					result = i->second;
+					hits.fetch_add(1, boost::memory_order_relaxed);
+					return true;
+				}
+			}
+			misses.fetch_add(1, boost::memory_order_relaxed);
+			return false;
+		}
+
+		/**
+		 * Adds a member.
+		 */
+		void insert(const MemberKey& key, ID value)
+		{
+			boost::unique_lock<boost::shared_mutex> lock(mutex);
+			members[key] = value;
+		}
+
+		void clear()
+		{
+			boost::unique_lock<boost::shared_mutex> lock(mutex);
+			members.clear();
+		}
+
+		/**
+		 * Removes the members of the specified classes.
+		 *
+		 * @param classes a sorted list of classes
+		 */
+		void remove(const std::vector<jclass>& classes)
+		{
+			boost::unique_lock<boost::shared_mutex> lock(mutex);
+			typename Map::iterator i = members.begin();
+			while (i != members.end())
+			{
+				if (std::binary_search(classes.begin(), classes.end(), i->first.jClass))
+					i = members.erase(i);
+				else
+					++i;
+			}
+		}
+
+		void addTo(MemberRegistry::Statistics& statistics)
+		{
+			statistics.hits += hits.load(boost::memory_order_relaxed);
+			statistics.misses += misses.load(boost::memory_order_relaxed);
+			boost::shared_lock<boost::shared_mutex> lock(mutex);
+			statistics.size += members.size();
+		}
+	private:
+		typedef boost::unordered_map<MemberKey, ID> Map;
+		boost::shared_mutex mutex;
+		Map members;
+		boost::atomic<boost::uint64_t> hits;
+		boost::atomic<boost::uint64_t> misses;
+	};
+
+	const size_t SHARD_COUNT = 16;
+
+	/**
+	 * Incremented whenever all cached members are discarded.
+	 */
+	boost::atomic<unsigned int> generation(0);
+
+	/**
+	 * The shards are constructed during static initialization because function-local statics are not
+	 * thread-safe before C++11, and the first lookup may happen on several threads at once.
+	 */
+	Shard<jmethodID> methodShards[SHARD_COUNT];
+	Shard<jfieldID> fieldShards[SHARD_COUNT];
+} // namespace
+
+
+jmethodID MemberRegistry::getMethodID(JNIEnv* env, jclass jClass, const string& name,
+	const string& signature, bool isStatic)
+{
+	MemberKey key(jClass, name, signature, isStatic);
+	Shard<jmethodID>& shard = methodShards[hash_value(key) % SHARD_COUNT];
+	jmethodID result;
+	if (shard.find(key, result))
+		return result;
+
+	if (isStatic)
+		result = env->GetStaticMethodID(jClass, name.c_str(), signature.c_str());
+	else
+		result = env->GetMethodID(jClass, name.c_str(), signature.c_str());
+	if (result != 0)
+		shard.insert(key, result);
+	return result;
+}
+
+
+jfieldID MemberRegistry::getFieldID(JNIEnv* env, jclass jClass, const string& name,
+	const string& signature, bool isStatic)
+{
+	MemberKey key(jClass, name, signature, isStatic);
+	Shard<jfieldID>& shard = fieldShards[hash_value(key) % SHARD_COUNT];
+	jfieldID result;
+	if (shard.find(key, result))
+		return result;
+
+	if (isStatic)
+		result = env->GetStaticFieldID(jClass, name.c_str(), signature.c_str());
+	else
+		result = env->GetFieldID(jClass, name.c_str(), signature.c_str());
+	if (result != 0)
+		shard.insert(key, result);
+	return result;
+}
+
+
+MemberRegistry::Statistics MemberRegistry::getStatistics()
+{
+	Statistics result = {0, 0, 0};
+	for (size_t i = 0; i < SHARD_COUNT; ++i)
+	{
+		methodShards[i].addTo(result);
+		fieldShards[i].addTo(result);
+	}
+	return result;
+}
+
+
+unsigned int MemberRegistry::getGeneration()
+{
+	return generation.load(boost::memory_order_acquire);
+}
+
+
+void MemberRegistry::clear()
+{
+	generation.fetch_add(1, boost::memory_order_acq_rel);
+	for (size_t i = 0; i < SHARD_COUNT; ++i)
+	{
+		methodShards[i].clear();
+		fieldShards[i].clear();
+	}
+}
+
+
+void MemberRegistry::removeClasses(const std::vector<jclass>& classes)
+{
+	if (classes.empty())
+		return;
+	for (size_t i = 0; i < SHARD_COUNT; ++i)
+	{
+		methodShards[i].remove(classes);
+		fieldShards[i].remove(classes);
+	}
+}
+
+END_NAMESPACE(jace)
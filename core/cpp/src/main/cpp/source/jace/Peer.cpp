@@ -49,8 +49,7 @@ Peer& Peer::operator=(const Peer& other)
 
 Peer::~Peer()
 {
-  JNIEnv* env = attach();
-  env->DeleteWeakGlobalRef(weakRef);
+  releaseWeakGlobalRef(weakRef);
 }
 
 void Peer::initialize()
@@ -0,0 +1,182 @@
+#include "jace/StringCache.h"
+
+#include "jace/Jace.h"
+#include "jace/ClassLoaderCache.h"
+#include "jace/MemberRegistry.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/thread/locks.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <limits>
+
+using std::string;
+
+using ::jace::proxy::JObject;
+
+BEGIN_NAMESPACE(jace)
+
+
+StringCache::StringCache(size_t _capacity) throw (JNIException):
+	capacity(_capacity), hand(0), hits(0), misses(0), evictions(0)
+{
+	if (capacity == 0)
+		throw JNIException("StringCache::StringCache() - capacity must be positive");
+	slots.reset(new Slot[capacity]);
+}
+
+
+StringCache::~StringCache() throw ()
+{
+	// Each slot releases its reference once the Strings that share it are destroyed
+}
+
+
+JObject StringCache::get(const string& str) throw (JNIException)
+{
+	{
+		boost::shared_lock<boost::shared_mutex> lock(mutex);
+		Index::const_iterator i = index.find(str);
+		if (i != index.end())
+		{
+			Slot& slot = slots[i->second];
+			slot.referenced.store(true, boost::memory_order_relaxed);
+			hits.fetch_add(1, boost::memory_order_relaxed);
+			return slot.value;
+		}
+	}
+	misses.fetch_add(1, boost::memory_order_relaxed);
+
+	// Create the String without holding the lock
+	JObject created = createString(str);
+
+	boost::unique_lock<boost::shared_mutex> lock(mutex);
+	Index::const_iterator i = index.find(str);
+	if (i != index.end())
+	{
+		// Another thread cached the String first
+		Slot& slot = slots[i->second];
+		slot.referenced.store(true, boost::memory_order_relaxed);
+		return slot.value;
+	}
+
+	// Take the first unused slot. Once the cache is full, evict the first slot that was not used
+	// since the hand last passed over it.
+	bool full = index.size() >= capacity;
+	while (true)
+	{
+		Slot& slot = slots[hand];
+		if (slot.value.isNull())
+			break;
+		if (full && !slot.referenced.exchange(false, boost::memory_order_relaxed))
+		{
+			index.erase(slot.key);
+			slot.value = JObject();
+			evictions.fetch_add(1, boost::memory_order_relaxed);
+			break;
+		}
+		hand = (hand + 1) % capacity;
+	}
+	Slot& slot = slots[hand];
+	slot.key = str;
+	slot.value = created;
+	slot.referenced.store(true, boost::memory_order_relaxed);
+	index[str] = hand;
+	hand = (hand + 1) % capacity;
+	return created;
+}
+
+
+size_t StringCache::getCapacity() const
+{
+	return capacity;
+}
+
+
+StringCache::Statistics StringCache::getStatistics() const
+{
+	Statistics result;
+	result.hits = hits.load(boost::memory_order_relaxed);
+	result.misses = misses.load(boost::memory_order_relaxed);
+	result.evictions = evictions.load(boost::memory_order_relaxed);
+	boost::shared_lock<boost::shared_mutex> lock(mutex);
+	result.size = index.size();
+	return result;
+}
+
+
+void StringCache::clear()
+{
+	boost::unique_lock<boost::shared_mutex> lock(mutex);
+	for (size_t i = 0; i < capacity; ++i)
+	{
+		Slot& slot = slots[i];
+		if (slot.value.isNull())
+			continue;
+		slot.value = JObject();
+		slot.key.clear();
+		slot.referenced.store(false, boost::memory_order_relaxed);
+	}
+	index.clear();
+	hand = 0;
+}
+
+
+JObject StringCache::createString(const string& str)
+{
+	if (str.size() > static_cast<size_t>(std::numeric_limits<jsize>::max()))
+	{
+		throw JNIException("StringCache::createString() - str.size() (" + toString(str.size()) +
+			") > Integer.MAX_VALUE.");
+	}
+	JNIEnv* env = attach();
+	jclass stringClass = ClassLoaderCache::getSystem().getClass(env, 0, "java/lang/String");
+	jmethodID init = MemberRegistry::getMethodID(env, stringClass, "<init>", "([B)V", false);
+	jmethodID intern = 0;
+	if (init != 0)
+		intern = MemberRegistry::getMethodID(env, stringClass, "intern", "()Ljava/lang/String;", false);
+	if (intern == 0)
+	{
+		catchAndThrow();
+		throw JNIException("StringCache::createString() - Unable to find the String methods.");
+	}
+
+	jsize length = jsize(str.size());
+	jbyteArray bytes = env->NewByteArray(length);
+	if (bytes == 0)
+	{
+		catchAndThrow();
+		throw JNIException("StringCache::createString() - Unable to allocate a new java String.");
+	}
+	env->SetByteArrayRegion(bytes, 0, length, reinterpret_cast<const jbyte*>(str.data()));
+	jobject localString = env->NewObject(stringClass, init, bytes);
+	deleteLocalRef(env, bytes);
+	if (localString == 0)
+	{
+		catchAndThrow();
+		throw JNIException("StringCache::createString() - Unable to allocate a new java String.");
+	}
+	jobject interned = env->CallObjectMethod(localString, intern);
+	deleteLocalRef(env, localString);
+	if (interned == 0)
+	{
+		catchAndThrow();
+		throw JNIException("StringCache::createString() - Unable to intern the java String.");
+	}
+
+	try
+	{
+		JObject result(interned);
+		// Cached Strings outlive any LocalFrame, so they must not borrow a local reference
+		result.promote();
+		deleteLocalRef(env, interned);
+		return result;
+	}
+	catch (...)
+	{
+		deleteLocalRef(env, interned);
+		throw;
+	}
+}
+
+END_NAMESPACE(jace)
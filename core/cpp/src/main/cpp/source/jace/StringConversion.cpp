@@ -0,0 +1,173 @@
+#include "jace/StringConversion.h"
+
+#include "jace/Jace.h"
+
+#include <limits>
+
+#include <vector>
+using std::vector;
+
+using std::string;
+using std::wstring;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	/**
+	 * The number of characters that newStringUTF16() converts without allocating a buffer.
+	 */
+	const size_t STACK_BUFFER_SIZE = 256;
+
+	/**
+	 * Throws JNIException if str is null.
+	 */
+	void checkNotNull(jstring str, const char* function)
+	{
+		if (str == 0)
+			throw JNIException(string(function) + " - str may not be null");
+	}
+
+	/**
+	 * Converts UTF-32 to UTF-16.
+	 *
+	 * @param src the UTF-32 string
+	 * @param dest the destination, which must hold at least utf16Length(src) characters
+	 */
+	void toUTF16(const wstring& src, jchar* dest)
+	{
+		for (wstring::const_iterator i = src.begin(); i != src.end(); ++i)
+		{
+			unsigned long ch = static_cast<unsigned long>(*i);
+			if (ch > 0xFFFF)
+			{
+				ch -= 0x10000;
+				*dest++ = static_cast<jchar>(0xD800 + (ch >> 10));
+				*dest++ = static_cast<jchar>(0xDC00 + (ch & 0x3FF));
+			}
+			else
+				*dest++ = static_cast<jchar>(ch);
+		}
+	}
+
+	/**
+	 * Returns the number of UTF-16 characters needed to encode a UTF-32 string.
+	 */
+	size_t utf16Length(const wstring& src)
+	{
+		size_t result = src.size();
+		for (wstring::const_iterator i = src.begin(); i != src.end(); ++i)
+		{
+			if (static_cast<unsigned long>(*i) > 0xFFFF)
+				++result;
+		}
+		return result;
+	}
+} // namespace
+
+
+void getStringUTF8(JNIEnv* env, jstring str, string& buffer) throw (JNIException)
+{
+	checkNotNull(str, "getStringUTF8()");
+	jsize length = env->GetStringLength(str);
+	jsize bytes = env->GetStringUTFLength(str);
+
+	// GetStringUTFRegion() appends a null terminator
+	buffer.resize(bytes + 1);
+	env->GetStringUTFRegion(str, 0, length, &buffer[0]);
+	buffer.resize(bytes);
+}
+
+
+void getStringUTF16(JNIEnv* env, jstring str, wstring& buffer) throw (JNIException)
+{
+	checkNotNull(str, "getStringUTF16()");
+	jsize length = env->GetStringLength(str);
+	if (length == 0)
+	{
+		buffer.clear();
+		return;
+	}
+	if (sizeof(wchar_t) == sizeof(jchar))
+	{
+		buffer.resize(length);
+		env->GetStringRegion(str, 0, length, reinterpret_cast<jchar*>(&buffer[0]));
+		return;
+	}
+
+	// Surrogate pairs shrink the string, so the buffer never grows inside the critical region
+	buffer.clear();
+	buffer.reserve(length);
+	const jchar* chars = env->GetStringCritical(str, 0);
+	if (chars == 0)
+	{
+		catchAndThrow();
+		throw JNIException("getStringUTF16() - Unable to get the contents of the java String.");
+	}
+	enterCriticalRegion();
+	for (jsize i = 0; i < length; ++i)
+	{
+		jchar ch = chars[i];
+		if (ch >= 0xD800 && ch <= 0xDBFF && i + 1 < length && chars[i + 1] >= 0xDC00 &&
+			chars[i + 1] <= 0xDFFF)
+		{
+			buffer.push_back(static_cast<wchar_t>(0x10000 + ((ch - 0xD800) << 10) + (chars[i + 1] - 0xDC00)));
+			++i;
+		}
+		else
+			buffer.push_back(static_cast<wchar_t>(ch));
+	}
+	exitCriticalRegion();
+	env->ReleaseStringCritical(str, chars);
+}
+
+
+jstring newStringUTF8(JNIEnv* env, const string& str) throw (JNIException)
+{
+	jstring result = env->NewStringUTF(str.c_str());
+	if (result == 0)
+	{
+		catchAndThrow();
+		throw JNIException("newStringUTF8() - Unable to allocate a new java String.");
+	}
+	return result;
+}
+
+
+jstring newStringUTF16(JNIEnv* env, const wstring& str) throw (JNIException)
+{
+	size_t length;
+	if (sizeof(wchar_t) == sizeof(jchar))
+		length = str.size();
+	else
+		length = utf16Length(str);
+	if (length > static_cast<size_t>(std::numeric_limits<jsize>::max()))
+	{
+		throw JNIException("newStringUTF16() - str.size() (" + toString(length) +
+			") > Integer.MAX_VALUE.");
+	}
+
+	jstring result;
+	if (sizeof(wchar_t) == sizeof(jchar))
+		result = env->NewString(reinterpret_cast<const jchar*>(str.data()), jsize(length));
+	else if (length <= STACK_BUFFER_SIZE)
+	{
+		jchar buffer[STACK_BUFFER_SIZE];
+		toUTF16(str, buffer);
+		result = env->NewString(buffer, jsize(length));
+	}
+	else
+	{
+		vector<jchar> buffer(length);
+		toUTF16(str, &buffer[0]);
+		result = env->NewString(&buffer[0], jsize(length));
+	}
+	if (result == 0)
+	{
+		catchAndThrow();
+		throw JNIException("newStringUTF16() - Unable to allocate a new java String.");
+	}
+	return result;
+}
+
+END_NAMESPACE(jace)
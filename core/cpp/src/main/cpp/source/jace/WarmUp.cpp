@@ -0,0 +1,241 @@
+#include "jace/WarmUp.h"
+
+#include "jace/Jace.h"
+#include "jace/JClassImpl.h"
+#include "jace/MemberRegistry.h"
+
+#include "jace/BoostWarningOff.h"
+#include <boost/ref.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/thread/thread.hpp>
+#include "jace/BoostWarningOn.h"
+
+#include <fstream>
+#include <map>
+#include <sstream>
+
+#include <string>
+using std::string;
+
+#include <vector>
+using std::vector;
+
+BEGIN_NAMESPACE(jace)
+
+namespace
+{
+	/**
+	 * A method or field listed in the manifest.
+	 */
+	struct Member
+	{
+		string name;
+		string signature;
+		bool isField;
+		bool isStatic;
+	};
+
+	/**
+	 * A class listed in the manifest, along with its members.
+	 */
+	struct ClassEntry
+	{
+		string name;
+		vector<Member> members;
+	};
+
+	typedef vector<ClassEntry> Manifest;
+
+	/**
+	 * Parses a manifest, grouping members by class.
+	 *
+	 * @throws JNIException if the manifest is malformed
+	 */
+	Manifest parse(std::istream& in)
+	{
+		Manifest result;
+		std::map<string, size_t> indexOfClass;
+		string line;
+		int lineNumber = 0;
+		while (std::getline(in, line))
+		{
+			++lineNumber;
+			if (!line.empty() && line[line.size() - 1] == '\r')
+				line.erase(line.size() - 1);
+			std::istringstream tokens(line);
+			string kind;
+			if (!(tokens >> kind) || kind[0] == '#')
+				continue;
+			string className;
+			tokens >> className;
+
+			Member member;
+			member.isField = kind == "field" || kind == "static-field";
+			member.isStatic = kind == "static-method" || kind == "static-field";
+			bool hasMember = kind != "class";
+			if (hasMember && !member.isField && kind != "method" && kind != "static-method")
+				className.clear();
+			if (hasMember)
+				tokens >> member.name >> member.signature;
+			string extra;
+			if (className.empty() || (hasMember && member.signature.empty()) || tokens >> extra)
+			{
+				std::ostringstream msg;
+				msg << "warmUp() - Malformed manifest entry on line " << lineNumber << ": " << line;
+				throw JNIException(msg.str());
+			}
+
+			std::map<string, size_t>::const_iterator i = indexOfClass.find(className);
+			size_t index;
+			if (i == indexOfClass.end())
+			{
+				index = result.size();
+				indexOfClass[className] = index;
+				ClassEntry entry;
+				entry.name = className;
+				result.push_back(entry);
+			}
+			else
+				index = i->second;
+			if (hasMember)
+				result[index].members.push_back(member);
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves every step'th class of the manifest, starting with first, on the current thread.
+	 */
+	void resolve(const Manifest& manifest, size_t first, size_t step, WarmUpReport& report)
+	{
+		for (size_t i = first; i < manifest.size(); i += step)
+		{
+			const ClassEntry& entry = manifest[i];
+			try
+			{
+				JNIEnv* env = attach();
+				jclass jClass = JClassImpl(entry.name).getClass();
+				++report.classes;
+
+				for (vector<Member>::const_iterator j = entry.members.begin(); j != entry.members.end(); ++j)
+				{
+					bool found;
+					if (j->isField)
+					{
+						found = MemberRegistry::getFieldID(env, jClass, j->name, j->signature, j->isStatic) != 0;
+						if (found)
+							++report.fields;
+					}
+					else
+					{
+						found = MemberRegistry::getMethodID(env, jClass, j->name, j->signature, j->isStatic) != 0;
+						if (found)
+							++report.methods;
+					}
+					if (!found)
+					{
+						env->ExceptionClear();
+						report.failures.push_back("Unable to find " + entry.name + "." + j->name + " " +
+							j->signature);
+					}
+				}
+			}
+			catch (std::exception& e)
+			{
+				report.failures.push_back("Unable to load " + entry.name + ": " + e.what());
+			}
+		}
+	}
+
+	/**
+	 * Resolves every step'th class of the manifest, starting with first, on a new thread.
+	 */
+	void resolveOnThread(const Manifest& manifest, size_t first, size_t step, jobject classLoader,
+		WarmUpReport& report)
+	{
+		try
+		{
+			attach(0, "jace-warm-up", true);
+			if (classLoader != 0)
+				setClassLoader(classLoader);
+			resolve(manifest, first, step, report);
+			setClassLoader(0);
+		}
+		catch (std::exception& e)
+		{
+			report.failures.push_back(string("Unable to warm up: ") + e.what());
+		}
+		detach();
+	}
+} // namespace
+
+
+WarmUpReport::WarmUpReport():
+	classes(0), methods(0), fields(0), failures(), elapsed(0)
+{}
+
+
+WarmUpReport warmUp(std::istream& in, int threads) throw (JNIException, VirtualMachineShutdownError)
+{
+	boost::chrono::steady_clock::time_point start = boost::chrono::steady_clock::now();
+	Manifest manifest = parse(in);
+	if (in.bad())
+		throw JNIException("warmUp() - Unable to read the manifest");
+
+	WarmUpReport result;
+	size_t step = threads < 1 ? 1 : threads;
+	if (step > manifest.size())
+		step = manifest.size();
+	if (step <= 1)
+		resolve(manifest, 0, 1, result);
+	else
+	{
+		// The caller's ClassLoader remains in use until the threads are joined
+		jobject classLoader = getClassLoader();
+		vector<WarmUpReport> reports(step);
+		vector<boost::shared_ptr<boost::thread> > workers;
+		string error;
+		for (size_t i = 0; i < step; ++i)
+		{
+			try
+			{
+				workers.push_back(boost::shared_ptr<boost::thread>(new boost::thread(resolveOnThread,
+					boost::cref(manifest), i, step, classLoader, boost::ref(reports[i]))));
+			}
+			catch (std::exception& e)
+			{
+				error = e.what();
+				break;
+			}
+		}
+		for (vector<boost::shared_ptr<boost::thread> >::const_iterator i = workers.begin();
+			i != workers.end(); ++i)
+		{
+			(*i)->join();
+		}
+		if (!error.empty())
+			throw JNIException("warmUp() - Unable to start a thread: " + error);
+
+		for (vector<WarmUpReport>::const_iterator i = reports.begin(); i != reports.end(); ++i)
+		{
+			result.classes += i->classes;
+			result.methods += i->methods;
+			result.fields += i->fields;
+			result.failures.insert(result.failures.end(), i->failures.begin(), i->failures.end());
+		}
+	}
+	result.elapsed = boost::chrono::duration_cast<boost::chrono::milliseconds>(
+		boost::chrono::steady_clock::now() - start);
+	return result;
+}
+
+
+WarmUpReport warmUp(const string& path, int threads) throw (JNIException, VirtualMachineShutdownError)
+{
+	std::ifstream in(path.c_str());
+	if (!in)
+		throw JNIException("warmUp() - Unable to open " + path);
+	return warmUp(in, threads);
+}
+
+END_NAMESPACE(jace)
@@ -5,6 +5,7 @@
 #include "jace/JConstructor.h"
 #include "jace/JMethod.h"
 #include "jace/JArguments.h"
+#include "jace/LocalFrame.h"
 #include "jace/VirtualMachineShutdownError.h"
 
 #include <iostream>
@@ -15,15 +16,39 @@ using std::endl;
 using std::exception;
 
 #include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
 #include <boost/thread/mutex.hpp>
 #include "jace/BoostWarningOn.h"
 
 BEGIN_NAMESPACE_2(jace, proxy)
 
+/**
+ * A global reference shared by copies of a JObject.
+ */
+struct JObject::SharedReference
+{
+	/**
+	 * Creates a new reference with a count of one.
+	 */
+	explicit SharedReference(jobject _value):
+		value(_value), count(1)
+	{}
+
+	/**
+	 * The global reference.
+	 */
+	jobject value;
+	/**
+	 * The number of JObjects that share the reference.
+	 */
+	boost::atomic<int> count;
+};
+
 /**
  * Creates a new reference to an existing jvalue.
  */
-JObject::JObject(jvalue value)
+JObject::JObject(jvalue value):
+	localFrame(0), sharedReference(0)
 {
   setJavaJniValue(value);
 }
@@ -31,7 +56,8 @@ JObject::JObject(jvalue value)
 /**
  * Creates a new reference to an existing jobject.
  */
-JObject::JObject(jobject object)
+JObject::JObject(jobject object):
+	localFrame(0), sharedReference(0)
 {
   setJavaJniObject(object);
 }
@@ -42,7 +68,8 @@ JObject::JObject(jobject object)
  * All subclasses of JObject should provide this constructor
  * for their own subclasses.
  */
-JObject::JObject()
+JObject::JObject():
+	localFrame(0), sharedReference(0)
 {
 }
 
@@ -51,11 +78,25 @@ JObject::JObject()
  *
  * @param object the object
  */
-JObject::JObject(const JObject& other)
+JObject::JObject(const JObject& other):
+	localFrame(0), sharedReference(0)
 {
-	JValue::setJavaJniValue(static_cast<jvalue>(other));
+	setJavaJniObject(other);
 }
 
+#ifndef BOOST_NO_CXX11_RVALUE_REFERENCES
+/**
+ * Takes over the reference of another object, leaving it null.
+ *
+ * @param object the object
+ */
+JObject::JObject(JObject&& other):
+	localFrame(0), sharedReference(0)
+{
+	takeJavaJniObject(other);
+}
+#endif
+
 /**
  * Destroys an object reference.
  */
@@ -63,13 +104,7 @@ JObject::~JObject() throw ()
 {
 	try
 	{
-		jobject ref = *this;
-		if (ref)
-		{
-			// skip for null references
-			JNIEnv* env = attach();
-			deleteGlobalRef(env, ref);
-		}
+		deleteReference();
 	}
 	catch (VirtualMachineShutdownError&)
 	{
@@ -118,10 +153,34 @@ bool JObject::isNull() const
 JObject& JObject::operator=(const JObject& object)
 {
 	// We don't check if (this == &object) because setJavaJniObject() already does
-  setJavaJniObject(static_cast<jobject>(object));
+  setJavaJniObject(object);
   return *this;
 }
 
+#ifndef BOOST_NO_CXX11_RVALUE_REFERENCES
+JObject& JObject::operator=(JObject&& object)
+{
+	if (this != &object)
+		takeJavaJniObject(object);
+	return *this;
+}
+#endif
+
+
+void JObject::promote() throw (JNIException)
+{
+	if (localFrame == 0)
+		return;
+	JNIEnv* env = attach();
+	setReference(env, *this, 0);
+}
+
+
+bool JObject::isBorrowed() const
+{
+	return localFrame != 0;
+}
+
 /**
  * Sets the jobject for this JObject.
  *
@@ -136,6 +195,55 @@ void JObject::setJavaJniObject(jobject object) throw (JNIException)
 }
 
 
+/**
+ * Sets this JObject to refer to the same object as another JObject.
+ */
+void JObject::setJavaJniObject(const JObject& object) throw (JNIException)
+{
+	if (object.localFrame == 0)
+	{
+		// Copies of global references share the same reference
+		SharedReference* reference = object.sharedReference;
+		if (reference == sharedReference && localFrame == 0)
+			return;
+		if (reference != 0)
+			reference->count.fetch_add(1, boost::memory_order_relaxed);
+		deleteReference();
+		sharedReference = reference;
+		jvalue value;
+		value.l = static_cast<jobject>(object);
+		JValue::setJavaJniValue(value);
+		return;
+	}
+	JNIEnv* env = attach();
+	setReference(env, static_cast<jobject>(object), LocalFrame::getBorrowingFrame());
+}
+
+
+void JObject::takeJavaJniObject(JObject& object) throw ()
+{
+	if (&object == this)
+		return;
+	try
+	{
+		deleteReference();
+	}
+	catch (VirtualMachineShutdownError&)
+	{
+		// instance already deleted
+	}
+	localFrame = object.localFrame;
+	sharedReference = object.sharedReference;
+	JValue::setJavaJniValue(static_cast<jvalue>(object));
+
+	jvalue nullValue;
+	nullValue.l = 0;
+	object.localFrame = 0;
+	object.sharedReference = 0;
+	object.JValue::setJavaJniValue(nullValue);
+}
+
+
 /**
  * This method sets the jobject for this JObject.
  *
@@ -147,31 +255,91 @@ void JObject::setJavaJniObject(jobject object) throw (JNIException)
 void JObject::setJavaJniValue(jvalue newValue) throw (JNIException)
 {
   JNIEnv* env = attach();
+	setReference(env, newValue.l, LocalFrame::getBorrowingFrame());
+}
+
 
+void JObject::setReference(JNIEnv* env, jobject newValue, boost::uint64_t frame) throw (JNIException)
+{
 	// Save a copy of the old value
   jobject oldValue = *this;
-	if (env->IsSameObject(newValue.l, oldValue) == JNI_TRUE)
+	if (oldValue == 0)
+	{
+		if (newValue == 0)
+			return;
+	}
+	else if ((localFrame == 0 || frame != 0) && env->IsSameObject(newValue, oldValue) == JNI_TRUE)
+	{
+		// Keep the existing reference, unless a local reference needs to be promoted
 		return;
+	}
 	jvalue ourCopy;
+	SharedReference* reference = 0;
 
-  if (!newValue.l)
+  if (!newValue)
 	{
-		// If the new value is a null reference, we save time by not creating a new global reference.
-		ourCopy = newValue;
+		// If the new value is a null reference, we save time by not creating a new reference.
+		ourCopy.l = 0;
+		frame = 0;
   }
-	else
+	else if (frame == 0)
 	{
 		// Create our own global reference to the object
-		jobject object = newGlobalRef(env, newValue.l);
-		ourCopy.l = object;
+		ourCopy.l = newGlobalRef(env, newValue);
+		try
+		{
+			reference = new SharedReference(ourCopy.l);
+		}
+		catch (...)
+		{
+			deleteGlobalRef(env, ourCopy.l);
+			throw;
+		}
+	}
+	else
+	{
+		// Borrow a local reference from the current frame
+		ourCopy.l = newLocalRef(env, newValue);
 	}
 
 	// Delete the old value
-  if (oldValue)
-    deleteGlobalRef(env, oldValue);
+	deleteReference();
+	localFrame = frame;
+	sharedReference = reference;
   JValue::setJavaJniValue(ourCopy);
 }
 
+
+void JObject::deleteReference()
+{
+	jobject value = *this;
+	SharedReference* reference = sharedReference;
+	boost::uint64_t frame = localFrame;
+
+	jvalue nullValue;
+	nullValue.l = 0;
+	JValue::setJavaJniValue(nullValue);
+	sharedReference = 0;
+	localFrame = 0;
+
+	if (!value)
+		return;
+	if (reference != 0)
+	{
+		if (reference->count.fetch_sub(1, boost::memory_order_release) != 1)
+			return;
+		boost::atomic_thread_fence(boost::memory_order_acquire);
+		delete reference;
+		releaseGlobalRef(value);
+	}
+	else if (frame != 0 && LocalFrame::isActive(frame))
+	{
+		// skip local references whose frame was already popped
+		JNIEnv* env = attach();
+		deleteLocalRef(env, value);
+	}
+}
+
 /**
  * Constructs a new instance of the given class
  * with the given arguments.
@@ -189,12 +357,18 @@ jobject JObject::newObject(const JClass& jClass, const JArguments& arguments)
 }
 
 static boost::mutex javaClassMutex;
+static boost::atomic<JClassImpl*> javaClass(0);
 const JClass& JObject::staticGetJavaJniClass() throw (JNIException)
 {
+	JClassImpl* cached = javaClass.load(boost::memory_order_acquire);
+	if (cached != 0)
+		return *cached;
+
 	static boost::shared_ptr<JClassImpl> result;
 	boost::mutex::scoped_lock lock(javaClassMutex);
 	if (result == 0)
 		result = boost::shared_ptr<JClassImpl>(new JClassImpl("java/lang/Object"));
+	javaClass.store(result.get(), boost::memory_order_release);
 	return *result;
 }
 
@@ -3,6 +3,7 @@
 #include "jace/JClassImpl.h"
 
 #include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
 #include <boost/thread/mutex.hpp>
 #include "jace/BoostWarningOn.h"
 
@@ -49,12 +50,18 @@ bool JByte::operator!=(jbyte val) const
 }
 
 static boost::mutex javaClassMutex;
+static boost::atomic<JClassImpl*> javaClass(0);
 const JClass& JByte::staticGetJavaJniClass() throw (JNIException)
 {
+	JClassImpl* cached = javaClass.load(boost::memory_order_acquire);
+	if (cached != 0)
+		return *cached;
+
 	static boost::shared_ptr<JClassImpl> result;
 	boost::mutex::scoped_lock lock(javaClassMutex);
 	if (result == 0)
 		result = boost::shared_ptr<JClassImpl>(new JClassImpl("byte", "B"));
+	javaClass.store(result.get(), boost::memory_order_release);
 	return *result;
 }
 
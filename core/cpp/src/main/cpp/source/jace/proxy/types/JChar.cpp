@@ -6,6 +6,7 @@
 using std::ostream;
 
 #include "jace/BoostWarningOff.h"
+#include <boost/atomic.hpp>
 #include <boost/thread/mutex.hpp>
 #include "jace/BoostWarningOn.h"
 
@@ -53,12 +54,18 @@ bool JChar::operator!=(jchar val) const
 }
 
 static boost::mutex javaClassMutex;
+static boost::atomic<JClassImpl*> javaClass(0);
 const JClass& JChar::staticGetJavaJniClass() throw (JNIException)
 {
+	JClassImpl* cached = javaClass.load(boost::memory_order_acquire);
+	if (cached != 0)
+		return *cached;
+
 	static boost::shared_ptr<JClassImpl> result;
 	boost::mutex::scoped_lock lock(javaClassMutex);
 	if (result == 0)
 		result = boost::shared_ptr<JClassImpl>(new JClassImpl("char", "C"));
+	javaClass.store(result.get(), boost::memory_order_release);
 	return *result;
 }
 
@@ -3,6 +3,7 @@ package org.jace.ant;
 import com.google.common.collect.Lists;
 import java.io.*;
 import java.util.List;
+import java.util.Locale;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
@@ -15,7 +16,8 @@ import org.slf4j.LoggerFactory;
  * &lt;PeerUptodate&gt; task.
  *
  * Example:
- * &lt;EnhanceJavaPeer inputFile="input.class" outputFile="output.class" deallocationMethod="dispose" verbose="false"&gt;
+ * &lt;EnhanceJavaPeer inputFile="input.class" outputFile="output.class" deallocationMethod="dispose" verbose="false"
+ *   cleanup="phantom"&gt;
  *   &lt;library name="browser"/&gt;
  *   &lt;library name="tray"/&gt;
  * &lt;/EnhanceJavaPeer&gt;
@@ -36,6 +38,7 @@ public class EnhanceJavaPeerTask extends Task
 	 */
 	private String deallocationMethod;
 	private boolean verbose;
+	private PeerEnhancer.Cleanup cleanup = PeerEnhancer.Cleanup.FINALIZER;
 
 	/**
 	 * Sets the class file to enhance.
@@ -77,6 +80,25 @@ public class EnhanceJavaPeerTask extends Task
 		this.verbose = verbose;
 	}
 
+	/**
+	 * Sets how native peers are destroyed when their Java peers become unreachable.
+	 *
+	 * @param cleanup "finalizer" (the default) or "phantom"
+	 * @throws BuildException if cleanup is not a known value
+	 */
+	public void setCleanup(String cleanup) throws BuildException
+	{
+		try
+		{
+			this.cleanup = PeerEnhancer.Cleanup.valueOf(cleanup.toUpperCase(Locale.ENGLISH));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new BuildException("cleanup must be \"finalizer\" or \"phantom\": " + cleanup, e,
+				getLocation());
+		}
+	}
+
 	@Override
 	public void execute() throws BuildException
 	{
@@ -90,7 +112,7 @@ public class EnhanceJavaPeerTask extends Task
 		try
 		{
 			PeerEnhancer.Builder enhancer = new PeerEnhancer.Builder(inputFile, outputFile).verbose(
-				verbose);
+				verbose).cleanup(cleanup);
 			if (deallocationMethod != null)
 				enhancer.deallocationMethod(deallocationMethod);
 			for (Library library: libraries)
@@ -140,6 +162,7 @@ public class EnhanceJavaPeerTask extends Task
 	public String toString()
 	{
 		return getClass().getSimpleName() + "[inputFile=" + inputFile + ", outputFile=" + outputFile
-					 + ", libraries=" + libraries + ", deallocationMethod=" + deallocationMethod + "]";
+					 + ", libraries=" + libraries + ", deallocationMethod=" + deallocationMethod + ", cleanup="
+					 + cleanup + "]";
 	}
 }
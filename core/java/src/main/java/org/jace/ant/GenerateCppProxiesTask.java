@@ -26,7 +26,8 @@ import org.jace.proxy.ProxyGenerator.AccessibilityType;
  * {@code
  *   <GenerateCppProxies inputHeaders="input/include" inputSources="input/source"
  *     outputHeaders="output/include" outputSources="output/source" exportSymbols="false"
- *     minimizeDependencies="true" classpath="rt.jar" accessibility="PUBLIC">
+ *     minimizeDependencies="true" classpath="rt.jar" accessibility="PUBLIC"
+ *     manifest="output/jace-manifest.txt">
  *     <classpath>
  *       <pathelement location="classes"/>
  *     </classpath>
@@ -77,6 +78,10 @@ public class GenerateCppProxiesTask extends Task
 	 * default is true.
 	 */
 	private boolean minimizeDependencies = true;
+	/**
+	 * The file to write the warm-up manifest to, or null if no manifest should be written.
+	 */
+	private File manifest;
 
 	/**
 	 * Sets the directory containing the input header files.
@@ -163,6 +168,16 @@ public class GenerateCppProxiesTask extends Task
 		this.minimizeDependencies = minimizeDependencies;
 	}
 
+	/**
+	 * Sets the file to write the warm-up manifest to.
+	 *
+	 * @param manifest the manifest file
+	 */
+	public void setManifest(File manifest)
+	{
+		this.manifest = manifest;
+	}
+
 	/**
 	 * Sets the Java classpath.
 	 *
@@ -193,7 +208,7 @@ public class GenerateCppProxiesTask extends Task
 			extraDependencies.add(TypeNameFactory.fromIdentifier(dependency.getName()));
 		AutoProxy.Builder autoProxy = new AutoProxy.Builder(inputHeaders, inputSources, outputHeaders,
 			outputSources, new ClassPath(classpath.toString())).accessibility(accessibility).
-			minimizeDependencies(minimizeDependencies).exportSymbols(exportSymbols);
+			minimizeDependencies(minimizeDependencies).exportSymbols(exportSymbols).manifest(manifest);
 		for (TypeName dependency: extraDependencies)
 			autoProxy.extraDependency(dependency);
 		try
@@ -266,6 +281,6 @@ public class GenerateCppProxiesTask extends Task
 		return getClass().getSimpleName() + "[inputHeaders=" + inputHeaders + ", inputSources="
 					 + inputSources + ", outputHeader=" + outputHeaders + ", outputSources=" + outputSources
 					 + ", exportSymbols=" + exportSymbols + ", minimizeDependencies=" + minimizeDependencies
-					 + "]";
+					 + ", manifest=" + manifest + "]";
 	}
 }
@@ -27,6 +27,11 @@ public class PeerEnhancer
 	private List<String> libraries;
 	private String deallocationMethod;
 	private final boolean verbose;
+	private final Cleanup cleanup;
+	/**
+	 * True if the native peer is destroyed when the Java peer becomes unreachable.
+	 */
+	private boolean automaticCleanup;
 	private static final String jaceHandleField = "jaceNativeHandle";
 	private static final String jaceCreateInstance = "jaceCreateInstance";
 	private static final String jaceDestroyInstance = "jaceDestroyInstance";
@@ -37,6 +42,31 @@ public class PeerEnhancer
 	private static final String jaceUserStaticInit = "jaceUserStaticInit";
 	private static final String jaceUserFinalize = "jaceUserFinalize";
 	private static final String jaceUserClose = "jaceUserClose";
+	private static final String jaceCleanable = "jaceCleanable";
+	private static final String peerCleaner = "org/jace/util/PeerCleaner";
+	private static final String peerCleanable = "org/jace/util/PeerCleaner$Cleanable";
+
+	/**
+	 * The mechanism used to destroy native peers whose Java peers have become unreachable.
+	 *
+	 * @author Gili Tzabari
+	 */
+	@SuppressWarnings("PublicInnerClass")
+	public enum Cleanup
+	{
+		/**
+		 * The Java peer overrides {@code finalize()} to destroy the native peer.
+		 */
+		FINALIZER,
+		/**
+		 * The Java peer registers itself with {@code org.jace.util.PeerCleaner}, whose threads destroy
+		 * the native peer once the Java peer becomes phantom reachable. This avoids the cost that
+		 * finalizable objects impose on allocation and garbage collection. The native peer may not
+		 * invoke methods on the Java peer from {@code Peer::destroy()}. Requires the Jace runtime
+		 * library at runtime.
+		 */
+		PHANTOM
+	}
 
 	/**
 	 * Builds a PeerEnhancer.
@@ -51,6 +81,7 @@ public class PeerEnhancer
 		private final List<String> libraries = Lists.newArrayList();
 		private String deallocationMethod;
 		private boolean verbose;
+		private Cleanup cleanup = Cleanup.FINALIZER;
 
 		/**
 		 * Creates a new Builder.
@@ -108,6 +139,21 @@ public class PeerEnhancer
 			return this;
 		}
 
+		/**
+		 * Indicates how native peers are destroyed when their Java peers become unreachable.
+		 *
+		 * @param cleanup the cleanup mechanism. The default is {@code Cleanup.FINALIZER}.
+		 * @return the Builder
+		 * @throws IllegalArgumentException if cleanup is null
+		 */
+		public Builder cleanup(Cleanup cleanup) throws IllegalArgumentException
+		{
+			if (cleanup == null)
+				throw new IllegalArgumentException("cleanup may not be null");
+			this.cleanup = cleanup;
+			return this;
+		}
+
 		/**
 		 * Enhances the peer.
 		 *
@@ -137,6 +183,7 @@ public class PeerEnhancer
 			throw new IllegalArgumentException("At least one library must be specified");
 		this.deallocationMethod = builder.deallocationMethod;
 		this.verbose = builder.verbose;
+		this.cleanup = builder.cleanup;
 	}
 
 	/**
@@ -216,12 +263,16 @@ public class PeerEnhancer
 	/**
 	 * Returns a list of instructions for the following code:
 	 *
-	 * {@code jaceSetNativeHandle(jaceCreateInstance())}
+	 * <code>
+	 *   jaceSetNativeHandle(jaceCreateInstance());
+	 *   jaceCleanable = PeerCleaner.register(this, ClassName.class, jaceGetNativeHandle()); // Only
+	 *                 // present if the native peer is destroyed by PeerCleaner.
+	 * </code>
 	 *
 	 * @param className the name of the class being enhanced
 	 * @return a list of instructions
 	 */
-	private static InsnList getJaceSetNativeHandle(String className)
+	private InsnList getJaceSetNativeHandle(String className)
 	{
 		InsnList result = new InsnList();
 		// Load "this" onto the stack
@@ -240,6 +291,30 @@ public class PeerEnhancer
 			{
 				Type.LONG_TYPE
 			})));
+		if (cleanup != Cleanup.PHANTOM || !automaticCleanup)
+			return result;
+
+		// Load "this" onto the stack twice: once for PUTFIELD and once for register()
+		result.add(new VarInsnNode(Opcodes.ALOAD, 0));
+		result.add(new InsnNode(Opcodes.DUP));
+		result.add(new LdcInsnNode(Type.getObjectType(className)));
+		result.add(new VarInsnNode(Opcodes.ALOAD, 0));
+
+		// Invoke jaceGetNativeHandle()
+		result.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, className, jaceGetNativeHandle,
+			Type.getMethodDescriptor(Type.LONG_TYPE, new Type[0])));
+
+		// Stack now contains: [this, this, class, handle]
+		// Invoke PeerCleaner.register()
+		result.add(new MethodInsnNode(Opcodes.INVOKESTATIC, peerCleaner, "register",
+			Type.getMethodDescriptor(Type.getObjectType(peerCleanable), new Type[]
+			{
+				Type.getType(Object.class), Type.getType(Class.class), Type.LONG_TYPE
+			})));
+
+		// jaceCleanable = result of register()
+		result.add(new FieldInsnNode(Opcodes.PUTFIELD, className, jaceCleanable,
+			Type.getDescriptor(Object.class)));
 		return result;
 	}
 
@@ -334,13 +409,17 @@ public class PeerEnhancer
 				}
 			}
 
+			automaticCleanup = deallocationMethod == null || hasFinalizer(classNode);
 			enhanceConstructors(classNode);
 			enhanceDeallocationMethod(classNode);
 			enhanceInitializer(classNode);
 			addNativeHandle(classNode);
 			addNativeLifetimeMethods(classNode);
 			addDeallocation(classNode);
-			enhanceFinalizer(classNode);
+			// PHANTOM leaves the user's finalizer untouched. The virtual machine runs it before the peer
+			// becomes phantom reachable, so it still runs before the native peer is destroyed.
+			if (cleanup == Cleanup.FINALIZER)
+				enhanceFinalizer(classNode);
 
 			File parentPath = outputFile.getParentFile();
 			if (parentPath != null && !parentPath.exists() && !parentPath.mkdirs())
@@ -578,6 +657,8 @@ public class PeerEnhancer
 	 *
 	 * <code>
 	 *   private long jaceNativeHandle;
+	 *   private Object jaceCleanable; // A PeerCleaner.Cleanable. Only present if the native peer is
+	 *                                 // destroyed by PeerCleaner.
 	 *
 	 *   private void jaceSetNativeHandle( long nativeHandle )
 	 *   {
@@ -598,6 +679,12 @@ public class PeerEnhancer
 		// Create field
 		classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, jaceHandleField, Type.getDescriptor(
 			long.class), null, null));
+		if (cleanup == Cleanup.PHANTOM && automaticCleanup)
+		{
+			// The field is declared as an Object so that the C++ peer does not depend on PeerCleaner
+			classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, jaceCleanable,
+				Type.getDescriptor(Object.class), null, null));
+		}
 
 		// Create setter method
 		MethodNode setNativeHandle = new MethodNode(Opcodes.ACC_PRIVATE, jaceSetNativeHandle, Type.
@@ -645,6 +732,11 @@ public class PeerEnhancer
 	 *
 	 * @{code private native long jaceCreateInstance(); private native void jaceDestroyInstance(); }
 	 *
+	 * If the peer uses {@code Cleanup.PHANTOM}, the Java peer may no longer exist by the time the
+	 * native peer is destroyed, so the handle is passed explicitly:
+	 *
+	 * @{code private static native void jaceDestroyInstance(long handle); }
+	 *
 	 * @param classNode the class to enhance
 	 */
 	@SuppressWarnings("unchecked")
@@ -656,9 +748,21 @@ public class PeerEnhancer
 			Type.getMethodDescriptor(Type.LONG_TYPE, new Type[0]), null, null));
 
 		// Create jacerDestroyInstance() method
-		classNode.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_NATIVE,
-			jaceDestroyInstance,
-			Type.getMethodDescriptor(Type.VOID_TYPE, new Type[0]), null, null));
+		if (cleanup == Cleanup.PHANTOM)
+		{
+			classNode.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_NATIVE
+																					 | Opcodes.ACC_STATIC, jaceDestroyInstance,
+				Type.getMethodDescriptor(Type.VOID_TYPE, new Type[]
+				{
+					Type.LONG_TYPE
+				}), null, null));
+		}
+		else
+		{
+			classNode.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_NATIVE,
+				jaceDestroyInstance,
+				Type.getMethodDescriptor(Type.VOID_TYPE, new Type[0]), null, null));
+		}
 	}
 
 	/**
@@ -676,6 +780,10 @@ public class PeerEnhancer
 	 *   }
 	 * </code>
 	 *
+	 * If the peer uses {@code Cleanup.PHANTOM}, {@code jaceDestroyInstance()} is replaced by
+	 * {@code ((PeerCleaner.Cleanable) jaceCleanable).clean()}, which unregisters the peer from PeerCleaner, or by
+	 * {@code jaceDestroyInstance(handle)} if the native peer is not destroyed automatically.
+	 *
 	 * @param classNode the class to enhance
 	 */
 	@SuppressWarnings("unchecked")
@@ -709,12 +817,39 @@ public class PeerEnhancer
 		Label handleIsZero = new Label();
 		dispose.visitJumpInsn(Opcodes.IFEQ, handleIsZero);
 
-		// Push "this" onto stack
-		dispose.visitVarInsn(Opcodes.ALOAD, 0);
+		if (cleanup == Cleanup.FINALIZER)
+		{
+			// Push "this" onto stack
+			dispose.visitVarInsn(Opcodes.ALOAD, 0);
 
-		// Invoke jaceDestroyInstance()
-		dispose.visitMethodInsn(Opcodes.INVOKESPECIAL, classNode.name,
-			jaceDestroyInstance, Type.getMethodDescriptor(Type.VOID_TYPE, new Type[0]));
+			// Invoke jaceDestroyInstance()
+			dispose.visitMethodInsn(Opcodes.INVOKESPECIAL, classNode.name,
+				jaceDestroyInstance, Type.getMethodDescriptor(Type.VOID_TYPE, new Type[0]));
+		}
+		else if (automaticCleanup)
+		{
+			// Push "jaceCleanable" onto stack
+			dispose.visitVarInsn(Opcodes.ALOAD, 0);
+			dispose.visitFieldInsn(Opcodes.GETFIELD, classNode.name, jaceCleanable,
+				Type.getDescriptor(Object.class));
+			dispose.visitTypeInsn(Opcodes.CHECKCAST, peerCleanable);
+
+			// Invoke jaceCleanable.clean()
+			dispose.visitMethodInsn(Opcodes.INVOKEVIRTUAL, peerCleanable, "clean",
+				Type.getMethodDescriptor(Type.VOID_TYPE, new Type[0]));
+		}
+		else
+		{
+			// Push "handle" onto stack
+			dispose.visitVarInsn(Opcodes.LLOAD, 1);
+
+			// Invoke jaceDestroyInstance(handle)
+			dispose.visitMethodInsn(Opcodes.INVOKESTATIC, classNode.name,
+				jaceDestroyInstance, Type.getMethodDescriptor(Type.VOID_TYPE, new Type[]
+				{
+					Type.LONG_TYPE
+				}));
+		}
 
 		// Push "this" onto stack
 		dispose.visitVarInsn(Opcodes.ALOAD, 0);
@@ -739,6 +874,23 @@ public class PeerEnhancer
 		dispose.visitInsn(Opcodes.RETURN);
 	}
 
+	/**
+	 * Indicates if the class declares a finalizer.
+	 *
+	 * @param classNode the class to parse
+	 * @return true if the class declares {@code finalize()}
+	 */
+	private static boolean hasFinalizer(ClassNode classNode)
+	{
+		for (Object o: classNode.methods)
+		{
+			MethodNode method = (MethodNode) o;
+			if (method.name.equals("finalize"))
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Renames the user's finalizer to jaceUserFinalize() and creates a new finalizer:
 	 *
@@ -809,8 +961,9 @@ public class PeerEnhancer
 					 + newLine
 					 + "  <comma-separated list of libraries>" + newLine + "  [options] " + newLine + newLine
 					 + "Where options can be:" + newLine + "  -deallocator=<deallocation method>" + newLine
-					 + "  -verbose "
-					 + newLine;
+					 + "  -verbose " + newLine
+					 + "  -cleanup=<finalizer|phantom> (how native peers are destroyed when their Java peers"
+					 + " become unreachable)" + newLine;
 		return usage;
 	}
 
@@ -834,6 +987,7 @@ public class PeerEnhancer
 
 		String deallocationMethod = null;
 		boolean verbose = false;
+		Cleanup cleanup = Cleanup.FINALIZER;
 		for (int i = 3; i < args.length; ++i)
 		{
 			String option = args[i];
@@ -856,6 +1010,18 @@ public class PeerEnhancer
 					matchFound = true;
 					break;
 				}
+				case "-cleanup=finalizer":
+				{
+					cleanup = Cleanup.FINALIZER;
+					matchFound = true;
+					break;
+				}
+				case "-cleanup=phantom":
+				{
+					cleanup = Cleanup.PHANTOM;
+					matchFound = true;
+					break;
+				}
 			}
 			if (!matchFound)
 			{
@@ -872,6 +1038,7 @@ public class PeerEnhancer
 			enhancer.library(token);
 		enhancer.deallocationMethod(deallocationMethod);
 		enhancer.verbose(verbose);
+		enhancer.cleanup(cleanup);
 		Logger log = LoggerFactory.getLogger(PeerEnhancer.class);
 		log.info("Enhancing " + inputFile + " -> " + outputFile);
 		try
@@ -381,7 +381,13 @@ public class PeerGenerator
 		output.write("#include <assert.h>" + newLine);
 		output.write(newLine);
 
+		Util.generateComment(output, "The jaceNativeHandle field of the peer class, resolved by jaceSetVm().");
+		output.write("static jfieldID jaceNativeHandleField = 0;" + newLine);
+		output.write(newLine);
+
 		// generate the native method implementations
+		List<ClassMethod> registeredMethods = Lists.newArrayList();
+		List<String> registeredFunctions = Lists.newArrayList();
 		for (ClassMethod method: classFile.getMethods())
 		{
 			if (!method.getAccessFlags().contains(MethodAccessFlag.NATIVE))
@@ -389,17 +395,23 @@ public class PeerGenerator
 
 			String methodName = method.getName();
 
+			// jaceSetVm is the only exported function. It is generated last, so it can register the rest.
+			if (methodName.equals("jaceSetVm"))
+				continue;
+
 			Util.generateComment(output, "The JNI mapping for" + newLine + newLine + "Class: "
 																	 + mangleName(metaClass.getFullyQualifiedTrueName("/")) + newLine
 																	 + "Method: " + method.getName() + newLine
 																	 + "Signature: " + method.getDescriptor());
 
-			// treat jaceCreateInstance, jaceDestroyInstance, and jaceSetVm specially
+			// treat jaceCreateInstance and jaceDestroyInstance specially
 			if (methodName.equals("jaceCreateInstance"))
 			{
-				output.write("extern \"C\" JNIEXPORT jlong JNICALL ");
-				output.write("Java_" + className + "_jaceCreateInstance(JNIEnv *env, jobject jPeer)"
-										 + newLine);
+				String functionName = "Java_" + className + "_jaceCreateInstance";
+				registeredMethods.add(method);
+				registeredFunctions.add(functionName);
+				output.write("static jlong JNICALL ");
+				output.write(functionName + "(JNIEnv *env, jobject jPeer)" + newLine);
 				output.write("{" + newLine);
 				output.write("  try" + newLine);
 				output.write("  {" + newLine);
@@ -411,7 +423,6 @@ public class PeerGenerator
 				output.write("  {" + newLine);
 				output.write("    env->Throw(static_cast<jthrowable>(env->NewLocalRef(static_cast<jobject>(t))));"
 										 + newLine);
-				output.write("    ::jace::detach();" + newLine);
 				output.write("    return 0;" + newLine);
 				output.write("  }" + newLine);
 				output.write("  catch (std::exception& e)" + newLine);
@@ -426,7 +437,6 @@ public class PeerGenerator
 										 + newLine);
 				output.write("      env->Throw(static_cast<jthrowable>(env->NewLocalRef(static_cast<jobject>(ex))));"
 										 + newLine);
-				output.write("      ::jace::detach();" + newLine);
 				output.write("    }" + newLine);
 				output.write("    catch (jace::VirtualMachineShutdownError&)" + newLine);
 				output.write("    {" + newLine);
@@ -440,20 +450,28 @@ public class PeerGenerator
 			}
 			else if (methodName.equals("jaceDestroyInstance"))
 			{
-				output.write("extern \"C\" JNIEXPORT void JNICALL ");
-				output.write("Java_" + className + "_jaceDestroyInstance(JNIEnv *env, jobject jPeer)"
-										 + newLine);
-				output.write("{" + newLine);
-				output.write("  try" + newLine);
-				output.write("  {" + newLine);
-				output.write("    jclass classId = env->GetObjectClass(jPeer);" + newLine);
-				output.write("    jfieldID fieldId = env->GetFieldID(classId, \"jaceNativeHandle\", \"J\");"
-										 + newLine);
-				output.write("    if (fieldId == 0)" + newLine);
-				output.write("      ::jace::catchAndThrow();" + newLine);
-				output.write("    jlong nativeHandle = env->GetLongField(jPeer, fieldId);" + newLine);
-				output.write("    ::jace::Peer* peer = reinterpret_cast< ::jace::Peer*>(nativeHandle);"
-										 + newLine);
+				String functionName = "Java_" + className + "_jaceDestroyInstance";
+				registeredMethods.add(method);
+				registeredFunctions.add(functionName);
+				output.write("static void JNICALL ");
+				if (method.getAccessFlags().contains(MethodAccessFlag.STATIC))
+				{
+					// Cleanup.PHANTOM: the Java peer is unreachable, so the handle is passed explicitly
+					output.write(functionName + "(JNIEnv *env, jclass jPeerClass, jlong handle)" + newLine);
+					output.write("{" + newLine);
+					output.write("  try" + newLine);
+					output.write("  {" + newLine);
+					output.write("    ::jace::Peer* peer = reinterpret_cast< ::jace::Peer*>(handle);" + newLine);
+				}
+				else
+				{
+					output.write(functionName + "(JNIEnv *env, jobject jPeer)" + newLine);
+					output.write("{" + newLine);
+					output.write("  try" + newLine);
+					output.write("  {" + newLine);
+					output.write("    ::jace::Peer* peer = ::jace::getPeer(env, jPeer, jaceNativeHandleField);"
+											 + newLine);
+				}
 				output.write("    peer->destroy();" + newLine);
 				output.write("    delete peer; " + newLine);
 				output.write("  }" + newLine);
@@ -468,52 +486,10 @@ public class PeerGenerator
 				output.write(newLine);
 				continue;
 			}
-			else if (methodName.equals("jaceSetVm"))
-			{
-				output.write("extern \"C\" JNIEXPORT void JNICALL ");
-				output.write("Java_" + className + "_jaceSetVm(JNIEnv *env, jclass)" + newLine);
-				output.write("{" + newLine);
-				output.write("  try" + newLine);
-				output.write("  {" + newLine);
-				output.write("    if (!::jace::getJavaVm())" + newLine);
-				output.write("    {" + newLine);
-				output.write("      JavaVM* jvm;" + newLine);
-				output.write("      jint result = env->GetJavaVM(&jvm);" + newLine);
-				output.write(newLine);
-				output.write("      if (result != 0)" + newLine);
-				output.write("      {" + newLine);
-				output.write("        std::string msg = std::string(\"" + className
-										 + " ::jaceSetVm\\n\") + " + newLine);
-				output.write("          \"Unable to retrieve the JVM from the JNIEnv* object. The specific JNI error code is \" +"
-										 + newLine);
-				output.write("          ::jace::toString(result);" + newLine);
-				output.write("        throw ::jace::JNIException(msg);" + newLine);
-				output.write("      }" + newLine);
-				output.write("      ::jace::setJavaVm(jvm);" + newLine);
-				output.write("    }" + newLine);
-				output.write(newLine);
-				output.write("  }" + newLine);
-				output.write("  catch (jace::VirtualMachineRunningError&)" + newLine);
-				output.write("  {" + newLine);
-				output.write("    return; // the VM is already set, we're done" + newLine);
-				output.write("  }" + newLine);
-				output.write("  catch (std::exception& e)" + newLine);
-				output.write("  {" + newLine);
-				output.write("    std::cerr << std::string(\"[\") + __FILE__ + \":\" + "
-										 + "jace::toString(__LINE__) +" + newLine);
-				output.write("                 \"] An unexpected JNI error has occurred: \" << e.what() "
-										 + "<< std::endl;" + newLine);
-				output.write("    return;" + newLine);
-				output.write("  }" + newLine);
-				output.write("}" + newLine);
-				output.write(newLine);
-				output.write(newLine);
-				output.write(newLine);
-				continue;
-			}
-
 			// now, handle the normal case
 			String functionName = getNativeMethodName(metaClass, method);
+			registeredMethods.add(method);
+			registeredFunctions.add(functionName);
 
 			MetaClass returnType = MetaClassFactory.getMetaClass(method.getReturnType()).proxy();
 
@@ -534,7 +510,7 @@ public class PeerGenerator
 				++parameterIndex;
 			}
 
-			output.write("extern \"C\" JNIEXPORT " + returnType.getJniType() + " JNICALL " + functionName);
+			output.write("static " + returnType.getJniType() + " JNICALL " + functionName);
 			output.write("(JNIEnv* env, ");
 			output.write(new DelimitedCollection<>(params).toString(", "));
 			output.write(") { " + newLine);
@@ -547,8 +523,9 @@ public class PeerGenerator
 			String target;
 			if (!isStatic)
 			{
-				output.write("    " + fullPeerName + "* peer = dynamic_cast< " + fullPeerName
-										 + "*>(::jace::getPeer(jP0));" + newLine);
+				// The native handle was created from a fullPeerName, so its static type is known
+				output.write("    " + fullPeerName + "* peer = static_cast< " + fullPeerName
+										 + "*>(::jace::getPeer(env, jP0, jaceNativeHandleField));" + newLine);
 				output.write("    assert(peer!=0);" + newLine);
 				target = "peer->";
 			}
@@ -612,7 +589,6 @@ public class PeerGenerator
 			output.write("  {" + newLine);
 			output.write("    env->Throw(static_cast<jthrowable>(env->NewLocalRef(static_cast<jobject>(t))));"
 									 + newLine);
-			output.write("    ::jace::detach();" + newLine);
 			output.write("    return" + returnValue + ";" + newLine);
 			output.write("  }" + newLine);
 			output.write("  catch (std::exception& e)" + newLine);
@@ -627,7 +603,6 @@ public class PeerGenerator
 									 + newLine);
 			output.write("      env->Throw(static_cast<jthrowable>(env->NewLocalRef(static_cast<jobject>(ex))));"
 									 + newLine);
-			output.write("      ::jace::detach();" + newLine);
 			output.write("    }" + newLine);
 			output.write("    catch (jace::VirtualMachineShutdownError&)" + newLine);
 			output.write("    {" + newLine);
@@ -638,6 +613,101 @@ public class PeerGenerator
 			output.write("}" + newLine);
 			output.write(newLine);
 		}
+		generateCppPeerRegistration(output, className, registeredMethods, registeredFunctions);
+	}
+
+	/**
+	 * Generates the table of native methods and the exported jaceSetVm() function that registers
+	 * them.
+	 *
+	 * The remaining JNI mappings have internal linkage: the JVM binds them through
+	 * {@code RegisterNatives()} when the peer class is initialized, instead of searching for an
+	 * exported symbol the first time each method is invoked.
+	 *
+	 * @param output the output writer
+	 * @param className the mangled name of the peer class
+	 * @param registeredMethods the native methods to register
+	 * @param registeredFunctions the names of the functions that implement registeredMethods
+	 * @throws IOException if an error occurs while writing
+	 */
+	private void generateCppPeerRegistration(Writer output, String className,
+																					 List<ClassMethod> registeredMethods, List<String> registeredFunctions)
+		throws IOException
+	{
+		assert (registeredMethods.size() == registeredFunctions.size());
+		if (!registeredMethods.isEmpty())
+		{
+			Util.generateComment(output, "The native methods registered by jaceSetVm().");
+			output.write("static JNINativeMethod jaceNativeMethods[] =" + newLine);
+			output.write("{" + newLine);
+			for (int i = 0; i < registeredMethods.size(); ++i)
+			{
+				ClassMethod method = registeredMethods.get(i);
+				output.write("  {const_cast<char*>(\"" + method.getName() + "\"), const_cast<char*>(\""
+										 + method.getDescriptor() + "\"), reinterpret_cast<void*>(&"
+										 + registeredFunctions.get(i) + ")}");
+				if (i < registeredMethods.size() - 1)
+					output.write(",");
+				output.write(newLine);
+			}
+			output.write("};" + newLine);
+			output.write(newLine);
+		}
+
+		Util.generateComment(output, "The JNI mapping for" + newLine + newLine + "Class: " + className
+																 + newLine + "Method: jaceSetVm" + newLine + "Signature: ()V");
+		output.write("extern \"C\" JNIEXPORT void JNICALL ");
+		output.write("Java_" + className + "_jaceSetVm(JNIEnv *env, jclass jPeerClass)" + newLine);
+		output.write("{" + newLine);
+		output.write("  // Resolve the native handle field once, before any instance is constructed" + newLine);
+		output.write("  jaceNativeHandleField = env->GetFieldID(jPeerClass, \"jaceNativeHandle\", \"J\");"
+								 + newLine);
+		output.write("  if (jaceNativeHandleField == 0)" + newLine);
+		output.write("    return; // NoSuchFieldError is pending" + newLine);
+		output.write(newLine);
+		if (!registeredMethods.isEmpty())
+		{
+			output.write("  // Bind the remaining native methods eagerly, instead of having the JVM look up each one"
+									 + newLine);
+			output.write("  if (env->RegisterNatives(jPeerClass, jaceNativeMethods, "
+									 + "sizeof(jaceNativeMethods) / sizeof(jaceNativeMethods[0])) != 0)" + newLine);
+			output.write("    return; // NoSuchMethodError is pending" + newLine);
+			output.write(newLine);
+		}
+		output.write("  try" + newLine);
+		output.write("  {" + newLine);
+		output.write("    if (!::jace::getJavaVm())" + newLine);
+		output.write("    {" + newLine);
+		output.write("      JavaVM* jvm;" + newLine);
+		output.write("      jint result = env->GetJavaVM(&jvm);" + newLine);
+		output.write(newLine);
+		output.write("      if (result != 0)" + newLine);
+		output.write("      {" + newLine);
+		output.write("        std::string msg = std::string(\"" + className
+								 + " ::jaceSetVm\\n\") + " + newLine);
+		output.write("          \"Unable to retrieve the JVM from the JNIEnv* object. The specific JNI error code is \" +"
+								 + newLine);
+		output.write("          ::jace::toString(result);" + newLine);
+		output.write("        throw ::jace::JNIException(msg);" + newLine);
+		output.write("      }" + newLine);
+		output.write("      ::jace::setJavaVm(jvm);" + newLine);
+		output.write("    }" + newLine);
+		output.write(newLine);
+		output.write("  }" + newLine);
+		output.write("  catch (jace::VirtualMachineRunningError&)" + newLine);
+		output.write("  {" + newLine);
+		output.write("    return; // the VM is already set, we're done" + newLine);
+		output.write("  }" + newLine);
+		output.write("  catch (std::exception& e)" + newLine);
+		output.write("  {" + newLine);
+		output.write("    std::cerr << std::string(\"[\") + __FILE__ + \":\" + "
+								 + "jace::toString(__LINE__) +" + newLine);
+		output.write("                 \"] An unexpected JNI error has occurred: \" << e.what() "
+								 + "<< std::endl;" + newLine);
+		output.write("    return;" + newLine);
+		output.write("  }" + newLine);
+		output.write("}" + newLine);
+		output.write(newLine);
 	}
 
 	/**
@@ -20,8 +20,10 @@ import org.jace.parser.ClassFile;
 import org.jace.proxy.ProxyGenerator.AccessibilityType;
 import org.jace.proxy.ProxyGenerator.FilteringCollection;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,6 +54,7 @@ public class AutoProxy
 	private final ClassPath classPath;
 	private final AccessibilityType accessibility;
 	private final boolean exportSymbols;
+	private final File manifest;
 	/**
 	 * The set of classes to process.
 	 */
@@ -75,6 +78,7 @@ public class AutoProxy
 		this.classPath = builder.classPath;
 		this.accessibility = builder.accessibility;
 		this.exportSymbols = builder.exportSymbols;
+		this.manifest = builder.manifest;
 		this.proxies = new ClassSet(builder.classPath, builder.minimizeDependencies);
 		if (builder.minimizeDependencies)
 			proxies.addClasses(builder.extraDependencies);
@@ -193,6 +197,51 @@ public class AutoProxy
 				exportSymbols(exportSymbols).build().writeProxy(outputHeaders, outputSources);
 			input.close();
 		}
+
+		if (manifest != null)
+			writeManifest(dependencies);
+	}
+
+	/**
+	 * Writes the warm-up manifest of all proxies, including ones that were not regenerated.
+	 *
+	 * @param dependencies the classes that proxies may refer to
+	 * @throws IOException if an error occurs while writing the manifest
+	 * @throws ClassNotFoundException if a class file cannot be found
+	 */
+	private void writeManifest(FilteringCollection dependencies)
+		throws IOException, ClassNotFoundException
+	{
+		File parent = manifest.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs())
+			throw new IOException("Cannot create manifest directory: " + parent.getAbsolutePath());
+		if (log.isTraceEnabled())
+			log.trace("Writing the warm-up manifest to " + manifest + "...");
+		BufferedWriter out = new BufferedWriter(new FileWriter(manifest));
+		try
+		{
+			for (MetaClass proxy: proxies.getClasses())
+			{
+				ClassMetaClass proxyClass = (ClassMetaClass) proxy;
+				TypeName inputName = TypeNameFactory.fromPath(proxyClass.unProxy().getFullyQualifiedTrueName(
+					"/"));
+				InputStream input = classPath.openClass(inputName);
+				try
+				{
+					ClassFile classFile = new ClassFile(input);
+					new ProxyGenerator.Builder(classPath, classFile, dependencies).accessibility(accessibility).
+						build().generateManifest(out);
+				}
+				finally
+				{
+					input.close();
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
 	}
 
 	/**
@@ -340,7 +389,9 @@ public class AutoProxy
 					 + "Where options can be:"
 					 + newLine + "  -mindep " + newLine
 					 + "  -extraDependencies=<comma-separated list of classes>" + newLine
-					 + "  -exportsymbols" + newLine + "  -public    : Generate public fields and methods."
+					 + "  -exportsymbols" + newLine
+					 + "  -manifest=<file> : Write the warm-up manifest of the proxies to a file." + newLine
+					 + "  -public    : Generate public fields and methods."
 					 + newLine
 					 + "  -protected : Generate public, protected fields and methods." + newLine
 					 + "  -package : Generate public, protected, package-private fields and methods."
@@ -366,7 +417,7 @@ public class AutoProxy
 	@SuppressWarnings("UseOfSystemOutOrSystemErr")
 	public static void main(String[] args)
 	{
-		if (args.length < 5 || args.length > 7)
+		if (args.length < 5 || args.length > 8)
 		{
 			System.out.println(getUsage());
 			return;
@@ -386,6 +437,7 @@ public class AutoProxy
 		boolean minimizeDependencies = false;
 		Set<TypeName> extraDependencies = Sets.newHashSetWithExpectedSize(args.length - 5);
 		boolean exportSymbols = false;
+		File manifest = null;
 		AccessibilityType accessibility = AccessibilityType.PUBLIC;
 		for (int i = 5; i < args.length; ++i)
 		{
@@ -402,6 +454,8 @@ public class AutoProxy
 			}
 			else if (option.equals("-exportsymbols"))
 				exportSymbols = true;
+			else if (option.startsWith("-manifest="))
+				manifest = new File(option.substring("-manifest=".length()));
 			else if (option.equals("-public"))
 				accessibility = AccessibilityType.PUBLIC;
 			else if (option.equals("-protected"))
@@ -422,7 +476,7 @@ public class AutoProxy
 		AutoProxy.Builder autoProxy = new AutoProxy.Builder(inputHeaders, inputSources, outputHeaders,
 			outputSources,
 			new ClassPath(classPath)).accessibility(accessibility).minimizeDependencies(
-			minimizeDependencies).exportSymbols(exportSymbols);
+			minimizeDependencies).exportSymbols(exportSymbols).manifest(manifest);
 		for (TypeName dependency: extraDependencies)
 			autoProxy.extraDependency(dependency);
 		Logger log = LoggerFactory.getLogger(AutoProxy.class);
@@ -457,6 +511,7 @@ public class AutoProxy
 		private boolean minimizeDependencies = true;
 		private final Set<TypeName> extraDependencies = Sets.newHashSet();
 		private boolean exportSymbols;
+		private File manifest;
 
 		/**
 		 * Creates a new AutoProxy.
@@ -573,6 +628,21 @@ public class AutoProxy
 			return this;
 		}
 
+		/**
+		 * Indicates where the warm-up manifest should be written. The manifest lists the classes,
+		 * methods and fields used by the proxies, and may be passed to jace::warmUp() to resolve them
+		 * when the application starts.
+		 *
+		 * @param manifest
+		 *        The manifest file, or <code>null</code> if no manifest should be written. The default is null.
+		 * @return the Builder
+		 */
+		public Builder manifest(File manifest)
+		{
+			this.manifest = manifest;
+			return this;
+		}
+
 		/**
 		 * Generates the proxies.
 		 *
@@ -158,13 +158,19 @@ public class ProxyGenerator
 
 		output.write("#include \"jace/JArguments.h\"" + newLine);
 		output.write("#include \"jace/JMethod.h\"" + newLine);
+		output.write("#include \"jace/JConstructor.h\"" + newLine);
 		output.write("#include \"jace/JField.h\"" + newLine);
 		output.write("#include \"jace/JClassImpl.h\"" + newLine);
 		String className = classFile.getClassName().asIdentifier();
 		if (className.equals("java.lang.String"))
+		{
 			output.write("#include \"jace/proxy/java/lang/Integer.h\"" + newLine);
+			output.write("#include \"jace/MemberRegistry.h\"" + newLine);
+			output.write("#include \"jace/StringConversion.h\"" + newLine);
+		}
 
 		output.write("#include \"jace/BoostWarningOff.h\"" + newLine);
+		output.write("#include <boost/atomic.hpp>" + newLine);
 		output.write("#include <boost/thread/mutex.hpp>" + newLine);
 		output.write("#include \"jace/BoostWarningOn.h\"" + newLine);
 	}
@@ -294,6 +300,7 @@ public class ProxyGenerator
 	{
 		MetaClass metaClass = MetaClassFactory.getMetaClass(classFile.getClassName()).proxy();
 		String className = metaClass.getSimpleName();
+		int callSites = 0;
 
 		// go through all of the methods
 		for (ClassMethod method: classFile.getMethods())
@@ -327,6 +334,26 @@ public class ProxyGenerator
 				}
 			}
 
+			// Resolve the method once per call site, using the signature from the class file. File-level
+			// statics are initialized before any thread can invoke the method, and do not invoke JNI
+			// until they are used.
+			String callSite;
+			if (isConstructor)
+			{
+				callSite = "jaceConstructor" + callSites;
+				output.write("static JConstructor " + callSite + "(&" + className + "::staticGetJavaJniClass, \""
+										 + method.getDescriptor() + "\");" + newLine);
+			}
+			else
+			{
+				callSite = "jaceMethod" + callSites;
+				output.write("static JMethod< ::" + returnType.getFullyQualifiedName("::") + " > " + callSite
+										 + "(&" + className + "::staticGetJavaJniClass, \"" + method.getName() + "\", \""
+										 + method.getDescriptor() + "\");" + newLine);
+			}
+			++callSites;
+			output.write(newLine);
+
 			// If this is a constructor, there is no return-type
 			if (isConstructor)
 				output.write(className + " " + className + "::Factory::create");
@@ -376,9 +403,8 @@ public class ProxyGenerator
 					output.write(";" + newLine);
 				}
 
-				// set the jni object for this c++ object to the result of the call to newObject
-				output.write("  jobject localRef = newObject(" + className
-										 + "::staticGetJavaJniClass(), arguments);" + newLine);
+				// set the jni object for this c++ object to the result of the call to the constructor
+				output.write("  jobject localRef = " + callSite + ".invoke(arguments);" + newLine);
 				output.write("  " + className + " result = " + className + "(localRef);" + newLine);
 				output.write("  JNIEnv* env = attach();" + newLine);
 				output.write("  deleteLocalRef(env, localRef);" + newLine);
@@ -410,10 +436,7 @@ public class ProxyGenerator
 				if (!returnType.getSimpleName().equals("JVoid"))
 					output.write("return ");
 
-				output.write("JMethod< ");
-				output.write("::" + returnType.getFullyQualifiedName("::"));
-				output.write(" >");
-				output.write("(\"" + methodName + "\").invoke(");
+				output.write(callSite + ".invoke(");
 
 				// If this method is static, we need to provide the class info, otherwise we provide a reference to itself.
 				if (method.getAccessFlags().contains(MethodAccessFlag.STATIC))
@@ -428,6 +451,17 @@ public class ProxyGenerator
 
 		if (!forPeer)
 		{
+			// Throwable caches the result of what() in msg, which must follow the Java object
+			boolean isThrowable;
+			try
+			{
+				isThrowable = isException(classFile.getClassName());
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IOException(e);
+			}
+
 			Util.generateComment(output, "Creates a new null reference." + newLine + newLine
 																	 + "All subclasses of JObject should provide this constructor"
 																	 + newLine
@@ -454,8 +488,46 @@ public class ProxyGenerator
 									 + newLine);
 			output.write("{" + newLine);
 			output.write("  setJavaJniObject(object);" + newLine);
+			if (isThrowable)
+				output.write("  msg = object.msg;" + newLine);
 			output.write("}" + newLine);
 			output.write(newLine);
+
+			// Assign JObject once, instead of once per superclass
+			output.write(className + "& " + className + "::operator=(const " + className + "& object)"
+									 + newLine);
+			output.write("{" + newLine);
+			output.write("  setJavaJniObject(object);" + newLine);
+			if (isThrowable)
+				output.write("  msg = object.msg;" + newLine);
+			output.write("  return *this;" + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write("#ifndef BOOST_NO_CXX11_RVALUE_REFERENCES" + newLine);
+			output.write(className + "::" + className + "(" + className + "&& object) "
+									 + getInitializerName()
+									 + newLine);
+			output.write("{" + newLine);
+			output.write("  takeJavaJniObject(object);" + newLine);
+			if (isThrowable)
+				output.write("  msg.swap(object.msg);" + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write(className + "& " + className + "::operator=(" + className + "&& object)"
+									 + newLine);
+			output.write("{" + newLine);
+			output.write("  takeJavaJniObject(object);" + newLine);
+			if (isThrowable)
+			{
+				output.write("  msg.clear();" + newLine);
+				output.write("  msg.swap(object.msg);" + newLine);
+			}
+			output.write("  return *this;" + newLine);
+			output.write("}" + newLine);
+			output.write("#endif" + newLine);
+			output.write(newLine);
 		}
 
 		// Now define the special "one-off" methods that we add to classes like,
@@ -491,10 +563,29 @@ public class ProxyGenerator
 			output.write("}" + newLine);
 			output.write(newLine);
 
-			output.write("String& String::operator=(const String& str)" + newLine);
+			output.write("String::String(const std::string& str, ::jace::StringCache& cache)" + newLine);
 			output.write("{" + newLine);
-			output.write("  setJavaJniObject(str);" + newLine);
-			output.write("  return *this;" + newLine);
+			output.write("  // Shares the cached reference, without invoking any JNI functions" + newLine);
+			output.write("  setJavaJniObject(cache.get(str));" + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write("String::String(const std::wstring& str)" + newLine);
+			output.write("{" + newLine);
+			output.write("  JNIEnv* env = attach();" + newLine);
+			output.write("  jstring strRef = ::jace::newStringUTF16(env, str);" + newLine);
+			output.write("  setJavaJniObject(strRef);" + newLine);
+			output.write("  deleteLocalRef(env, strRef);" + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write("String String::fromUTF8(const std::string& str)" + newLine);
+			output.write("{" + newLine);
+			output.write("  JNIEnv* env = attach();" + newLine);
+			output.write("  jstring strRef = ::jace::newStringUTF8(env, str);" + newLine);
+			output.write("  String result(strRef);" + newLine);
+			output.write("  deleteLocalRef(env, strRef);" + newLine);
+			output.write("  return result;" + newLine);
 			output.write("}" + newLine);
 			output.write(newLine);
 
@@ -504,7 +595,14 @@ public class ProxyGenerator
 			output.write("  jstring thisString = static_cast<jstring>(static_cast<jobject>(*this));"
 									 + newLine);
 			output.write("  jclass cls = getJavaJniClass().getClass();" + newLine);
-			output.write("  jmethodID getBytes = env->GetMethodID(cls, \"getBytes\", \"()[B\");" + newLine);
+			output.write("  jmethodID getBytes = ::jace::MemberRegistry::getMethodID(env, cls, \"getBytes\", "
+									 + "\"()[B\", false);" + newLine);
+			output.write("  if (!getBytes)" + newLine);
+			output.write("  {" + newLine);
+			output.write("    catchAndThrow();" + newLine);
+			output.write("    throw JNIException(\"String::operator std::string() - Unable to find String.getBytes().\");"
+									 + newLine);
+			output.write("  }" + newLine);
 			output.write("  jbyteArray array = static_cast<jbyteArray>(env->CallObjectMethod(thisString, getBytes));"
 									 + newLine);
 			output.write(newLine);
@@ -516,24 +614,49 @@ public class ProxyGenerator
 									 + newLine);
 			output.write("  }" + newLine);
 			output.write(newLine);
-			output.write("  int arraySize = env->GetArrayLength(array);" + newLine);
-			output.write("  jbyte* byteArray = env->GetByteArrayElements(array, 0);" + newLine);
-			output.write(newLine);
-			output.write("  if (!byteArray)" + newLine);
-			output.write("  {" + newLine);
-			output.write("    env->ExceptionDescribe();" + newLine);
-			output.write("    env->ExceptionClear();" + newLine);
-			output.write("    throw JNIException(\"String::operator std::string() - Unable to get the "
-									 + "contents of the java String.\");" + newLine);
-			output.write("  }" + newLine);
-			output.write(newLine);
-			output.write("  std::string str((char*) byteArray, (char*) byteArray + arraySize);" + newLine);
-			output.write("  env->ReleaseByteArrayElements(array, byteArray, JNI_ABORT);" + newLine);
+			output.write("  // Copy the bytes straight into the result instead of pinning the array" + newLine);
+			output.write("  jsize arraySize = env->GetArrayLength(array);" + newLine);
+			output.write("  std::string str(arraySize, '\\0');" + newLine);
+			output.write("  if (arraySize > 0)" + newLine);
+			output.write("    env->GetByteArrayRegion(array, 0, arraySize, reinterpret_cast<jbyte*>(&str[0]));"
+									 + newLine);
 			output.write("  deleteLocalRef(env, array);" + newLine);
 			output.write("  return str;" + newLine);
 			output.write("}" + newLine);
 			output.write(newLine);
 
+			output.write("String::operator std::wstring() const" + newLine);
+			output.write("{" + newLine);
+			output.write("  std::wstring result;" + newLine);
+			output.write("  toWString(result);" + newLine);
+			output.write("  return result;" + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write("std::string String::toUTF8() const" + newLine);
+			output.write("{" + newLine);
+			output.write("  std::string result;" + newLine);
+			output.write("  toUTF8(result);" + newLine);
+			output.write("  return result;" + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write("void String::toUTF8(std::string& buffer) const" + newLine);
+			output.write("{" + newLine);
+			output.write("  JNIEnv* env = attach();" + newLine);
+			output.write("  ::jace::getStringUTF8(env, static_cast<jstring>(static_cast<jobject>(*this)), buffer);"
+									 + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
+			output.write("void String::toWString(std::wstring& buffer) const" + newLine);
+			output.write("{" + newLine);
+			output.write("  JNIEnv* env = attach();" + newLine);
+			output.write("  ::jace::getStringUTF16(env, static_cast<jstring>(static_cast<jobject>(*this)), buffer);"
+									 + newLine);
+			output.write("}" + newLine);
+			output.write(newLine);
+
 			Util.generateComment(output,
 				"Creates a new jstring from a std::string using the platform's default charset.");
 			output.write("jstring String::createString(const std::string& str)" + newLine);
@@ -559,9 +682,18 @@ public class ProxyGenerator
 			output.write(newLine);
 			output.write("  env->SetByteArrayRegion(jbuf, 0, bufLen, (jbyte*) str.c_str());" + newLine);
 			output.write("  jclass cls = getJavaJniClass().getClass();" + newLine);
-			output.write("  jmethodID init = env->GetMethodID(cls, \"<init>\", \"([BII)V\");" + newLine);
+			output.write("  jmethodID init = ::jace::MemberRegistry::getMethodID(env, cls, \"<init>\", "
+									 + "\"([BII)V\", false);" + newLine);
+			output.write("  if (!init)" + newLine);
+			output.write("  {" + newLine);
+			output.write("    deleteLocalRef(env, jbuf);" + newLine);
+			output.write("    catchAndThrow();" + newLine);
+			output.write("    throw JNIException(\"String::createString - Unable to find String(byte[], int, int).\");"
+									 + newLine);
+			output.write("  }" + newLine);
 			output.write("  jstring jstr = static_cast<jstring>(env->NewObject(cls, init, jbuf, 0, bufLen)); "
 									 + newLine);
+			output.write("  deleteLocalRef(env, jbuf);" + newLine);
 			output.write(newLine);
 			output.write("  if (!jstr)" + newLine);
 			output.write("  {" + newLine);
@@ -571,7 +703,6 @@ public class ProxyGenerator
 									 + newLine);
 			output.write("  }" + newLine);
 			output.write(newLine);
-			output.write("  deleteLocalRef(env, jbuf);" + newLine);
 			output.write("  return jstr;" + newLine);
 			output.write("}" + newLine);
 			output.write(newLine);
@@ -625,9 +756,24 @@ public class ProxyGenerator
 									 + newLine);
 			output.write("  Throwable* t = const_cast<Throwable*>(this);" + newLine);
 			output.write(newLine);
-			output.write("  /* Get the string contents of this exception." + newLine);
+			output.write("  /* Get the string contents of this exception on first access." + newLine);
+			output.write("   * toString() never returns an empty string, so an empty msg has not been computed yet."
+									 + newLine);
 			output.write("   */" + newLine);
-			output.write("  t->msg = t->toString();" + newLine);
+			output.write("  if (t->msg.empty())" + newLine);
+			output.write("  {" + newLine);
+			output.write("    try" + newLine);
+			output.write("    {" + newLine);
+			output.write("      if (::jace::isExceptionMessagesEnabled())" + newLine);
+			output.write("        t->msg = t->toString();" + newLine);
+			output.write("      else" + newLine);
+			output.write("        return getJavaJniClass().getInternalName().c_str();" + newLine);
+			output.write("    }" + newLine);
+			output.write("    catch (std::exception&)" + newLine);
+			output.write("    {" + newLine);
+			output.write("      return \"Unable to retrieve the exception message\";" + newLine);
+			output.write("    }" + newLine);
+			output.write("  }" + newLine);
 			output.write(newLine);
 			output.write("  /* Return a handle to the msg." + newLine);
 			output.write("   */" + newLine);
@@ -680,7 +826,7 @@ public class ProxyGenerator
 				continue;
 
 			String name = field.getName();
-			if (forPeer && name.equals("jaceNativeHandle"))
+			if (forPeer && (name.equals("jaceNativeHandle") || name.equals("jaceCleanable")))
 				continue;
 
 			// handle clashes between C++ keywords and java identifiers
@@ -767,7 +913,7 @@ public class ProxyGenerator
 			output.write("  // to get invoked multiple times (once per superclass). Instead" + newLine);
 			output.write("  // we invoke each superclass' default constructor and initialize" + newLine);
 			output.write("  // JObject once." + newLine);
-			output.write("  setJavaJniValue(jPeer);" + newLine);
+			output.write("  setJavaJniObject(jPeer);" + newLine);
 			output.write("}" + newLine);
 			output.write(newLine);
 
@@ -777,15 +923,21 @@ public class ProxyGenerator
 		}
 
 		output.write("static boost::mutex javaClassMutex;" + newLine);
+		output.write("static boost::atomic<JClassImpl*> javaClass(0);" + newLine);
 		output.write("const JClass& " + className
 								 + "::staticGetJavaJniClass() throw (::jace::JNIException)" + newLine);
 		output.write("{" + newLine);
+		output.write("  JClassImpl* cached = javaClass.load(boost::memory_order_acquire);" + newLine);
+		output.write("  if (cached != 0)" + newLine);
+		output.write("    return *cached;" + newLine);
+		output.write(newLine);
 		output.write("  static boost::shared_ptr<JClassImpl> result;" + newLine);
 		output.write("  boost::mutex::scoped_lock lock(javaClassMutex);" + newLine);
 		output.write("  if (result == 0)" + newLine);
 		output.write("    result = boost::shared_ptr<JClassImpl>(new JClassImpl(\"" + classFile.
 			getClassName() + "\"));"
 								 + newLine);
+		output.write("  javaClass.store(result.get(), boost::memory_order_release);" + newLine);
 		output.write("  return *result;" + newLine);
 		output.write("}" + newLine);
 		output.write(newLine);
@@ -1519,6 +1671,25 @@ public class ProxyGenerator
 			output.write("JACE_PROXY_API ");
 		output.write(metaClass.getSimpleName() + "(const " + metaClass.getSimpleName() + "&);" + newLine);
 
+		Util.generateComment(output, "Refer to the same object as an existing reference.");
+		if (exportSymbols)
+			output.write("JACE_PROXY_API ");
+		output.write(metaClass.getSimpleName() + "& operator=(const " + metaClass.getSimpleName() + "&);"
+								 + newLine);
+
+		output.write("#ifndef BOOST_NO_CXX11_RVALUE_REFERENCES" + newLine);
+		Util.generateComment(output, "Take over an existing reference, leaving it null.");
+		if (exportSymbols)
+			output.write("JACE_PROXY_API ");
+		output.write(metaClass.getSimpleName() + "(" + metaClass.getSimpleName() + "&&);" + newLine);
+
+		Util.generateComment(output, "Take over an existing reference, leaving it null.");
+		if (exportSymbols)
+			output.write("JACE_PROXY_API ");
+		output.write(metaClass.getSimpleName() + "& operator=(" + metaClass.getSimpleName() + "&&);"
+								 + newLine);
+		output.write("#endif" + newLine);
+
 		output.write(nonConstructors.toString());
 
 		if (exportSymbols)
@@ -1559,16 +1730,21 @@ public class ProxyGenerator
 				output.write("JACE_PROXY_API ");
 			output.write("String(const std::string&);" + newLine);
 
+			Util.generateComment(output,
+				"Returns the interned String corresponding to a std::string, looking it up in a cache.");
+			if (exportSymbols)
+				output.write("JACE_PROXY_API ");
+			output.write("String(const std::string&, ::jace::StringCache&);" + newLine);
+
 			Util.generateComment(output, "Creates a String from a std::wstring.");
 			if (exportSymbols)
 				output.write("JACE_PROXY_API ");
 			output.write("String(const std::wstring&);" + newLine);
 
-			Util.generateComment(output, "Handle assignment between two Strings.");
+			Util.generateComment(output, "Creates a String from a modified UTF-8 std::string.");
 			if (exportSymbols)
 				output.write("JACE_PROXY_API ");
-			output.write("String& operator=(const String& str);" + newLine);
-			output.write(newLine);
+			output.write("static String fromUTF8(const std::string&);" + newLine);
 
 			Util.generateComment(output, "Converts a String to a std::string.");
 			if (exportSymbols)
@@ -1582,6 +1758,26 @@ public class ProxyGenerator
 			output.write("operator std::wstring() const;" + newLine);
 			output.write(newLine);
 
+			Util.generateComment(output, "Converts a String to a modified UTF-8 std::string.");
+			if (exportSymbols)
+				output.write("JACE_PROXY_API ");
+			output.write("std::string toUTF8() const;" + newLine);
+			output.write(newLine);
+
+			Util.generateComment(output,
+				"Converts a String to modified UTF-8, reusing the capacity of an existing buffer.");
+			if (exportSymbols)
+				output.write("JACE_PROXY_API ");
+			output.write("void toUTF8(std::string& buffer) const;" + newLine);
+			output.write(newLine);
+
+			Util.generateComment(output,
+				"Converts a String to a std::wstring, reusing the capacity of an existing buffer.");
+			if (exportSymbols)
+				output.write("JACE_PROXY_API ");
+			output.write("void toWString(std::wstring& buffer) const;" + newLine);
+			output.write(newLine);
+
 			Util.generateComment(output, "Allows Strings to be written to ostreams.");
 			if (exportSymbols)
 				output.write("JACE_PROXY_API ");
@@ -1627,7 +1823,9 @@ public class ProxyGenerator
 			output.write("~Throwable() throw ();" + newLine);
 			output.write(newLine);
 
-			Util.generateComment(output, "Overrides std::exception::what() by returning this.toString();");
+			Util.generateComment(output, "Overrides std::exception::what() by returning this.toString();"
+																	 + newLine + newLine
+																	 + "The message is retrieved on first access.");
 			if (exportSymbols)
 				output.write("JACE_PROXY_API ");
 			output.write("const char* what() const throw();" + newLine);
@@ -1667,7 +1865,7 @@ public class ProxyGenerator
 
 			String name = field.getName();
 
-			if (forPeer && name.equals("jaceNativeHandle"))
+			if (forPeer && (name.equals("jaceNativeHandle") || name.equals("jaceCleanable")))
 				continue;
 
 			// handle clashes between C++ keywords and java identifiers by appending an underscore to the end of the java
@@ -1712,8 +1910,10 @@ public class ProxyGenerator
 			Util.generateComment(output, "The message represented by this Throwable." + newLine + newLine
 																	 + "This member variable is necessary to keep the contract"
 																	 + newLine
-																	 + "for exception.what().");
-			output.write("private: " + newLine);
+																	 + "for exception.what(). Subclasses copy it along with the"
+																	 + newLine
+																	 + "Java object.");
+			output.write("protected: " + newLine);
 			output.write("std::string msg;" + newLine);
 			output.write("public: " + newLine);
 			output.write(newLine);
@@ -1867,6 +2067,11 @@ public class ProxyGenerator
 				output.write("#include <string>" + newLine);
 				output.write(newLine);
 			}
+			if (className.equals("java.lang.String"))
+			{
+				output.write("#include \"jace/StringCache.h\"" + newLine);
+				output.write(newLine);
+			}
 		}
 	}
 
@@ -2020,6 +2225,61 @@ public class ProxyGenerator
 			result.add(classType);
 	}
 
+	/**
+	 * Generates the warm-up manifest entries for the class.
+	 *
+	 * Each line lists the class, or a method or field that the proxy resolves at runtime, in the
+	 * format read by jace::warmUp():
+	 *
+	 * <pre>
+	 * class java/lang/Integer
+	 * method java/lang/Integer intValue ()I
+	 * static-method java/lang/Integer valueOf (I)Ljava/lang/Integer;
+	 * static-field java/lang/Integer MAX_VALUE I
+	 * </pre>
+	 *
+	 * @param output the output writer
+	 * @throws IOException if an error occurs while writing
+	 */
+	public void generateManifest(Writer output) throws IOException
+	{
+		String className = classFile.getClassName().asPath();
+		output.write("class " + className + newLine);
+
+		for (ClassMethod method: classFile.getMethods())
+		{
+			if (shouldBeSkipped(method))
+				continue;
+			if (!isPartOfDependencies(method))
+				continue;
+			String methodName = method.getName();
+			if (methodName.equals("<clinit>"))
+				continue;
+			String kind;
+			if (method.getAccessFlags().contains(MethodAccessFlag.STATIC))
+				kind = "static-method";
+			else
+				kind = "method";
+			output.write(kind + " " + className + " " + methodName + " " + method.getDescriptor() + newLine);
+		}
+
+		for (ClassField field: classFile.getFields())
+		{
+			if (shouldBeSkipped(field))
+				continue;
+			MetaClass mc = MetaClassFactory.getMetaClass(field.getDescriptor()).proxy();
+			if (!dependencyFilter.accept(mc))
+				continue;
+			String kind;
+			if (field.getAccessFlags().contains(FieldAccessFlag.STATIC))
+				kind = "static-field";
+			else
+				kind = "field";
+			output.write(kind + " " + className + " " + field.getName() + " "
+									 + field.getDescriptor().asDescriptor() + newLine);
+		}
+	}
+
 	/**
 	 * Generates the C++ proxy (header and source) for the specified class.
 	 *
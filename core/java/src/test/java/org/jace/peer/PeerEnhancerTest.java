@@ -0,0 +1,195 @@
+package org.jace.peer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import static org.junit.Assert.*;
+
+/**
+ * Tests PeerEnhancer.
+ *
+ * @author Gili Tzabari
+ */
+public class PeerEnhancerTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Returns the class file of the test peer.
+	 *
+	 * @return the class file of the test peer
+	 * @throws URISyntaxException if the class file is not a file
+	 */
+	static File getWidgetClass() throws URISyntaxException
+	{
+		return new File(Widget.class.getResource("Widget.class").toURI());
+	}
+
+	/**
+	 * Enhances the test peer.
+	 *
+	 * @param output the enhanced class file
+	 * @param cleanup the cleanup mechanism
+	 * @param deallocationMethod the name of the deallocation method, or null
+	 * @throws IOException if an I/O error occurs
+	 * @throws URISyntaxException if the class file is not a file
+	 */
+	static void enhanceWidget(File output, PeerEnhancer.Cleanup cleanup, String deallocationMethod)
+		throws IOException, URISyntaxException
+	{
+		new PeerEnhancer.Builder(getWidgetClass(), output).library("widget").cleanup(cleanup).
+			deallocationMethod(deallocationMethod).enhance();
+	}
+
+	/**
+	 * Enhances the test peer and parses the result.
+	 *
+	 * @param cleanup the cleanup mechanism
+	 * @param deallocationMethod the name of the deallocation method, or null
+	 * @return the enhanced class
+	 * @throws IOException if an I/O error occurs
+	 * @throws URISyntaxException if the class file is not a file
+	 */
+	private ClassNode enhance(PeerEnhancer.Cleanup cleanup, String deallocationMethod)
+		throws IOException, URISyntaxException
+	{
+		File output = new File(folder.getRoot(), "Widget.class");
+		enhanceWidget(output, cleanup, deallocationMethod);
+		try (InputStream in = new BufferedInputStream(new FileInputStream(output)))
+		{
+			ClassNode result = new ClassNode();
+			new ClassReader(in).accept(result, 0);
+			return result;
+		}
+	}
+
+	/**
+	 * Returns a field.
+	 *
+	 * @param classNode the class
+	 * @param name the name of the field
+	 * @return null if the field was not found
+	 */
+	private static FieldNode getField(ClassNode classNode, String name)
+	{
+		for (Object o: classNode.fields)
+		{
+			FieldNode field = (FieldNode) o;
+			if (field.name.equals(name))
+				return field;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a method.
+	 *
+	 * @param classNode the class
+	 * @param name the name of the method
+	 * @return null if the method was not found
+	 */
+	private static MethodNode getMethod(ClassNode classNode, String name)
+	{
+		for (Object o: classNode.methods)
+		{
+			MethodNode method = (MethodNode) o;
+			if (method.name.equals(name))
+				return method;
+		}
+		return null;
+	}
+
+	/**
+	 * Indicates if a method invokes another method.
+	 *
+	 * @param method the calling method
+	 * @param owner the internal name of the class declaring the invoked method
+	 * @param name the name of the invoked method
+	 * @return true if {@code method} invokes {@code owner.name}
+	 */
+	private static boolean invokes(MethodNode method, String owner, String name)
+	{
+		for (Iterator<?> i = method.instructions.iterator(); i.hasNext();)
+		{
+			AbstractInsnNode instruction = (AbstractInsnNode) i.next();
+			if (instruction.getType() != AbstractInsnNode.METHOD_INSN)
+				continue;
+			MethodInsnNode invocation = (MethodInsnNode) instruction;
+			if (invocation.owner.equals(owner) && invocation.name.equals(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Peers that use a finalizer destroy themselves using an instance method.
+	 */
+	@Test
+	public void testFinalizer() throws IOException, URISyntaxException
+	{
+		ClassNode classNode = enhance(PeerEnhancer.Cleanup.FINALIZER, null);
+
+		MethodNode destroy = getMethod(classNode, "jaceDestroyInstance");
+		assertNotNull(destroy);
+		assertEquals("()V", destroy.desc);
+		assertEquals(0, destroy.access & Opcodes.ACC_STATIC);
+		assertNotNull(getMethod(classNode, "finalize"));
+		assertNull(getField(classNode, "jaceCleanable"));
+		assertFalse(invokes(getMethod(classNode, "<init>"), "org/jace/util/PeerCleaner", "register"));
+	}
+
+	/**
+	 * Phantom peers register with PeerCleaner, and are destroyed by a static method that does not
+	 * depend on the Java peer.
+	 */
+	@Test
+	public void testPhantom() throws IOException, URISyntaxException
+	{
+		ClassNode classNode = enhance(PeerEnhancer.Cleanup.PHANTOM, null);
+
+		MethodNode destroy = getMethod(classNode, "jaceDestroyInstance");
+		assertNotNull(destroy);
+		assertEquals("(J)V", destroy.desc);
+		assertEquals(Opcodes.ACC_STATIC | Opcodes.ACC_NATIVE,
+			destroy.access & (Opcodes.ACC_STATIC | Opcodes.ACC_NATIVE));
+		assertNull("Phantom peers must not be finalizable", getMethod(classNode, "finalize"));
+
+		FieldNode cleanable = getField(classNode, "jaceCleanable");
+		assertNotNull(cleanable);
+		assertEquals("Ljava/lang/Object;", cleanable.desc);
+		assertTrue(invokes(getMethod(classNode, "<init>"), "org/jace/util/PeerCleaner", "register"));
+		assertTrue(invokes(getMethod(classNode, "jaceDispose"), "org/jace/util/PeerCleaner$Cleanable",
+			"clean"));
+	}
+
+	/**
+	 * Phantom peers that have a deallocation method but no finalizer are never destroyed
+	 * automatically, so they do not register with PeerCleaner.
+	 */
+	@Test
+	public void testPhantomWithDeallocationMethod() throws IOException, URISyntaxException
+	{
+		ClassNode classNode = enhance(PeerEnhancer.Cleanup.PHANTOM, "close");
+
+		assertNull(getField(classNode, "jaceCleanable"));
+		assertFalse(invokes(getMethod(classNode, "<init>"), "org/jace/util/PeerCleaner", "register"));
+		assertTrue(invokes(getMethod(classNode, "jaceDispose"), "org/jace/peer/Widget",
+			"jaceDestroyInstance"));
+		assertTrue(invokes(getMethod(classNode, "close"), "org/jace/peer/Widget", "jaceUserClose"));
+	}
+}
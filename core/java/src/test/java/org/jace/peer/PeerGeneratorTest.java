@@ -0,0 +1,127 @@
+package org.jace.peer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.jace.parser.ClassFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests PeerGenerator.
+ *
+ * @author Gili Tzabari
+ */
+public class PeerGeneratorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Enhances and generates the test peer.
+	 *
+	 * @param cleanup the cleanup mechanism
+	 * @return the contents of the generated JNI mappings
+	 * @throws IOException if an I/O error occurs
+	 * @throws URISyntaxException if the class file is not a file
+	 */
+	private String generateMappings(PeerEnhancer.Cleanup cleanup) throws IOException, URISyntaxException
+	{
+		File classFile = new File(folder.getRoot(), "Widget.class");
+		PeerEnhancerTest.enhanceWidget(classFile, cleanup, null);
+		File includeDir = folder.newFolder("include");
+		File sourceDir = folder.newFolder("source");
+		new PeerGenerator(new ClassFile(classFile), classFile.lastModified(), includeDir, sourceDir,
+			false).generate();
+
+		File mappings = new File(sourceDir, "jace/peer/org/jace/peer/WidgetMappings.cpp".
+			replace('/', File.separatorChar));
+		assertTrue(mappings + " was not generated", mappings.exists());
+		return new String(Files.readAllBytes(mappings.toPath()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of times that a string occurs in another string.
+	 *
+	 * @param text the string to search
+	 * @param value the string to search for
+	 * @return the number of occurrences
+	 */
+	private static int count(String text, String value)
+	{
+		int result = 0;
+		for (int i = text.indexOf(value); i != -1; i = text.indexOf(value, i + value.length()))
+			++result;
+		return result;
+	}
+
+	/**
+	 * Phantom peers are destroyed using a static jaceDestroyInstance(long), which receives the native
+	 * handle because the Java peer is no longer reachable.
+	 */
+	@Test
+	public void testDestroyInstancePhantom() throws IOException, URISyntaxException
+	{
+		String mappings = generateMappings(PeerEnhancer.Cleanup.PHANTOM);
+
+		assertTrue(mappings.contains("Java_org_jace_peer_Widget_jaceDestroyInstance("
+																 + "JNIEnv *env, jclass jPeerClass, jlong handle)"));
+		assertTrue(mappings.contains("::jace::Peer* peer = reinterpret_cast< ::jace::Peer*>(handle);"));
+		assertFalse(mappings.contains("Java_org_jace_peer_Widget_jaceDestroyInstance(JNIEnv *env, jobject jPeer)"));
+	}
+
+	/**
+	 * Finalizer peers keep the instance jaceDestroyInstance(), which looks up the native handle.
+	 */
+	@Test
+	public void testDestroyInstanceFinalizer() throws IOException, URISyntaxException
+	{
+		String mappings = generateMappings(PeerEnhancer.Cleanup.FINALIZER);
+
+		assertTrue(mappings.contains("Java_org_jace_peer_Widget_jaceDestroyInstance(JNIEnv *env, jobject jPeer)"));
+		assertFalse(mappings.contains("jlong handle)"));
+	}
+
+	/**
+	 * Native methods are bound by RegisterNatives(), so only jaceSetVm() is exported.
+	 */
+	@Test
+	public void testRegisterNatives() throws IOException, URISyntaxException
+	{
+		String mappings = generateMappings(PeerEnhancer.Cleanup.FINALIZER);
+
+		assertTrue(mappings.contains("static JNINativeMethod jaceNativeMethods[]"));
+		assertTrue(mappings.contains("{const_cast<char*>(\"area\"), "
+																 + "const_cast<char*>(\"(ILjava/lang/String;)I\"), "
+																 + "reinterpret_cast<void*>(&Java_org_jace_peer_Widget_area__ILjava_lang_String_2)}"));
+		assertTrue(mappings.contains("{const_cast<char*>(\"ping\"), const_cast<char*>(\"()V\"), "
+																 + "reinterpret_cast<void*>(&Java_org_jace_peer_Widget_ping__)}"));
+		assertTrue(mappings.contains("{const_cast<char*>(\"jaceDestroyInstance\"), "
+																 + "const_cast<char*>(\"()V\")"));
+		assertTrue(mappings.contains("env->RegisterNatives(jPeerClass, jaceNativeMethods, "));
+
+		assertEquals(1, count(mappings, "JNIEXPORT"));
+		assertTrue(mappings.contains("extern \"C\" JNIEXPORT void JNICALL Java_org_jace_peer_Widget_jaceSetVm("));
+		assertTrue(mappings.contains("static jint JNICALL Java_org_jace_peer_Widget_area__ILjava_lang_String_2("));
+	}
+
+	/**
+	 * Phantom peers register their static jaceDestroyInstance(long) along with the other native methods.
+	 */
+	@Test
+	public void testRegisterNativesPhantom() throws IOException, URISyntaxException
+	{
+		String mappings = generateMappings(PeerEnhancer.Cleanup.PHANTOM);
+
+		assertTrue(mappings.contains("{const_cast<char*>(\"jaceDestroyInstance\"), "
+																 + "const_cast<char*>(\"(J)V\"), "
+																 + "reinterpret_cast<void*>(&Java_org_jace_peer_Widget_jaceDestroyInstance)}"));
+		assertTrue(mappings.contains("static void JNICALL Java_org_jace_peer_Widget_jaceDestroyInstance("
+																 + "JNIEnv *env, jclass jPeerClass, jlong handle)"));
+		assertEquals(1, count(mappings, "JNIEXPORT"));
+	}
+}
@@ -0,0 +1,37 @@
+package org.jace.peer;
+
+/**
+ * A peer that is enhanced and generated by the peer tests.
+ *
+ * @author Gili Tzabari
+ */
+public class Widget
+{
+	/**
+	 * Creates a new Widget.
+	 */
+	public Widget()
+	{
+	}
+
+	/**
+	 * A native instance method.
+	 *
+	 * @param width the width
+	 * @param name the name
+	 * @return the area
+	 */
+	public native int area(int width, String name);
+
+	/**
+	 * A native static method.
+	 */
+	public static native void ping();
+
+	/**
+	 * The deallocation method.
+	 */
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,195 @@
+package org.jace.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Executes a batch of method invocations queued by a C++ {@code jace::CallBatch}, so that the whole
+ * batch costs a single JNI transition.
+ *
+ * Each call is encoded in the calls buffer as an 8-byte header (the index of the method and the
+ * index of the target, or -1 for static methods) followed by one 8-byte slot per argument. A slot
+ * holds the value of a primitive argument at offset 0, or the index of a reference argument. Indexes
+ * refer to the methods and references arrays. All values use the platform's native byte order.
+ *
+ * Primitive results are written to the 8-byte slot of their call in the primitive results buffer.
+ * Reference results are written to the object results array. If a call throws, the Throwable is
+ * stored in the errors array and the remaining calls are executed regardless. This includes errors
+ * such as {@code ExceptionInInitializerError}, but not {@code VirtualMachineError}s, which abort the
+ * batch.
+ *
+ * Methods are invoked with Java's usual access checks. A call to a method that this class may not
+ * access, such as a private method or a member of a non-public class, fails with
+ * {@code IllegalAccessException}.
+ *
+ * This class is used internally by Jace and is not meant for end-users.
+ *
+ * @author Gili Tzabari
+ */
+public final class BatchDispatcher
+{
+	/**
+	 * The size of a call header, or of an argument or result slot, in bytes.
+	 */
+	private static final int SLOT_SIZE = 8;
+
+	/**
+	 * Prevent construction.
+	 */
+	private BatchDispatcher()
+	{
+	}
+
+	/**
+	 * Executes a batch of calls.
+	 *
+	 * @param calls the encoded calls
+	 * @param count the number of calls
+	 * @param methods the methods that are invoked
+	 * @param methodCount the number of elements used in {@code methods}
+	 * @param references the targets and reference arguments of the calls
+	 * @param primitiveResults the buffer that primitive results are written to
+	 * @param objectResults the array that reference results are written to
+	 * @param errors the array that exceptions thrown by the calls are written to
+	 * @return the number of calls that threw an exception
+	 */
+	public static int dispatch(ByteBuffer calls, int count, Method[] methods, int methodCount,
+		Object[] references, ByteBuffer primitiveResults, Object[] objectResults, Throwable[] errors)
+	{
+		calls.order(ByteOrder.nativeOrder());
+		primitiveResults.order(ByteOrder.nativeOrder());
+
+		// Look up the parameter types once per method, rather than once per call
+		Class<?>[][] parameterTypes = new Class<?>[methodCount][];
+		for (int i = 0; i < methodCount; ++i)
+			parameterTypes[i] = methods[i].getParameterTypes();
+
+		int failures = 0;
+		int position = 0;
+		for (int call = 0; call < count; ++call)
+		{
+			int methodIndex = calls.getInt(position);
+			int targetIndex = calls.getInt(position + 4);
+			position += SLOT_SIZE;
+
+			Method method = methods[methodIndex];
+			Class<?>[] types = parameterTypes[methodIndex];
+			Object[] arguments = new Object[types.length];
+			for (int i = 0; i < types.length; ++i)
+			{
+				arguments[i] = getArgument(calls, position, types[i], references);
+				position += SLOT_SIZE;
+			}
+
+			Object target;
+			if (targetIndex == -1)
+				target = null;
+			else
+				target = references[targetIndex];
+			try
+			{
+				setResult(method.getReturnType(), method.invoke(target, arguments), call,
+					primitiveResults, objectResults);
+			}
+			catch (InvocationTargetException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof VirtualMachineError)
+					throw (VirtualMachineError) cause;
+				errors[call] = cause;
+				++failures;
+			}
+			catch (VirtualMachineError e)
+			{
+				throw e;
+			}
+			catch (Throwable t)
+			{
+				// Method.invoke() throws initialization errors of the declaring class directly
+				errors[call] = t;
+				++failures;
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Decodes an argument.
+	 *
+	 * @param calls the encoded calls
+	 * @param position the position of the argument's slot
+	 * @param type the type of the argument
+	 * @param references the reference arguments
+	 * @return the argument
+	 */
+	private static Object getArgument(ByteBuffer calls, int position, Class<?> type,
+		Object[] references)
+	{
+		if (!type.isPrimitive())
+		{
+			int index = calls.getInt(position);
+			if (index == -1)
+				return null;
+			return references[index];
+		}
+		if (type == int.class)
+			return calls.getInt(position);
+		if (type == long.class)
+			return calls.getLong(position);
+		if (type == double.class)
+			return calls.getDouble(position);
+		if (type == boolean.class)
+			return calls.get(position) != 0;
+		if (type == float.class)
+			return calls.getFloat(position);
+		if (type == short.class)
+			return calls.getShort(position);
+		if (type == char.class)
+			return calls.getChar(position);
+		if (type == byte.class)
+			return calls.get(position);
+		throw new AssertionError(type);
+	}
+
+	/**
+	 * Encodes a result.
+	 *
+	 * @param type the return type of the method
+	 * @param value the value returned by the method
+	 * @param call the index of the call
+	 * @param primitiveResults the buffer that primitive results are written to
+	 * @param objectResults the array that reference results are written to
+	 */
+	private static void setResult(Class<?> type, Object value, int call, ByteBuffer primitiveResults,
+		Object[] objectResults)
+	{
+		if (!type.isPrimitive())
+		{
+			objectResults[call] = value;
+			return;
+		}
+		int position = call * SLOT_SIZE;
+		if (type == void.class)
+			return;
+		if (type == int.class)
+			primitiveResults.putInt(position, (Integer) value);
+		else if (type == long.class)
+			primitiveResults.putLong(position, (Long) value);
+		else if (type == double.class)
+			primitiveResults.putDouble(position, (Double) value);
+		else if (type == boolean.class)
+			primitiveResults.put(position, (byte) ((Boolean) value ? 1 : 0));
+		else if (type == float.class)
+			primitiveResults.putFloat(position, (Float) value);
+		else if (type == short.class)
+			primitiveResults.putShort(position, (Short) value);
+		else if (type == char.class)
+			primitiveResults.putChar(position, (Character) value);
+		else if (type == byte.class)
+			primitiveResults.put(position, (Byte) value);
+		else
+			throw new AssertionError(type);
+	}
+}
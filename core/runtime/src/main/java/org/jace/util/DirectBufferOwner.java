@@ -0,0 +1,30 @@
+package org.jace.util;
+
+/**
+ * Releases the C++ owner of memory wrapped by {@code jace::DirectBuffer::wrap()}.
+ *
+ * The C++ side registers each wrapped {@code ByteBuffer} with {@link PeerCleaner}, passing a handle to
+ * the owner. Once the buffer, and every buffer derived from it using methods such as
+ * {@code duplicate()} or {@code slice()}, becomes phantom reachable, PeerCleaner passes the handle to
+ * {@link #jaceDestroyInstance(long)} and the memory may be freed.
+ *
+ * This class is used internally by Jace and is not meant for end-users.
+ *
+ * @author Gili Tzabari
+ */
+public final class DirectBufferOwner
+{
+	/**
+	 * Prevent construction.
+	 */
+	private DirectBufferOwner()
+	{
+	}
+
+	/**
+	 * Releases the owner of a buffer's memory. The implementation is registered by the Jace library.
+	 *
+	 * @param handle the handle of the owner
+	 */
+	private static native void jaceDestroyInstance(long handle);
+}
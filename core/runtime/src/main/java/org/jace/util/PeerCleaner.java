@@ -0,0 +1,199 @@
+package org.jace.util;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Destroys the native half of Java peers once they become phantom reachable.
+ *
+ * Peers enhanced with {@code PeerEnhancer.Cleanup.PHANTOM} register themselves with the cleaner
+ * instead of overriding {@code finalize()}. A pool of daemon threads drains the reference queue and
+ * passes the native handle of each unreachable peer to its {@code static void
+ * jaceDestroyInstance(long)} method. {@code jace::DirectBuffer::wrap()} registers the ByteBuffers it
+ * creates the same way, using {@link DirectBufferOwner}.
+ *
+ * The number of threads is read from the {@code org.jace.util.PeerCleaner.threads} system property
+ * the first time a peer is registered, and defaults to 1. This class is used internally by Jace and
+ * is not meant for end-users.
+ *
+ * @author Gili Tzabari
+ */
+public final class PeerCleaner
+{
+	/**
+	 * The system property that specifies the number of threads draining the reference queue.
+	 */
+	public static final String THREADS_PROPERTY = PeerCleaner.class.getName() + ".threads";
+	private static final Logger log = Logger.getLogger(PeerCleaner.class.getName());
+	private static final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+	/**
+	 * Keeps registered references reachable until they are cleaned.
+	 */
+	private static final Set<Cleanable> registered =
+		Collections.newSetFromMap(new ConcurrentHashMap<Cleanable, Boolean>());
+	/**
+	 * Maps each peer class to its jaceDestroyInstance(long) method.
+	 */
+	private static final ClassValue<Method> destructors = new ClassValue<Method>()
+	{
+		@Override
+		protected Method computeValue(Class<?> type)
+		{
+			try
+			{
+				Method result = type.getDeclaredMethod("jaceDestroyInstance", long.class);
+				result.setAccessible(true);
+				return result;
+			}
+			catch (NoSuchMethodException e)
+			{
+				throw new IllegalArgumentException(type.getName() + " was not enhanced for phantom cleanup",
+					e);
+			}
+		}
+	};
+	private static boolean started;
+
+	/**
+	 * Prevent construction.
+	 */
+	private PeerCleaner()
+	{
+	}
+
+	/**
+	 * Registers a peer for cleanup.
+	 *
+	 * @param peer the Java peer
+	 * @param peerClass the class that declares {@code jaceDestroyInstance(long)}
+	 * @param handle the native handle of the peer
+	 * @return a Cleanable that destroys the native peer at most once
+	 * @throws IllegalArgumentException if {@code peerClass} does not declare
+	 *   {@code jaceDestroyInstance(long)}
+	 */
+	public static Cleanable register(Object peer, Class<?> peerClass, long handle)
+		throws IllegalArgumentException
+	{
+		startIfNecessary();
+		Cleanable result = new Cleanable(peer, destructors.get(peerClass), handle);
+		registered.add(result);
+		return result;
+	}
+
+	/**
+	 * Returns the number of peers that are waiting to be cleaned.
+	 *
+	 * @return the number of peers that are waiting to be cleaned
+	 */
+	public static int getPendingCount()
+	{
+		return registered.size();
+	}
+
+	/**
+	 * Starts the threads that drain the reference queue, the first time this method is invoked.
+	 */
+	private static synchronized void startIfNecessary()
+	{
+		if (started)
+			return;
+		int threads = Integer.getInteger(THREADS_PROPERTY, 1);
+		if (threads < 1)
+			throw new IllegalArgumentException(THREADS_PROPERTY + " must be positive: " + threads);
+		for (int i = 0; i < threads; ++i)
+		{
+			Thread thread = new Thread(new Drainer(), "jace-peer-cleaner-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		started = true;
+	}
+
+	/**
+	 * Destroys native peers as their Java peers become unreachable.
+	 */
+	private static final class Drainer implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				try
+				{
+					((Cleanable) queue.remove()).clean();
+				}
+				catch (InterruptedException e)
+				{
+					// Daemon threads exit with the virtual machine
+				}
+				catch (Throwable t)
+				{
+					// A native peer that fails to clean up must not stop the remaining peers from being cleaned
+					log.log(Level.SEVERE, "Failed to destroy a native peer", t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Destroys a native peer.
+	 */
+	@SuppressWarnings("PublicInnerClass")
+	public static final class Cleanable extends PhantomReference<Object>
+	{
+		private final Method destructor;
+		private final long handle;
+
+		/**
+		 * Creates a new Cleanable.
+		 *
+		 * @param peer the Java peer
+		 * @param destructor the peer's jaceDestroyInstance(long) method
+		 * @param handle the native handle of the peer
+		 */
+		private Cleanable(Object peer, Method destructor, long handle)
+		{
+			super(peer, queue);
+			this.destructor = destructor;
+			this.handle = handle;
+		}
+
+		/**
+		 * Destroys the native peer, unless it was already destroyed. The Java peer's deallocation
+		 * method invokes this method explicitly.
+		 *
+		 * @throws RuntimeException if the native peer throws an exception
+		 */
+		public void clean()
+		{
+			if (!registered.remove(this))
+				return;
+			clear();
+			try
+			{
+				destructor.invoke(null, handle);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new AssertionError(e);
+			}
+			catch (InvocationTargetException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+}
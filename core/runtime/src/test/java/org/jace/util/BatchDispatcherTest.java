@@ -0,0 +1,356 @@
+package org.jace.util;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests BatchDispatcher.
+ *
+ * @author Gili Tzabari
+ */
+public class BatchDispatcherTest
+{
+	/**
+	 * The methods invoked by the tests.
+	 */
+	@SuppressWarnings("PublicInnerClass")
+	public static final class Target
+	{
+		private final int base;
+
+		public Target(int base)
+		{
+			this.base = base;
+		}
+
+		public int add(int value)
+		{
+			return base + value;
+		}
+
+		public static String describe(boolean z, byte b, char c, short s, int i, long j, float f,
+			double d)
+		{
+			return z + " " + b + " " + c + " " + s + " " + i + " " + j + " " + f + " " + d;
+		}
+
+		public static boolean not(boolean value)
+		{
+			return !value;
+		}
+
+		public static byte negate(byte value)
+		{
+			return (byte) -value;
+		}
+
+		public static char next(char value)
+		{
+			return (char) (value + 1);
+		}
+
+		public static short negate(short value)
+		{
+			return (short) -value;
+		}
+
+		public static long negate(long value)
+		{
+			return -value;
+		}
+
+		public static float half(float value)
+		{
+			return value / 2;
+		}
+
+		public static double half(double value)
+		{
+			return value / 2;
+		}
+
+		public static Object identity(Object value)
+		{
+			return value;
+		}
+
+		public static void fail(String message)
+		{
+			throw new IllegalStateException(message);
+		}
+	}
+
+	/**
+	 * A class that fails to initialize.
+	 */
+	@SuppressWarnings("PublicInnerClass")
+	public static final class Broken
+	{
+		static
+		{
+			if (Boolean.TRUE)
+				throw new IllegalStateException("broken");
+		}
+
+		public static void touch()
+		{
+		}
+	}
+
+	/**
+	 * Encodes calls the way jace::CallBatch does.
+	 */
+	private static final class Calls
+	{
+		/**
+		 * Uses the default (big-endian) byte order, so that dispatch() must switch to the native order
+		 * itself.
+		 */
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+		private final ByteBuffer nativeView = buffer.duplicate().order(ByteOrder.nativeOrder());
+		private int position;
+		int count;
+
+		Calls call(int method, int target)
+		{
+			nativeView.putInt(position, method);
+			nativeView.putInt(position + 4, target);
+			position += 8;
+			++count;
+			return this;
+		}
+
+		Calls putBoolean(boolean value)
+		{
+			nativeView.put(position, (byte) (value ? 1 : 0));
+			position += 8;
+			return this;
+		}
+
+		Calls putByte(byte value)
+		{
+			nativeView.put(position, value);
+			position += 8;
+			return this;
+		}
+
+		Calls putChar(char value)
+		{
+			nativeView.putChar(position, value);
+			position += 8;
+			return this;
+		}
+
+		Calls putShort(short value)
+		{
+			nativeView.putShort(position, value);
+			position += 8;
+			return this;
+		}
+
+		Calls putInt(int value)
+		{
+			nativeView.putInt(position, value);
+			position += 8;
+			return this;
+		}
+
+		Calls putLong(long value)
+		{
+			nativeView.putLong(position, value);
+			position += 8;
+			return this;
+		}
+
+		Calls putFloat(float value)
+		{
+			nativeView.putFloat(position, value);
+			position += 8;
+			return this;
+		}
+
+		Calls putDouble(double value)
+		{
+			nativeView.putDouble(position, value);
+			position += 8;
+			return this;
+		}
+
+		/**
+		 * Encodes a reference argument.
+		 *
+		 * @param index the index of the reference, or -1 for null
+		 */
+		Calls putReference(int index)
+		{
+			return putInt(index);
+		}
+	}
+
+	/**
+	 * The results of a batch.
+	 */
+	private static final class Results
+	{
+		final ByteBuffer primitives;
+		final Object[] objects;
+		final Throwable[] errors;
+		final int failures;
+
+		Results(Calls calls, Method[] methods, Object... references)
+		{
+			// Use the default (big-endian) byte order, so that dispatch() must switch to the native order
+			primitives = ByteBuffer.allocateDirect(calls.count * 8);
+			objects = new Object[calls.count];
+			errors = new Throwable[calls.count];
+			failures = BatchDispatcher.dispatch(calls.buffer, calls.count, methods, methods.length,
+				references, primitives, objects, errors);
+			primitives.order(ByteOrder.nativeOrder());
+		}
+	}
+
+	private static Method getMethod(Class<?> type, String name, Class<?>... parameterTypes)
+		throws NoSuchMethodException
+	{
+		return type.getMethod(name, parameterTypes);
+	}
+
+	/**
+	 * Arguments of every primitive type are decoded using the native byte order.
+	 */
+	@Test
+	public void testPrimitiveArguments() throws NoSuchMethodException
+	{
+		Method[] methods =
+		{
+			getMethod(Target.class, "describe", boolean.class, byte.class, char.class, short.class,
+				int.class, long.class, float.class, double.class)
+		};
+		Calls calls = new Calls().call(0, -1).putBoolean(true).putByte((byte) -2).putChar('\u263A').
+			putShort((short) -1234).putInt(0x12345678).putLong(0x123456789ABCDEFL).putFloat(1.5f).
+			putDouble(-2.25);
+		Results results = new Results(calls, methods);
+
+		assertEquals(0, results.failures);
+		assertNull(results.errors[0]);
+		assertEquals(Target.describe(true, (byte) -2, '\u263A', (short) -1234, 0x12345678,
+			0x123456789ABCDEFL, 1.5f, -2.25), results.objects[0]);
+	}
+
+	/**
+	 * Results of every primitive type are encoded using the native byte order.
+	 */
+	@Test
+	public void testPrimitiveResults() throws NoSuchMethodException
+	{
+		Method[] methods =
+		{
+			getMethod(Target.class, "not", boolean.class),
+			getMethod(Target.class, "negate", byte.class),
+			getMethod(Target.class, "next", char.class),
+			getMethod(Target.class, "negate", short.class),
+			getMethod(Target.class, "negate", long.class),
+			getMethod(Target.class, "half", float.class),
+			getMethod(Target.class, "half", double.class)
+		};
+		Calls calls = new Calls().
+			call(0, -1).putBoolean(false).
+			call(1, -1).putByte((byte) 7).
+			call(2, -1).putChar('a').
+			call(3, -1).putShort((short) 300).
+			call(4, -1).putLong(0x123456789ABCDEFL).
+			call(5, -1).putFloat(3f).
+			call(6, -1).putDouble(5.0);
+		Results results = new Results(calls, methods);
+
+		assertEquals(0, results.failures);
+		assertEquals(1, results.primitives.get(0));
+		assertEquals(-7, results.primitives.get(8));
+		assertEquals('b', results.primitives.getChar(16));
+		assertEquals(-300, results.primitives.getShort(24));
+		assertEquals(-0x123456789ABCDEFL, results.primitives.getLong(32));
+		assertEquals(1.5f, results.primitives.getFloat(40), 0f);
+		assertEquals(2.5, results.primitives.getDouble(48), 0.0);
+	}
+
+	/**
+	 * Reference arguments are looked up in the references array, and -1 denotes null.
+	 */
+	@Test
+	public void testReferenceArguments() throws NoSuchMethodException
+	{
+		Method[] methods =
+		{
+			getMethod(Target.class, "identity", Object.class)
+		};
+		Object value = new Object();
+		Calls calls = new Calls().
+			call(0, -1).putReference(1).
+			call(0, -1).putReference(-1);
+		Results results = new Results(calls, methods, "unused", value);
+
+		assertEquals(0, results.failures);
+		assertSame(value, results.objects[0]);
+		assertNull(results.objects[1]);
+	}
+
+	/**
+	 * Instance methods are invoked on the referenced target, and static methods on none.
+	 */
+	@Test
+	public void testTargets() throws NoSuchMethodException
+	{
+		Method[] methods =
+		{
+			getMethod(Target.class, "add", int.class),
+			getMethod(Target.class, "negate", long.class)
+		};
+		Calls calls = new Calls().
+			call(0, 0).putInt(1).
+			call(0, 1).putInt(1).
+			call(1, -1).putLong(5);
+		Results results = new Results(calls, methods, new Target(10), new Target(20));
+
+		assertEquals(0, results.failures);
+		assertEquals(11, results.primitives.getInt(0));
+		assertEquals(21, results.primitives.getInt(8));
+		assertEquals(-5, results.primitives.getLong(16));
+	}
+
+	/**
+	 * A call that fails records its Throwable, and the rest of the batch still executes.
+	 */
+	@Test
+	public void testFailureMidBatch() throws NoSuchMethodException
+	{
+		Method[] methods =
+		{
+			getMethod(Target.class, "add", int.class),
+			getMethod(Target.class, "fail", String.class),
+			getMethod(Broken.class, "touch")
+		};
+		Calls calls = new Calls().
+			call(0, 0).putInt(1).
+			call(1, -1).putReference(1).
+			call(2, -1).
+			call(0, 0).putInt(2);
+		Results results = new Results(calls, methods, new Target(10), "expected");
+
+		assertEquals(2, results.failures);
+		assertEquals(11, results.primitives.getInt(0));
+		assertNull(results.errors[0]);
+
+		assertTrue(results.errors[1] instanceof IllegalStateException);
+		assertEquals("expected", results.errors[1].getMessage());
+
+		// Method.invoke() throws the initialization error without wrapping it
+		assertTrue(Arrays.toString(results.errors), results.errors[2] instanceof ExceptionInInitializerError);
+
+		assertNull(results.errors[3]);
+		assertEquals(12, results.primitives.getInt(24));
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Tests that modifications made through a CriticalArray are visible to the JArray it views, even
+ * if iterators had already copied a window of the array into native memory.
+ *
+ * @author Gili Tzabari
+ */
+#include "jace/Jace.h"
+
+#include "jace/StaticVmLoader.h"
+using jace::StaticVmLoader;
+
+#include "jace/OptionList.h"
+using jace::OptionList;
+
+#include "jace/JArray.h"
+using jace::JArray;
+
+#include "jace/CriticalArray.h"
+using jace::CriticalArray;
+
+#include "jace/proxy/types/JInt.h"
+using jace::proxy::types::JInt;
+
+#include <string>
+using std::string;
+
+#include <sstream>
+using std::ostringstream;
+
+#include <exception>
+using std::exception;
+
+#include <iostream>
+using std::cout;
+using std::endl;
+
+namespace
+{
+	/**
+	 * The number of checks that failed.
+	 */
+	int failures = 0;
+
+	void check(bool condition, const string& description)
+	{
+		if (condition)
+			return;
+		cout << "failed: " << description << endl;
+		++failures;
+	}
+
+	void checkElement(jint actual, jint expected, const string& description)
+	{
+		ostringstream message;
+		message << description << ": expected " << expected << ", was " << actual;
+		check(actual == expected, message.str());
+	}
+
+	/**
+	 * Loads a window using an iterator, writes the array through a CriticalArray, then reads it back
+	 * through operator[] and the live iterator.
+	 */
+	void testCriticalWriteAfterWindow()
+	{
+		const int length = 16;
+		JArray<JInt> array(length);
+		JArray<JInt>::Iterator i = array.begin();
+
+		// Copies the window into native memory, and leaves a modification to be written back
+		checkElement(*i, 0, "window before the critical write");
+		*(i + 1) = 5;
+
+		{
+			CriticalArray<JInt> view(array);
+			checkElement(view[1], 5, "iterator modification seen by the view");
+			for (int j = 0; j < length; ++j)
+				view[j] = 100 + j;
+		}
+
+		for (int j = 0; j < length; ++j)
+			checkElement(array[j], 100 + j, "operator[] after the critical write");
+		checkElement(*i, 100, "live iterator after the critical write");
+		checkElement(*(i + 1), 101, "live iterator after the critical write");
+	}
+
+	/**
+	 * Checks that a window loaded before a critical write does not overwrite it once the last
+	 * iterator is destroyed.
+	 */
+	void testWindowDoesNotOverwriteCriticalWrite()
+	{
+		const int length = 16;
+		JArray<JInt> array(length);
+		{
+			JArray<JInt>::Iterator i = array.begin();
+			checkElement(*i, 0, "window before the critical write");
+
+			CriticalArray<JInt> view(array);
+			for (int j = 0; j < length; ++j)
+				view[j] = 200 + j;
+		}
+		for (int j = 0; j < length; ++j)
+			checkElement(array[j], 200 + j, "operator[] after the last iterator was destroyed");
+	}
+} // namespace
+
+
+int main()
+{
+	try
+	{
+		StaticVmLoader loader(JNI_VERSION_1_2);
+		OptionList list;
+		list.push_back(jace::CustomOption("-Xcheck:jni"));
+		list.push_back(jace::CustomOption("-Xmx16M"));
+		list.push_back(jace::ClassPath("jace-runtime.jar"));
+		jace::createVm(loader, list, false);
+
+		testCriticalWriteAfterWindow();
+		testWindowDoesNotOverwriteCriticalWrite();
+	}
+	catch (exception& e)
+	{
+		cout << e.what() << endl;
+		return -1;
+	}
+
+	if (failures != 0)
+	{
+		cout << "failure!" << endl;
+		return -1;
+	}
+	cout << "success!" << endl;
+	return 0;
+}
@@ -0,0 +1,127 @@
+/**
+ * Tests that Java exceptions thrown while a borrowing LocalFrame is active remain valid after the
+ * frame is popped by stack unwinding.
+ *
+ * Run with -Xcheck:jni so that the virtual machine reports any use of a stale local reference.
+ *
+ * @author Gili Tzabari
+ */
+#include "jace/Jace.h"
+
+#include "jace/StaticVmLoader.h"
+using jace::StaticVmLoader;
+
+#include "jace/OptionList.h"
+using jace::OptionList;
+
+#include "jace/LocalFrame.h"
+using jace::LocalFrame;
+
+#include "jace/proxy/java/lang/Integer.h"
+using jace::proxy::java::lang::Integer;
+
+#include "jace/proxy/java/lang/NumberFormatException.h"
+using jace::proxy::java::lang::NumberFormatException;
+
+#include "jace/proxy/java/lang/String.h"
+using jace::proxy::java::lang::String;
+
+#include <string>
+using std::string;
+
+#include <exception>
+using std::exception;
+
+#include <iostream>
+using std::cout;
+using std::endl;
+
+namespace
+{
+	/**
+	 * The number of checks that failed.
+	 */
+	int failures = 0;
+
+	void check(bool condition, const string& description)
+	{
+		if (condition)
+			return;
+		cout << "failed: " << description << endl;
+		++failures;
+	}
+
+	void testExceptionEscapesFrame()
+	{
+		try
+		{
+			LocalFrame frame;
+			Integer::parseInt(String("not a number"));
+			check(false, "parseInt() did not throw");
+		}
+		catch (NumberFormatException& e)
+		{
+			check(!e.isBorrowed(), "exception borrows a reference from a popped frame");
+
+			// Reuse the local reference slots of the popped frame
+			{
+				LocalFrame frame;
+				for (int i = 0; i < 32; ++i)
+					String filler("filler");
+			}
+
+			check(string(e.what()).find("not a number") != string::npos, "what() " + string(e.what()));
+			string message = e.getMessage();
+			check(message.find("not a number") != string::npos, "getMessage() " + message);
+
+			NumberFormatException copy(e);
+			check(!copy.isBorrowed(), "copy of exception borrows a reference");
+			check(string(copy.toString()) == string(e.toString()), "copy refers to a different exception");
+		}
+	}
+
+	void testExceptionCaughtInsideFrame()
+	{
+		LocalFrame frame;
+		try
+		{
+			Integer::parseInt(String("not a number"));
+			check(false, "parseInt() did not throw");
+		}
+		catch (NumberFormatException& e)
+		{
+			check(!e.isBorrowed(), "exception borrows a reference");
+			check(string(e.what()).find("not a number") != string::npos, "what() " + string(e.what()));
+		}
+	}
+} // namespace
+
+
+int main()
+{
+	try
+	{
+		StaticVmLoader loader(JNI_VERSION_1_2);
+		OptionList list;
+		list.push_back(jace::CustomOption("-Xcheck:jni"));
+		list.push_back(jace::CustomOption("-Xmx16M"));
+		list.push_back(jace::ClassPath("jace-runtime.jar"));
+		jace::createVm(loader, list, false);
+
+		testExceptionEscapesFrame();
+		testExceptionCaughtInsideFrame();
+	}
+	catch (exception& e)
+	{
+		cout << e.what() << endl;
+		return -1;
+	}
+
+	if (failures != 0)
+	{
+		cout << "failure!" << endl;
+		return -1;
+	}
+	cout << "success!" << endl;
+	return 0;
+}
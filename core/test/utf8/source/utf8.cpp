@@ -0,0 +1,136 @@
+/**
+ * Tests that jace::toUTF8() and jace::fromUTF8() convert strings the same way that Java's modified
+ * UTF-8 does, including U+0000, supplementary characters, lone surrogates and truncated input.
+ *
+ * The conversions do not use the virtual machine, so none is created.
+ *
+ * @author Gili Tzabari
+ */
+#include "jace/Jace.h"
+using jace::toUTF8;
+using jace::fromUTF8;
+
+#include <string>
+using std::string;
+using std::wstring;
+
+#include <exception>
+using std::exception;
+
+#include <iostream>
+using std::cout;
+using std::endl;
+
+namespace
+{
+	const wchar_t REPLACEMENT_CHARACTER = static_cast<wchar_t>(0xFFFD);
+
+	/**
+	 * The number of checks that failed.
+	 */
+	int failures = 0;
+
+	void check(bool condition, const string& description)
+	{
+		if (condition)
+			return;
+		cout << "failed: " << description << endl;
+		++failures;
+	}
+
+	/**
+	 * Returns a string containing a single character. Characters outside the Basic Multilingual Plane
+	 * are stored as a surrogate pair if wchar_t is 16 bits wide.
+	 */
+	wstring character(unsigned long codePoint)
+	{
+		wstring result;
+		if (codePoint > 0xFFFF && sizeof(wchar_t) == 2)
+		{
+			codePoint -= 0x10000;
+			result += static_cast<wchar_t>(0xD800 + (codePoint >> 10));
+			result += static_cast<wchar_t>(0xDC00 + (codePoint & 0x3FF));
+		}
+		else
+			result += static_cast<wchar_t>(codePoint);
+		return result;
+	}
+
+	/**
+	 * Checks that a string is encoded as expected and decoded back to the same string.
+	 */
+	void checkRoundTrip(const wstring& text, const string& expected, const string& description)
+	{
+		string encoded = toUTF8(text);
+		check(encoded == expected, "toUTF8() " + description);
+		check(fromUTF8(encoded) == text, "fromUTF8() " + description);
+	}
+
+	void testNull()
+	{
+		checkRoundTrip(character(0), string("\xC0\x80"), "U+0000");
+		checkRoundTrip(L"a" + character(0) + L"b", string("a\xC0\x80" "b"), "U+0000 between characters");
+	}
+
+	void testSupplementary()
+	{
+		// Java encodes U+1F600 as the surrogate pair D83D DE00, each of which takes three bytes
+		checkRoundTrip(character(0x1F600), string("\xED\xA0\xBD\xED\xB8\x80"), "U+1F600");
+		checkRoundTrip(character(0x10000), string("\xED\xA0\x80\xED\xB0\x80"), "U+10000");
+		checkRoundTrip(character(0x10FFFF), string("\xED\xAF\xBF\xED\xBF\xBF"), "U+10FFFF");
+		checkRoundTrip(L"x" + character(0x1F600) + L"y", string("x\xED\xA0\xBD\xED\xB8\x80y"),
+			"U+1F600 between characters");
+
+		// Standard UTF-8 is accepted as well
+		check(fromUTF8(string("\xF0\x9F\x98\x80")) == character(0x1F600), "fromUTF8() standard UTF-8 U+1F600");
+	}
+
+	void testLoneSurrogates()
+	{
+		checkRoundTrip(character(0xD800), string("\xED\xA0\x80"), "lone high surrogate");
+		checkRoundTrip(character(0xDC00), string("\xED\xB0\x80"), "lone low surrogate");
+		checkRoundTrip(character(0xD83D) + L"a", string("\xED\xA0\xBD" "a"),
+			"high surrogate followed by a character");
+		checkRoundTrip(character(0xDE00) + character(0xD83D), string("\xED\xB8\x80\xED\xA0\xBD"),
+			"low surrogate followed by a high surrogate");
+	}
+
+	void testTruncated()
+	{
+		// Each byte of a malformed sequence is replaced by U+FFFD
+		check(fromUTF8(string("\xC3")) == wstring(1, REPLACEMENT_CHARACTER), "fromUTF8() truncated two-byte sequence");
+		check(fromUTF8(string("a\xE4\xB8")) == L"a" + wstring(2, REPLACEMENT_CHARACTER),
+			"fromUTF8() truncated three-byte sequence");
+		check(fromUTF8(string("\xF0\x9F\x98")) == wstring(3, REPLACEMENT_CHARACTER),
+			"fromUTF8() truncated four-byte sequence");
+		check(fromUTF8(string("\xED\xA0\xBD\xED\xB8")) == character(0xD83D) + wstring(2, REPLACEMENT_CHARACTER),
+			"fromUTF8() truncated surrogate pair");
+		check(fromUTF8(string("\xE4" "a")) == REPLACEMENT_CHARACTER + wstring(L"a"),
+			"fromUTF8() sequence interrupted by ASCII");
+	}
+} // namespace
+
+
+int main()
+{
+	try
+	{
+		testNull();
+		testSupplementary();
+		testLoneSurrogates();
+		testTruncated();
+	}
+	catch (exception& e)
+	{
+		cout << e.what() << endl;
+		return -1;
+	}
+
+	if (failures != 0)
+	{
+		cout << "failure!" << endl;
+		return -1;
+	}
+	cout << "success!" << endl;
+	return 0;
+}
@@ -0,0 +1,257 @@
+/**
+ * The implementation of jace::toUTF8() and jace::fromUTF8() that preceded the current one. Kept as a
+ * baseline for the transcoding benchmarks in perf_test.cpp.
+ *
+ * NOTE: On platforms where char is signed, fromUTF8() treats every byte as ASCII, so it only produces
+ *       correct results for ASCII input.
+ */
+#include <string>
+using std::string;
+using std::wstring;
+
+namespace legacy
+{
+
+/**
+ * Converts std::wstring to a modified UTF-8 std::string.
+ *
+ * Adaptation of u_strToJavaModifiedUTF8() found in ustrtrns.cpp in icu4c 4.9.1.1 package found at
+ * http://site.icu-project.org/
+ */
+std::string toUTF8(const wstring& src)
+{
+	wchar_t ch = 0;
+	size_t count;
+	std::string result;
+
+	// Faster loop without ongoing checking for pSrcLimit and pDestLimit.
+	wstring::const_iterator i = src.begin();
+	while (i != src.end())
+	{
+		count = result.length();
+		if (*i <= 0x7f)
+		{
+			// fast ASCII loop
+			while (i != src.end() && *i <= 0x7f && *i != 0)
+			{
+				result += (char) *i;
+				++i;
+				--count;
+			}
+		}
+
+		// Each iteration of the inner loop progresses by at most 3 UTF-8
+		// bytes and one UChar.
+		count /= 3;
+		if (i + count > src.end())
+		{
+			// min(remaining dest/3, remaining src)
+			count = src.end() - i;
+		}
+		if(count < 3)
+		{
+			// Too much overhead if we get near the end of the string,
+			// continue with the next loop.
+			break;
+		}
+		do
+		{
+			ch = *i++;
+			if (ch <= 0x7f && ch != 0)
+				result += (char) ch;
+			else if(ch <= 0x7ff)
+			{
+				result += (char)((ch>>6)|0xc0);
+				result += (char)((ch&0x3f)|0x80);
+			}
+			else
+			{
+				result += (char)((ch>>12)|0xe0);
+				result += (char)(((ch>>6)&0x3f)|0x80);
+				result += (char)((ch&0x3f)|0x80);
+			}
+		} while(--count > 0);
+	}
+
+	while (i != src.end())
+	{
+		ch = *i++;
+		if (ch <= 0x7f && ch != 0)
+		{
+			result += (char) ch;
+		}
+		else if(ch <= 0x7ff)
+		{
+			result += (char)((ch>>6)|0xc0);
+			result += (char)((ch&0x3f)|0x80);
+		}
+		else
+		{
+			result += (char)((ch>>12)|0xe0);
+			result += (char)(((ch>>6)&0x3f)|0x80);
+			result += (char)((ch&0x3f)|0x80);
+		}
+	}
+	return result;
+}
+
+/**
+ * Converts a modified UTF-8 std::string to a std::wstring.
+ *
+ * Adaptation of u_strFromJavaModifiedUTF8WithSub() found in ustrtrns.cpp in icu4c 4.9.1.1 package
+ * found at http://site.icu-project.org/
+ */
+wstring fromUTF8(const string& src)
+{
+	char ch;
+	size_t count;
+	char t1, t2; // trail bytes
+	std::wstring result;
+
+	// Faster loop without ongoing checking for pSrcLimit and pDestLimit.
+	string::const_iterator i = src.begin();
+	while (i != src.end())
+	{
+		count = result.length();
+		if (*i <= 0x7f)
+		{
+			// fast ASCII loop
+			while (i != src.end() && *i <= 0x7f)
+			{
+				result += (char) *i;
+				++i;
+				--count;
+			}
+		}
+		// Each iteration of the inner loop progresses by at most 3 UTF-8
+		// bytes and one char.
+		count /= 3;
+		if (i + count > src.end())
+		{
+			// min(remaining dest/3, remaining src)
+			count = src.end() - i;
+		}
+		if (count < 3)
+		{
+			// Too much overhead if we get near the end of the string,
+			// continue with the next loop.
+			break;
+		}
+		do
+		{
+			ch = *i;
+			if(ch <= 0x7f)
+			{
+				result += (char) ch;
+				++i;
+			}
+			else
+			{
+				if (ch >= 0xe0)
+				{
+					// handle U+0000..U+FFFF inline
+					t1 = (char) (*(i + 1) - 0x80);
+					t2 = (char) (*(i + 2) - 0x80);
+					if (ch <= 0xef && t1 <= 0x3f && t2 <= 0x3f)
+					{
+						// no need for (ch & 0xf) because the upper bits are truncated after <<12 in the cast
+						// to (char)
+						result += (char) ((ch << 12) | (t1 << 6) | t2);
+						i += 3;
+						continue;
+					}
+				}
+				else
+				{
+					// handle U+0000..U+07FF inline
+					t1 = (char) (*(i + 1) - 0x80);
+					if (ch >= 0xc0 && t1 <= 0x3f)
+					{
+						result += (char) (((ch & 0x1f) << 6) | t1);
+						i += 2;
+						continue;
+					}
+				}
+				throw string("Invalid char found: ") + ch;
+			}
+		}
+		while (--count > 0);
+	}
+
+	while (i != src.end())
+	{
+		ch = *i;
+		if (ch <= 0x7f)
+		{
+			result += (char) ch;
+			++i;
+		}
+		else
+		{
+			if (ch >= 0xe0)
+			{
+				// handle U+0000..U+FFFF inline
+				t1 = (char) (*(i + 1) - 0x80);
+				t2 = (char) (*(i + 2) - 0x80);
+				if (ch <= 0xef && ((src.end() - i) >= 3) &&
+					t1 <= 0x3f && t2 <= 0x3f)
+				{
+					// no need for (ch & 0xf) because the upper bits are truncated after <<12 in the cast to
+					// char
+					result += (char) ((ch << 12) | (t1 << 6) | t2);
+					i += 3;
+					continue;
+				}
+			}
+			else
+			{
+				// handle U+0000..U+07FF inline
+				t1 = (char) (*(i + 1) - 0x80);
+				if (ch >= 0xc0 && ((src.end() - i) >= 2) &&
+					t1 <= 0x3f)
+				{
+					result += (char) (((ch & 0x1f) << 6) | t1);
+					i += 2;
+					continue;
+				}
+			}
+			throw string("Invalid char found: ") + ch;
+		}
+	}
+
+	// do not fill the dest buffer just count the char needed
+	while (i != src.end())
+	{
+		ch = *i;
+		if (ch <= 0x7f)
+			++i;
+		else
+		{
+			if (ch >= 0xe0)
+			{
+				// handle U+0000..U+FFFF inline
+				if (ch <= 0xef && ((src.end() - i) >= 3) &&
+					(char) (*(i + 1) - 0x80) <= 0x3f &&
+					(char) (*(i + 2) - 0x80) <= 0x3f)
+				{
+					i += 3;
+					continue;
+				}
+			}
+			else
+			{
+				// handle U+0000..U+07FF inline
+				if (ch >= 0xc0 && ((src.end() - i) >= 2) &&
+					(char) (*(i + 1) - 0x80) <= 0x3f)
+				{
+					i += 2;
+					continue;
+				}
+			}
+			throw string("Invalid char found: ") + ch;
+		}
+	}
+	return result;
+}
+
+} // namespace legacy
@@ -44,6 +44,57 @@ using std::cin;
 
 const long count = 500000;
 
+namespace legacy
+{
+	/**
+	 * The previous implementations of jace::toUTF8() and jace::fromUTF8(). See legacy_utf8.cpp.
+	 */
+	std::string toUTF8(const std::wstring& src);
+	std::wstring fromUTF8(const std::string& src);
+}
+
+/**
+ * Returns the text used by the transcoding benchmarks: mostly ASCII with some Latin-1 and CJK
+ * characters.
+ */
+std::wstring getSampleText()
+{
+	std::wstring result;
+	for (int i = 0; i < 4; ++i)
+		result += L"The quick brown fox jumps over the lazy dog. Gr\u00FC\u00DFe, \u4E2D\u6587 text. ";
+	return result;
+}
+
+template <std::string (*Function)(const std::wstring&)> struct ToUTF8
+{
+	std::wstring text;
+	size_t length;
+
+	ToUTF8(): text(getSampleText()), length(0)
+	{}
+
+	void operator()()
+	{
+		for (int i = 0; i < count; ++i)
+			length += Function(text).size();
+	}
+};
+
+template <std::wstring (*Function)(const std::string&)> struct FromUTF8
+{
+	std::string text;
+	size_t length;
+
+	FromUTF8(): text(jace::toUTF8(getSampleText())), length(0)
+	{}
+
+	void operator()()
+	{
+		for (int i = 0; i < count; ++i)
+			length += Function(text).size();
+	}
+};
+
 struct JaceHashCodeInvoke
 {
 	Object obj;
@@ -218,6 +269,10 @@ int main()
 		JaceLocalRef jaceLocalRef;
 		JaceExceptionCheck jaceExceptionCheck;
 		JaceGetMethod jaceGetMethod;
+		ToUTF8<legacy::toUTF8> legacyToUTF8;
+		ToUTF8<jace::toUTF8> jaceToUTF8;
+		FromUTF8<legacy::fromUTF8> legacyFromUTF8;
+		FromUTF8<jace::fromUTF8> jaceFromUTF8;
 
 		perform(jniHashCode, "Average JNI Object.hashCode");
 		perform(jaceHashCode, "Average Jace Object.hashCode");
@@ -226,6 +281,10 @@ int main()
 		perform(jaceLocalRef, "Average Jace NewLocalRef+DeleteLocalRef");
 		perform(jaceExceptionCheck, "Average ExceptionCheck");
 		perform(jaceGetMethod, "Average Method lookup");
+		perform(legacyToUTF8, "Average toUTF8 (previous implementation)");
+		perform(jaceToUTF8, "Average Jace toUTF8");
+		perform(legacyFromUTF8, "Average fromUTF8 (previous implementation)");
+		perform(jaceFromUTF8, "Average Jace fromUTF8");
 	}
 	catch (VirtualMachineShutdownError&)
 	{
@@ -46,6 +46,13 @@ public class EnhanceJavaMojo
 	 * @parameter default-value="false"
 	 */
 	private boolean verbose;
+	/**
+	 * How native peers are destroyed when their Java peers become unreachable: "FINALIZER" or
+	 * "PHANTOM".
+	 *
+	 * @parameter default-value="FINALIZER"
+	 */
+	private PeerEnhancer.Cleanup cleanup = PeerEnhancer.Cleanup.FINALIZER;
 	/**
 	 * The native libraries to load before initializing the Java peer.
 	 *
@@ -66,7 +73,7 @@ public class EnhanceJavaMojo
 		try
 		{
 			PeerEnhancer.Builder enhancer = new PeerEnhancer.Builder(inputFile, outputFile).verbose(
-				verbose);
+				verbose).cleanup(cleanup);
 			if (deallocationMethod != null)
 				enhancer.deallocationMethod(deallocationMethod);
 			for (String library: libraries)